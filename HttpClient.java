@@ -1,13 +1,90 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
 
 /**
  * <p><b>{@link HttpClient} Description</b>: 这是一个 Http 请求工具类，是 http 请求方法的一个入口类。
@@ -15,6 +92,7 @@ import java.util.concurrent.Executors;
  * 关于请求的基本逻辑在此类中。{@link OnHttpResult} 是一个回调接口，请求成功或者失败后，返回信息传入接口。
  * {@link Header} 是请求头中的key，通过枚举列出这些key，方便获取使用。
  * {@link Entry} 为传入接口数据的实体类，请求头数据，参数数据都是以该实体类为载体。
+ * {@link Transport} 是发送请求的传输层，默认使用 {@link UrlConnectionTransport}，可替换为基于 NIO 的 {@link NioTransport}。
  * </p>
  *
  * <p>关于 {@link HttpClient} 的使用例子：
@@ -61,15 +139,263 @@ import java.util.concurrent.Executors;
  */
 public class HttpClient {
 
-    private static Map<String, String> entryToMap(Entry entry) {
-        HashMap<String, String> map = new HashMap<>();
-        Entry tep = entry;
-        while (entry != null) {
-            map.put(entry.key, entry.value);
-            entry = entry.next;
+    /**
+     * 设置是否复用连接（keep-alive）。开启时请求结束后读尽并关闭响应流（包括错误响应），
+     * 底层连接按 host/port 归还到 JDK 的连接池中复用；关闭时发送 {@code Connection: close}，由服务端在响应后关闭连接
+     * （读完响应体后 JDK 仍会缓存连接，{@link HttpURLConnection#disconnect()} 不能将其关闭）。
+     * <p>JDK 的连接池由整个 JVM 共享，空闲连接数和保留时间只能通过启动参数设置：
+     * {@code -Dhttp.maxConnections}（每个 host/port 的空闲连接数，默认 5），
+     * {@code -Dhttp.keepAlive.time.server}（空闲保留秒数，JDK 19+ 支持，更早的 JDK 按服务端的
+     * {@code Keep-Alive: timeout=n}，没有时为 5 秒）。需要按应用设置时使用 {@link NioTransport} 自己的连接池。</p>
+     * @param keepAlive 是否复用连接，默认 true
+     */
+    public static void setKeepAlive(boolean keepAlive) {
+        HttpBase.keepAlive = keepAlive;
+    }
+
+    /**
+     * 设置是否接收压缩的响应。开启后发送 {@code Accept-Encoding: gzip, deflate}，并按响应的 {@code Content-Encoding}
+     * 以流的方式解压响应体。JDK 没有 brotli 解码器，不会请求 br 编码。
+     * @param compression 是否接收压缩的响应，默认 false
+     */
+    public static void setCompression(boolean compression) {
+        HttpBase.compression = compression;
+    }
+
+    /**
+     * 设置请求体 gzip 压缩的阈值，达到阈值的 POST/PUT 请求体压缩后发送，并设置 {@code Content-Encoding: gzip}。
+     * 内存中的请求体压缩后按固定长度发送，文件和流在发送时边读边压缩，使用分块发送。
+     * @param bytes 阈值字节数，小于 0 表示不压缩（默认）
+     */
+    public static void setGzipRequestThreshold(long bytes) {
+        HttpBase.gzipThreshold = bytes;
+    }
+
+    /**
+     * 设置连接超时，单个请求可通过 {@link Request#setConnectTimeout(long, TimeUnit)} 覆盖
+     * @param timeout   超时时间，0 表示不限制，默认 5 秒
+     * @param unit      时间单位
+     */
+    public static void setConnectTimeout(long timeout, TimeUnit unit) {
+        HttpBase.connectTimeout = Timeout.toMillis(timeout, unit);
+    }
+
+    /**
+     * 设置读取超时，即等待服务端数据的最长时间，单个请求可通过 {@link Request#setReadTimeout(long, TimeUnit)} 覆盖
+     * @param timeout   超时时间，0 表示不限制，默认 8 秒
+     * @param unit      时间单位
+     */
+    public static void setReadTimeout(long timeout, TimeUnit unit) {
+        HttpBase.readTimeout = Timeout.toMillis(timeout, unit);
+    }
+
+    /**
+     * 设置请求的总超时，从发起请求（异步请求从提交）到读完响应体的最长时间，包括在队列中等待、重定向和重试的时间。
+     * 超时后同步请求抛出 {@link SocketTimeoutException}，异步请求以该异常结束并断开连接。
+     * 单个请求可通过 {@link Request#setTimeout(long, TimeUnit)} 覆盖
+     * @param timeout   超时时间，0 表示不限制（默认）
+     * @param unit      时间单位
+     */
+    public static void setTimeout(long timeout, TimeUnit unit) {
+        HttpBase.totalTimeout = Timeout.toMillis(timeout, unit);
+    }
+
+    /**
+     * 设置传输层，默认为 {@link UrlConnectionTransport}。实现 {@link AsyncTransport} 的传输层（如 {@link NioTransport}）
+     * 在异步请求时不占用线程池的线程等待响应，回调在传输层的 IO 线程中执行，回调中不要进行耗时操作。
+     * @param transport 传输层
+     */
+    public static void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new IllegalArgumentException("transport is null");
+        }
+        HttpBase.transport = transport;
+    }
+
+    /**
+     * 设置异步请求使用的线程池，替换默认线程池。传入的线程池由调用方管理，{@link #shutdown()} 同样会关闭它。
+     * ThreadPoolExecutor 的拒绝策略会被包装，丢弃的请求按拒绝处理，不能使用 DiscardPolicy 和 DiscardOldestPolicy
+     * @param executorService 线程池
+     */
+    public static void setExecutor(ExecutorService executorService) {
+        HttpBase.DISPATCHER.setExecutor(executorService, false);
+    }
+
+    /**
+     * 设置异步请求线程池的大小和等待队列长度。线程空闲 60 秒后回收，全部回收后不会阻止 JVM 退出。
+     * @param maxThreads    最大线程数，默认 64
+     * @param queueCapacity 等待队列长度，默认 1024
+     * @param handler       队列满时的拒绝策略，为 null 时拒绝请求并回调 {@link OnHttpResult#onError(String)}。
+     *                      策略丢弃了请求时同样按拒绝处理；不能使用 DiscardPolicy 和 DiscardOldestPolicy
+     */
+    public static void setExecutor(int maxThreads, int queueCapacity, RejectedExecutionHandler handler) {
+        HttpBase.DISPATCHER.setExecutor(Dispatcher.newExecutor(maxThreads, queueCapacity, handler), true);
+    }
+
+    /**
+     * 异步请求改为每个请求一个虚拟线程执行（JDK 21+），阻塞的网络 IO 不再占用平台线程，适合大量并发请求。
+     * 当前 JDK 不支持虚拟线程时保持原线程池不变。
+     * @return 是否已切换到虚拟线程
+     */
+    public static boolean useVirtualThreads() {
+        ExecutorService executorService = Dispatcher.newVirtualThreadExecutor();
+        if (executorService == null) {
+            return false;
+        }
+        HttpBase.DISPATCHER.setExecutor(executorService, true);
+        return true;
+    }
+
+    /**
+     * 设置每个主机（host:port）同时执行的异步请求数，超出的请求在该主机的队列中等待，不占用线程。
+     * @param maxRequestsPerHost 每个主机的并发数，小于等于 0 表示不限制（默认）
+     */
+    public static void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        HttpBase.DISPATCHER.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * 关闭异步请求线程池，已提交的请求继续执行，新的请求将被拒绝。
+     * 按每个主机并发数或自适应限流排队的请求在关闭前全部提交到线程池，不再受并发数限制，超出线程池队列容量的请求被拒绝；
+     * 在限流器中等待发出时间的请求到时间后被拒绝
+     */
+    public static void shutdown() {
+        HttpBase.DISPATCHER.shutdown();
+    }
+
+    /**
+     * 等待异步请求线程池关闭
+     * @param timeout   等待时间
+     * @param unit      时间单位
+     * @return          在超时前关闭返回 true
+     * @throws InterruptedException 等待时被中断
+     */
+    public static boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return HttpBase.DISPATCHER.executorService.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 设置 GET 请求的对冲策略。同步的 GET 请求也在线程池中执行，当前线程等待先得到的响应
+     * @param policy 对冲策略，为 null 时不对冲（默认）
+     */
+    public static void setHedgePolicy(HedgePolicy policy) {
+        HttpBase.hedgePolicy = policy;
+    }
+
+    /**
+     * 设置按主机的熔断器，熔断器打开时请求直接以 {@link CircuitOpenException} 失败，回调请求通过 onError 通知
+     * @param breaker 熔断器，为 null 时不熔断（默认）
+     */
+    public static void setCircuitBreaker(CircuitBreaker breaker) {
+        HttpBase.circuitBreaker = breaker;
+    }
+
+    /**
+     * 设置异步请求按主机自适应调整的并发上限，与 {@link #setMaxRequestsPerHost(int)} 同时设置时取较小的值
+     * @param limiter 限流器，为 null 时不自适应调整（默认）
+     */
+    public static void setAdaptiveLimiter(AdaptiveLimiter limiter) {
+        HttpBase.DISPATCHER.limiter = limiter;
+    }
+
+    /**
+     * 设置按主机和地址前缀的限流器。超出速率的请求在发出前等待：同步请求在当前线程中等待，异步请求在定时器中排队，不占用线程池的线程；
+     * 需要等待的时间超过限流器的最长等待时间或请求的总超时时，请求直接以 {@link RateLimitedException} 失败，回调请求通过 onError 通知
+     * @param limiter 限流器，为 null 时不限流（默认）
+     */
+    public static void setRateLimiter(RateLimiter limiter) {
+        HttpBase.rateLimiter = limiter;
+    }
+
+    /**
+     * 设置域名解析，{@link NioTransport} 和 {@link Http2Transport} 建立新连接时按解析器缓存的结果选择地址。
+     * {@link UrlConnectionTransport} 由 HttpURLConnection 自己解析，不使用该设置
+     * @param resolver 解析器，为 null 时每次建立连接使用 JVM 的域名解析（默认）
+     */
+    public static void setDnsResolver(DnsResolver resolver) {
+        HttpBase.dnsResolver = resolver;
+    }
+
+    /**
+     * 设置失败重试策略，同步、回调和 CompletableFuture 请求都按该策略重试，流式请求和下载不重试
+     * @param policy 重试策略，为 null 时不重试（默认）
+     */
+    public static void setRetryPolicy(RetryPolicy policy) {
+        HttpBase.retryPolicy = policy;
+    }
+
+    /**
+     * 设置是否合并相同的 GET 请求。开启后，请求方式、包含参数的地址和指定的请求头都相同的请求在执行期间只发出一次，
+     * 其余调用方（同步、回调和 CompletableFuture）等待并得到同一个响应。
+     * 每个调用方仍按自己的总超时结束等待，取消等待不会取消正在执行的请求
+     * @param enabled       是否合并，默认关闭
+     * @param keyHeaders    参与比较的请求头名称，例如 "Authorization"，未列出的请求头不同的请求也会被合并
+     */
+    public static void setRequestCoalescing(boolean enabled, String... keyHeaders) {
+        HttpBase.coalescingHeaders = enabled ? keyHeaders.clone() : null;
+    }
+
+    /**
+     * 设置 GET 响应缓存，多个请求可以共用同一个缓存
+     * @param cache 响应缓存，为 null 时不缓存（默认）
+     */
+    public static void setCache(ResponseCache cache) {
+        HttpBase.cache = cache;
+    }
+
+    /**
+     * 添加请求事件监听器，之后发出的请求回调各阶段的事件
+     * @param listener 监听器
+     */
+    public static void addEventListener(EventListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener");
+        }
+        synchronized (HttpBase.class) {
+            EventListener[] listeners = Arrays.copyOf(HttpBase.listeners, HttpBase.listeners.length + 1);
+            listeners[listeners.length - 1] = listener;
+            HttpBase.listeners = listeners;
+        }
+    }
+
+    /**
+     * 移除请求事件监听器，已经开始的请求仍会回调
+     * @param listener 监听器
+     */
+    public static void removeEventListener(EventListener listener) {
+        synchronized (HttpBase.class) {
+            List<EventListener> listeners = new ArrayList<>(Arrays.asList(HttpBase.listeners));
+            if (listeners.remove(listener)) {
+                HttpBase.listeners = listeners.toArray(new EventListener[0]);
+            }
+        }
+    }
+
+    /**
+     * 设置是否按请求方式和主机记录请求耗时的直方图，默认关闭
+     * @param enabled 是否记录
+     */
+    public static void setLatencyHistogram(boolean enabled) {
+        HttpBase.latencyHistogram = enabled;
+    }
+
+    /**
+     * 获取延迟直方图的快照，键为 "请求方式 host[:port]"，例如 "GET example.com"
+     * @return 按键排序的快照
+     */
+    public static Map<String, LatencySnapshot> getLatencySnapshots() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : HttpBase.LATENCY.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
         }
-        entry = tep;
-        return map;
+        return snapshots;
+    }
+
+    /**
+     * 清空延迟直方图，定期导出后调用可以得到每个周期的分布
+     */
+    public static void resetLatencyHistograms() {
+        HttpBase.LATENCY.clear();
     }
 
     /**
@@ -79,7 +405,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String get(String url, Entry params) {
-        return HttpBase.get(url, entryToMap(params));
+        return HttpBase.get(url, params);
     }
 
     /**
@@ -90,7 +416,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String get(String url, Entry params, Entry headers) {
-        return HttpBase.get(url, entryToMap(params), entryToMap(headers));
+        return HttpBase.get(url, params, headers);
     }
 
     /**
@@ -100,7 +426,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void get(String url, Entry params, OnHttpResult onHttpResult) {
-        HttpBase.getAsyn(url, entryToMap(params), onHttpResult);
+        HttpBase.getAsyn(url, params, onHttpResult);
     }
 
     /**
@@ -111,7 +437,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void get(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
-        HttpBase.getAsyn(url, entryToMap(params), entryToMap(headers), onHttpResult);
+        HttpBase.getAsyn(url, params, headers, onHttpResult);
     }
 
     /**
@@ -121,7 +447,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String post(String url, Entry params) {
-        return HttpBase.post(url, entryToMap(params));
+        return HttpBase.post(url, params);
     }
 
     /**
@@ -132,7 +458,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String post(String url, Entry params, Entry headers) {
-        return HttpBase.post(url, entryToMap(params), entryToMap(headers));
+        return HttpBase.post(url, params, headers);
     }
 
     /**
@@ -142,7 +468,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void post(String url, Entry params, OnHttpResult onHttpResult) {
-        HttpBase.postAsyn(url, entryToMap(params), onHttpResult);
+        HttpBase.postAsyn(url, params, onHttpResult);
     }
 
     /**
@@ -153,7 +479,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void post(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
-        HttpBase.postAsyn(url, entryToMap(params), entryToMap(headers), onHttpResult);
+        HttpBase.postAsyn(url, params, headers, onHttpResult);
     }
 
     /**
@@ -163,7 +489,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String put(String url, Entry params) {
-        return HttpBase.put(url, entryToMap(params));
+        return HttpBase.put(url, params);
     }
 
     /**
@@ -174,7 +500,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String put(String url, Entry params, Entry headers) {
-        return HttpBase.put(url, entryToMap(params), entryToMap(headers));
+        return HttpBase.put(url, params, headers);
     }
 
     /**
@@ -184,7 +510,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void put(String url, Entry params, OnHttpResult onHttpResult) {
-        HttpBase.putAsyn(url, entryToMap(params), onHttpResult);
+        HttpBase.putAsyn(url, params, onHttpResult);
     }
 
     /**
@@ -195,7 +521,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void put(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
-        HttpBase.putAsyn(url, entryToMap(params), entryToMap(headers), onHttpResult);
+        HttpBase.putAsyn(url, params, headers, onHttpResult);
     }
 
     /**
@@ -205,7 +531,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String delete(String url, Entry params) {
-        return HttpBase.delete(url, entryToMap(params));
+        return HttpBase.delete(url, params);
     }
 
     /**
@@ -216,7 +542,7 @@ public class HttpClient {
      * @return          返回结果
      */
     public static String delete(String url, Entry params, Entry headers) {
-        return HttpBase.delete(url, entryToMap(params), entryToMap(headers));
+        return HttpBase.delete(url, params, headers);
     }
 
     /**
@@ -226,7 +552,7 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void delete(String url, Entry params, OnHttpResult onHttpResult) {
-        HttpBase.deleteAsyn(url, entryToMap(params), onHttpResult);
+        HttpBase.deleteAsyn(url, params, onHttpResult);
     }
 
     /**
@@ -237,115 +563,403 @@ public class HttpClient {
      * @param onHttpResult  请求回调
      */
     public static void delete(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
-        HttpBase.deleteAsyn(url, entryToMap(params), entryToMap(headers), onHttpResult);
+        HttpBase.deleteAsyn(url, params, headers, onHttpResult);
     }
 
-    /** http 基础请求类 */
-    private static class HttpBase {
+    /**
+     * get请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> getAsync(String url, Entry params) {
+        return executeAsync(new Request("GET", url).setParams(params).setHeaders(null));
+    }
 
-        private static final ExecutorService EXECUTOR_SERVICE = Executors.newCachedThreadPool();
+    /**
+     * get请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> getAsync(String url, Entry params, Entry headers) {
+        return executeAsync(new Request("GET", url).setParams(params).setHeaders(headers));
+    }
 
-        /**
-         * get请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @return          返回结果
-         */
-        private static String get(String url, Map<String, String> params) {
-            return get(url, params, null);
-        }
+    /**
+     * post请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> postAsync(String url, Entry params) {
+        return executeAsync(new Request("POST", url).setParams(params).setHeaders(null));
+    }
 
-        /**
-         * get请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @param headers   请求头
-         * @return          返回结果
-         */
-        private static String get(String url, Map<String, String> params, Map<String, String> headers) {
-            return request(mapToString(url, params, "?"), null, headers, "GET");
-        }
+    /**
+     * post请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> postAsync(String url, Entry params, Entry headers) {
+        return executeAsync(new Request("POST", url).setParams(params).setHeaders(headers));
+    }
 
-        /**
-         * get请求
-         * @param url           请求地址
-         * @param params        请求参数
-         * @param onHttpResult  请求回调
-         */
-        private static void getAsyn(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-            getAsyn(url, params, null, onHttpResult);
-        }
+    /**
+     * put请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> putAsync(String url, Entry params) {
+        return executeAsync(new Request("PUT", url).setParams(params).setHeaders(null));
+    }
 
-        /**
-         * get请求
-         * @param url           请求地址
-         * @param params        请求参数
-         * @param headers       请求头
-         * @param onHttpResult  请求回调
-         */
-        private static void getAsyn(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-            requestAsyn(mapToString(url, params, "?"), null, headers, "GET", onHttpResult);
-        }
+    /**
+     * put请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> putAsync(String url, Entry params, Entry headers) {
+        return executeAsync(new Request("PUT", url).setParams(params).setHeaders(headers));
+    }
 
-        /**
-         * post请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @return          返回结果
-         */
-        private static String post(String url, Map<String, String> params) {
-            return post(url, params, null);
-        }
+    /**
+     * delete请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> deleteAsync(String url, Entry params) {
+        return executeAsync(new Request("DELETE", url).setParams(params).setHeaders(null));
+    }
 
-        /**
-         * post请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @param headers   请求头
-         * @return          返回结果
-         */
-        private static String post(String url, Map<String, String> params, Map<String, String> headers) {
-            return request(url, mapToString(null, params, null), headers, "POST");
-        }
+    /**
+     * delete请求，返回响应的 CompletableFuture，可组合、取消或等待结果。任何状态码都正常完成，连接或读取失败时以 IOException 结束
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> deleteAsync(String url, Entry params, Entry headers) {
+        return executeAsync(new Request("DELETE", url).setParams(params).setHeaders(headers));
+    }
 
-        /**
-         * post请求
-         * @param url       请求地址
-         * @param params    请求参数
-         */
-        private static void postAsyn(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-            postAsyn(url, params, null, onHttpResult);
+    /**
+     * 等待一组请求全部完成，结果按传入顺序排列；任一请求失败时返回的 CompletableFuture 以该异常结束
+     * @param futures   请求的 CompletableFuture
+     * @return          所有结果的 CompletableFuture
+     */
+    @SafeVarargs
+    public static CompletableFuture<List<Response>> allOf(CompletableFuture<Response>... futures) {
+        List<CompletableFuture<Response>> list = new ArrayList<>(futures.length);
+        for (CompletableFuture<Response> future : futures) {
+            list.add(future);
         }
+        return allOf(list);
+    }
 
-        /**
-         * post请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @param headers   请求头
-         */
-        private static void postAsyn(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-            requestAsyn(url, mapToString(null, params, null), headers, "POST", onHttpResult);
-        }
+    /**
+     * 等待一组请求全部完成，结果按传入顺序排列；任一请求失败时返回的 CompletableFuture 以该异常结束
+     * @param futures   请求的 CompletableFuture
+     * @return          所有结果的 CompletableFuture
+     */
+    public static CompletableFuture<List<Response>> allOf(Collection<CompletableFuture<Response>> futures) {
+        List<CompletableFuture<Response>> list = new ArrayList<>(futures);
+        return CompletableFuture.allOf(list.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<Response> results = new ArrayList<>(list.size());
+            for (CompletableFuture<Response> future : list) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
 
-        /**
-         * put请求
-         * @param url       请求地址
-         * @param params    请求参数
-         * @return          返回结果
-         */
-        private static String put(String url, Map<String, String> params) {
-            return put(url, params, null);
-        }
+    /**
+     * post请求，发送文件或二进制请求体，默认 Content-Type 为 application/octet-stream，可通过请求头覆盖
+     * @param url       请求地址
+     * @param body      请求体
+     * @param headers   请求头
+     * @return          返回结果
+     */
+    public static String postBody(String url, Body body, Entry headers) {
+        return HttpBase.request(url, body, headers, "POST", "application/octet-stream");
+    }
 
-        /**
-         * put请求
-         * @param url       请求地址
-         * @param params    请求参数
+    /**
+     * put请求，发送文件或二进制请求体，默认 Content-Type 为 application/octet-stream，可通过请求头覆盖
+     * @param url       请求地址
+     * @param body      请求体
+     * @param headers   请求头
+     * @return          返回结果
+     */
+    public static String putBody(String url, Body body, Entry headers) {
+        return HttpBase.request(url, body, headers, "PUT", "application/octet-stream");
+    }
+
+    /**
+     * get请求，响应体以流的形式传给 OnHttpStream 处理，不会整体读入内存。回调返回后关闭响应
+     * @param url           请求地址
+     * @param params        请求参数
+     * @param headers       请求头
+     * @param onHttpStream  响应体处理
+     * @throws IOException  连接或读取失败
+     */
+    public static void getStream(String url, Entry params, Entry headers, OnHttpStream onHttpStream) throws IOException {
+        HttpBase.stream(HttpBase.query(url, params), null, headers, "GET", onHttpStream);
+    }
+
+    /**
+     * post请求，响应体以流的形式传给 OnHttpStream 处理，不会整体读入内存。回调返回后关闭响应
+     * @param url           请求地址
+     * @param params        请求参数
+     * @param headers       请求头
+     * @param onHttpStream  响应体处理
+     * @throws IOException  连接或读取失败
+     */
+    public static void postStream(String url, Entry params, Entry headers, OnHttpStream onHttpStream) throws IOException {
+        HttpBase.stream(url, HttpBase.form(params), headers, "POST", onHttpStream);
+    }
+
+    /**
+     * get请求，响应体通过 {@link FileChannel#transferFrom} 直接写入文件，已存在的文件会被覆盖
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @param target    保存的文件
+     * @return          写入的字节数
+     * @throws IOException 连接、读取或写入文件失败
+     */
+    public static long download(String url, Entry params, Entry headers, Path target) throws IOException {
+        long[] written = new long[1];
+        getStream(url, params, headers, body -> written[0] = HttpBase.transfer(body, target));
+        return written[0];
+    }
+
+    /**
+     * 发送请求并返回完整的响应，任何状态码都不会抛出异常，可以只读取响应头而不解码响应体。
+     * GET、DELETE、HEAD 的参数拼接在地址后，其他请求方式的参数作为表单请求体发送
+     * @param method    请求方式
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应
+     * @throws IOException 连接或读取失败
+     */
+    public static Response execute(String method, String url, Entry params, Entry headers) throws IOException {
+        return execute(new Request(method, url).setParams(params).setHeaders(headers));
+    }
+
+    /**
+     * 异步发送请求，响应通过 CompletableFuture 返回，连接或读取失败时以 IOException 结束
+     * @param method    请求方式
+     * @param url       请求地址
+     * @param params    请求参数
+     * @param headers   请求头
+     * @return          响应的 CompletableFuture
+     * @see #execute(String, String, Entry, Entry)
+     */
+    public static CompletableFuture<Response> executeAsync(String method, String url, Entry params, Entry headers) {
+        return executeAsync(new Request(method, url).setParams(params).setHeaders(headers));
+    }
+
+    /**
+     * 发送请求并返回完整的响应，请求中未设置的超时使用全局设置
+     * @param request   请求
+     * @return          响应
+     * @throws IOException 连接或读取失败，超时时为 {@link SocketTimeoutException}
+     */
+    public static Response execute(Request request) throws IOException {
+        return HttpBase.response(request.url(), request.body(), request.headers, request.method, request.mediaType(), request.timeout());
+    }
+
+    /**
+     * 异步发送请求，总超时从提交时开始计算，超时后返回的 CompletableFuture 以 {@link SocketTimeoutException} 结束
+     * @param request   请求
+     * @return          响应的 CompletableFuture
+     */
+    public static CompletableFuture<Response> executeAsync(Request request) {
+        String url = request.url();
+        if (url == null || url.trim().isEmpty()) {
+            CompletableFuture<Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new MalformedURLException("Empty URL"));
+            return failed;
+        }
+        return HttpBase.responseFuture(url, request.body(), request.headers, request.method, request.mediaType(), request.timeout());
+    }
+
+    /**
+     * 批量发送请求。传输层为 {@link NioTransport} 时，每个主机使用固定数量的连接，服务端支持时在连接上流水线发送，
+     * 请求不经过线程池，也不重试和对冲；其他传输层按连接数限制同时执行的异步请求数。
+     * 按顺序等待返回的 CompletableFuture 得到与请求顺序相同的结果，注册回调则按完成顺序处理
+     * @param requests  请求
+     * @param options   连接数和每个连接上的请求数
+     * @return          与请求顺序相同的响应的 CompletableFuture，取消时断开未完成的请求
+     */
+    public static List<CompletableFuture<Response>> executeBatch(Collection<Request> requests, BatchOptions options) {
+        return HttpBase.batch(new ArrayList<>(requests), options);
+    }
+
+    /** http 基础请求类 */
+    private static class HttpBase {
+
+        private static final Dispatcher DISPATCHER = new Dispatcher();
+
+        /** 是否复用连接 */
+        private static volatile boolean keepAlive = true;
+
+        private static volatile Transport transport = new UrlConnectionTransport();
+
+        /** 是否请求并解压压缩的响应 */
+        private static volatile boolean compression = false;
+
+        /** 请求体压缩阈值，小于 0 表示不压缩 */
+        private static volatile long gzipThreshold = -1;
+
+        /** 连接、读取和总超时的毫秒数，0 表示不限制 */
+        private static volatile int connectTimeout = 5000;
+        private static volatile int readTimeout = 8000;
+        private static volatile int totalTimeout = 0;
+
+        /** 执行超时任务，异步请求超时后结束 CompletableFuture，同步请求超时后断开连接 */
+        private static final ScheduledThreadPoolExecutor TIMER = newTimer();
+
+        /** 合并相同 GET 请求时参与比较的请求头，为 null 时不合并 */
+        private static volatile String[] coalescingHeaders;
+        /** 正在执行的可合并请求，请求结束后移除 */
+        private static final Map<String, CompletableFuture<Response>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+        /** GET 请求的对冲策略，为 null 时不对冲 */
+        private static volatile HedgePolicy hedgePolicy;
+
+        /** 熔断器，为 null 时不熔断 */
+        private static volatile CircuitBreaker circuitBreaker;
+
+        /** 限流器，为 null 时不限流 */
+        private static volatile RateLimiter rateLimiter;
+
+        /** 域名解析，为 null 时使用 JVM 的域名解析 */
+        private static volatile DnsResolver dnsResolver;
+
+        /** 重试策略，为 null 时不重试 */
+        private static volatile RetryPolicy retryPolicy;
+
+        /** GET 响应缓存，为 null 时不缓存 */
+        private static volatile ResponseCache cache;
+
+        /** 请求事件监听器，修改时复制整个数组 */
+        private static volatile EventListener[] listeners = new EventListener[0];
+
+        /** 是否按请求方式和主机记录延迟直方图 */
+        private static volatile boolean latencyHistogram = false;
+        private static final Map<String, LatencyHistogram> LATENCY = new ConcurrentHashMap<>();
+
+        /**
+         * get请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @return          返回结果
+         */
+        private static String get(String url, Entry params) {
+            return get(url, params, null);
+        }
+
+        /**
+         * get请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @param headers   请求头
+         * @return          返回结果
+         */
+        private static String get(String url, Entry params, Entry headers) {
+            return request(query(url, params), null, headers, "GET");
+        }
+
+        /**
+         * get请求
+         * @param url           请求地址
+         * @param params        请求参数
+         * @param onHttpResult  请求回调
+         */
+        private static void getAsyn(String url, Entry params, OnHttpResult onHttpResult) {
+            getAsyn(url, params, null, onHttpResult);
+        }
+
+        /**
+         * get请求
+         * @param url           请求地址
+         * @param params        请求参数
+         * @param headers       请求头
+         * @param onHttpResult  请求回调
+         */
+        private static void getAsyn(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
+            requestAsyn(query(url, params), null, headers, "GET", onHttpResult);
+        }
+
+        /**
+         * post请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @return          返回结果
+         */
+        private static String post(String url, Entry params) {
+            return post(url, params, null);
+        }
+
+        /**
+         * post请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @param headers   请求头
+         * @return          返回结果
+         */
+        private static String post(String url, Entry params, Entry headers) {
+            return request(url, form(params), headers, "POST");
+        }
+
+        /**
+         * post请求
+         * @param url       请求地址
+         * @param params    请求参数
+         */
+        private static void postAsyn(String url, Entry params, OnHttpResult onHttpResult) {
+            postAsyn(url, params, null, onHttpResult);
+        }
+
+        /**
+         * post请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @param headers   请求头
+         */
+        private static void postAsyn(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
+            requestAsyn(url, form(params), headers, "POST", onHttpResult);
+        }
+
+        /**
+         * put请求
+         * @param url       请求地址
+         * @param params    请求参数
+         * @return          返回结果
+         */
+        private static String put(String url, Entry params) {
+            return put(url, params, null);
+        }
+
+        /**
+         * put请求
+         * @param url       请求地址
+         * @param params    请求参数
          * @param headers   请求头
          * @return          返回结果
          */
-        private static String put(String url, Map<String, String> params, Map<String, String> headers) {
-            return request(url, mapToString(null, params, null), headers, "PUT");
+        private static String put(String url, Entry params, Entry headers) {
+            return request(url, form(params), headers, "PUT");
         }
 
         /**
@@ -353,7 +967,7 @@ public class HttpClient {
          * @param url       请求地址
          * @param params    请求参数
          */
-        private static void putAsyn(String url, Map<String, String> params, OnHttpResult onHttpResult) {
+        private static void putAsyn(String url, Entry params, OnHttpResult onHttpResult) {
             putAsyn(url, params, null, onHttpResult);
         }
 
@@ -363,8 +977,8 @@ public class HttpClient {
          * @param params    请求参数
          * @param headers   请求头
          */
-        private static void putAsyn(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-            requestAsyn(url, mapToString(null, params, null), headers, "PUT", onHttpResult);
+        private static void putAsyn(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
+            requestAsyn(url, form(params), headers, "PUT", onHttpResult);
         }
 
         /**
@@ -373,7 +987,7 @@ public class HttpClient {
          * @param params    请求参数
          * @return          返回结果
          */
-        private static String delete(String url, Map<String, String> params) {
+        private static String delete(String url, Entry params) {
             return delete(url, params, null);
         }
 
@@ -384,8 +998,8 @@ public class HttpClient {
          * @param headers   请求头
          * @return          返回结果
          */
-        private static String delete(String url, Map<String, String> params, Map<String, String> headers) {
-            return request(mapToString(url, params, "?"), null, headers, "DELETE");
+        private static String delete(String url, Entry params, Entry headers) {
+            return request(query(url, params), null, headers, "DELETE");
         }
 
         /**
@@ -393,7 +1007,7 @@ public class HttpClient {
          * @param url       请求地址
          * @param params    请求参数
          */
-        private static void deleteAsyn(String url, Map<String, String> params, OnHttpResult onHttpResult) {
+        private static void deleteAsyn(String url, Entry params, OnHttpResult onHttpResult) {
             deleteAsyn(url, params, null, onHttpResult);
         }
 
@@ -403,176 +1017,4786 @@ public class HttpClient {
          * @param params    请求参数
          * @param headers   请求头
          */
-        private static void deleteAsyn(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-            requestAsyn(mapToString(url, params, "?"), null, headers, "DELETE", onHttpResult);
+        private static void deleteAsyn(String url, Entry params, Entry headers, OnHttpResult onHttpResult) {
+            requestAsyn(query(url, params), null, headers, "DELETE", onHttpResult);
         }
 
         /**
          * 表单请求
          * @param url       请求地址
-         * @param params    请求参数
+         * @param body      编码后的请求参数
          * @param headers   请求头
          * @param method    请求方式
          * @return          返回结果
          */
-        private static String request(String url, String params, Map<String, String> headers, String method) {
-            return request(url, params, headers, method, "application/x-www-form-urlencoded");
+        private static String request(String url, Body body, Entry headers, String method) {
+            return request(url, body, headers, method, "application/x-www-form-urlencoded");
         }
 
         /**
          * http请求
          * @param url       请求地址
-         * @param params    请求参数
+         * @param body      请求体
          * @param headers   请求头
          * @param method    请求方式
-         * @param mediaType 参数类型,application/json,application/x-www-form-urlencoded
+         * @param mediaType 请求体类型
          * @return          返回结果
          */
-        private static String request(String url, String params, Map<String, String> headers, String method, String mediaType) {
-            String result = null;
+        private static String request(String url, Body body, Entry headers, String method, String mediaType) {
             if (url == null || url.trim().isEmpty()) {
                 return null;
             }
-            method = method.toUpperCase();
-            OutputStreamWriter outputStreamWriter = null;
-            InputStream inputStream = null;
-            ByteArrayOutputStream resOut = null;
             try {
-                URL httpUrl = new URL(url);
-                HttpURLConnection httpURLConnection = (HttpURLConnection) httpUrl.openConnection();
-                if ("POST".equals(method) || "PUT".equals(method)) {
-                    httpURLConnection.setDoOutput(true);
-                    httpURLConnection.setUseCaches(false);
-                }
-                httpURLConnection.setReadTimeout(8000);
-                httpURLConnection.setConnectTimeout(5000);
-                httpURLConnection.setRequestMethod(method);
-                httpURLConnection.setRequestProperty(Header.ACCEPT_CHARSET.getValue(), "utf-8");
-                httpURLConnection.setRequestProperty(Header.CONTENT_TYPE.getValue(), mediaType);
-
-                // 添加请求头
-                if (headers != null) {
-                    for (String key : headers.keySet()) {
-                        httpURLConnection.setRequestProperty(key, headers.get(key));
-                    }
-                }
-                // 添加参数
-                if (params != null) {
-                    httpURLConnection.setRequestProperty("Content-Length", String.valueOf(params.length()));
-                    outputStreamWriter = new OutputStreamWriter(httpURLConnection.getOutputStream());
-                    outputStreamWriter.write(params);
-                    outputStreamWriter.flush();
-                }
-                // 判断连接状态
-                if (httpURLConnection.getResponseCode() >= 300) {
-                    throw new RuntimeException("HTTP Request is not success, Response code is " + httpURLConnection.getResponseCode());
-                }
-                // 获取返回数据
-                inputStream = httpURLConnection.getInputStream();
-                resOut = new ByteArrayOutputStream();
-                byte[] bytes = new byte[1024];
-                int len;
-                while ((len = inputStream.read(bytes)) != -1) {
-                    resOut.write(bytes, 0, len);
-                }
-                result = resOut.toString();
-                // 断开连接
-                httpURLConnection.disconnect();
+                return result(response(url, body, headers, method, mediaType, timeout()));
             } catch (IOException e) {
                 e.printStackTrace();
+                return null;
+            }
+        }
+
+        /**
+         * http请求，返回完整的响应，任何状态码都不会抛出异常
+         * @param url       请求地址
+         * @param body      请求体
+         * @param headers   请求头
+         * @param method    请求方式
+         * @param mediaType 请求体类型
+         * @param timeout   超时设置
+         * @return          响应
+         * @throws IOException 连接或读取失败
+         */
+        private static Response response(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) throws IOException {
+            String key = coalescingKey(method, url, headers);
+            if (key == null) {
+                return hedgeOrRetry(url, body, headers, method, mediaType, timeout);
+            }
+            CompletableFuture<Response> flight = new CompletableFuture<>();
+            CompletableFuture<Response> leader = IN_FLIGHT.putIfAbsent(key, flight);
+            if (leader != null) {
+                return await(leader, timeout);
+            }
+            try {
+                Response response = hedgeOrRetry(url, body, headers, method, mediaType, timeout);
+                flight.complete(response);
+                return response;
+            } catch (IOException | RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
             } finally {
-                if (resOut != null) {
-                    try {
-                        resOut.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                if (inputStream != null) {
-                    try {
-                        inputStream.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                IN_FLIGHT.remove(key, flight);
+            }
+        }
+
+        /** 设置了对冲策略的 GET 请求在线程池中执行并等待，其他请求在当前线程中按重试策略执行 */
+        private static Response hedgeOrRetry(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) throws IOException {
+            HedgePolicy policy = hedgePolicy;
+            if (policy == null || !"GET".equalsIgnoreCase(method)) {
+                return retry(url, body, headers, method, mediaType, timeout);
+            }
+            CompletableFuture<Response> future = hedge(policy, url, body, headers, method, mediaType, timeout);
+            try {
+                return await(future, timeout);
+            } finally {
+                future.cancel(false);
+            }
+        }
+
+        /** 按重试策略请求，每次请求单独记录指标，重试前和限流的等待计入总超时 */
+        private static Response retry(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) throws IOException {
+            RetryPolicy policy = retryPolicy;
+            for (int attempt = 1; ; attempt++) {
+                Response response = null;
+                IOException failure = null;
+                CallMetrics metrics = CallMetrics.create(method, url);
+                try {
+                    throttle(method, url, headers, timeout, metrics);
+                    response = response(url, body, headers, method, mediaType, timeout, metrics);
+                } catch (IOException e) {
+                    failure = e;
                 }
-                if (outputStreamWriter != null) {
-                    try {
-                        outputStreamWriter.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                long delay = policy == null ? -1 : policy.delay(method, url, body, attempt, response, failure, timeout);
+                if (delay < 0) {
+                    if (failure != null) {
+                        throw failure;
                     }
+                    return response;
                 }
+                sleep(delay, 0);
             }
-            return result;
         }
 
-        /**
-         * 表单请求
-         * @param url           请求地址
-         * @param params        请求参数
-         * @param headers       请求头
-         * @param method        请求方式
-         * @param onHttpResult  请求回调
-         */
-        private static void requestAsyn(String url, String params, Map<String, String> headers, String method, OnHttpResult onHttpResult) {
-            requestAsyn(url, params, headers, method, "application/x-www-form-urlencoded", onHttpResult);
+        /** 同步请求按限流器在当前线程中等待 */
+        private static void throttle(String method, String url, Entry headers, Timeout timeout, CallMetrics metrics) throws IOException {
+            long delay;
+            try {
+                delay = throttle(method, url, headers, timeout);
+            } catch (RateLimitedException e) {
+                metrics.callFailed(e);
+                throw e;
+            }
+            if (delay > 0) {
+                sleep(TimeUnit.NANOSECONDS.toMillis(delay), (int) (delay % 1000000));
+            }
+        }
+
+        /** 同步请求在当前线程中等待，被中断时请求失败 */
+        private static void sleep(long millis, int nanos) throws InterruptedIOException {
+            try {
+                Thread.sleep(millis, nanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("HTTP Request is interrupted");
+            }
         }
 
         /**
-         * http请求
-         * @param url           请求地址
-         * @param params        求参数
-         * @param headers       请求头
-         * @param method        请求方式
-         * @param mediaType     参数类型,application/json,application/x-www-form-urlencoded
-         * @param onHttpResult  请求回调
+         * 相同 GET 请求的合并键：请求方式、包含参数的地址和指定的请求头，不合并时返回 null
          */
-        private static void requestAsyn(String url, String params, Map<String, String> headers, String method, String mediaType, OnHttpResult onHttpResult) {
-            EXECUTOR_SERVICE.submit(() -> {
-                try {
-                    onHttpResult.onSuccess(request(url, params, headers, method, mediaType));
-                } catch (Exception e) {
-                    onHttpResult.onError(e.getMessage());
+        private static String coalescingKey(String method, String url, Entry headers) {
+            String[] names = coalescingHeaders;
+            if (names == null || !"GET".equalsIgnoreCase(method)) {
+                return null;
+            }
+            StringBuilder key = new StringBuilder(url.length() + 16 * names.length + 4).append("GET ").append(url);
+            for (String name : names) {
+                key.append('\n').append(name).append(':');
+                for (Entry entry = headers; entry != null; entry = entry.next) {
+                    if (name.equalsIgnoreCase(entry.key)) {
+                        key.append(entry.value);
+                        break;
+                    }
                 }
-            });
+            }
+            return key.toString();
         }
 
-        /** map转成string */
-        private static String mapToString(String url, Map<String, String> params, String first) {
-            StringBuilder stringBuilder;
-            if (url != null) {
-                stringBuilder = new StringBuilder(url);
-            } else {
-                stringBuilder = new StringBuilder();
+        /** 同步等待合并的请求，等待时间受本次请求的总超时限制 */
+        private static Response await(CompletableFuture<Response> flight, Timeout timeout) throws IOException {
+            try {
+                return timeout.hasDeadline() ? flight.get(timeout.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS) : flight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("HTTP Request is interrupted");
+            } catch (TimeoutException e) {
+                throw new SocketTimeoutException("Request timed out");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IOException(cause);
             }
-            if (params != null) {
-                boolean isFirst = true;
-                for (String key : params.keySet()) {
-                    if (isFirst) {
-                        if (first != null) {
-                            stringBuilder.append(first);
-                        }
-                        isFirst = false;
+        }
+
+        private static Response response(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout, CallMetrics metrics) throws IOException {
+            long start = System.nanoTime();
+            metrics.callStart();
+            ResponseCache responseCache = cache;
+            ResponseCache.CacheEntry cached = responseCache == null ? null : responseCache.lookup(method, url, headers);
+            Response hit = responseCache == null ? null : responseCache.hit(cached, headers, start);
+            if (hit != null) {
+                metrics.callEnd(hit.getCode());
+                return hit;
+            }
+            CircuitBreaker breaker = circuitBreaker;
+            String host = breaker == null ? null : Dispatcher.hostOf(url);
+            try {
+                if (breaker != null) {
+                    breaker.acquire(host);
+                }
+            } catch (CircuitOpenException e) {
+                metrics.callFailed(e);
+                throw e;
+            }
+            boolean recorded = false;
+            try (Exchange exchange = execute(url, body, ResponseCache.conditional(cached, headers), method.toUpperCase(), mediaType, timeout, metrics)) {
+                Response response = readResponse(exchange, start, System.nanoTime(), metrics);
+                if (breaker != null) {
+                    breaker.record(host, response.getCode() >= 500, System.nanoTime() - start);
+                    recorded = true;
+                }
+                if (responseCache != null) {
+                    response = responseCache.update(method, url, headers, cached, response);
+                }
+                metrics.callEnd(response.getCode());
+                return response;
+            } catch (IOException e) {
+                IOException failure = timeout.translate(e);
+                if (breaker != null && !recorded) {
+                    if (timeout.isCancelled()) {
+                        breaker.release(host);
                     } else {
-                        stringBuilder.append("&");
+                        breaker.record(host, true, System.nanoTime() - start);
                     }
-                    stringBuilder.append(key);
-                    stringBuilder.append("=");
-                    stringBuilder.append(params.get(key));
                 }
+                metrics.callFailed(failure);
+                throw failure;
+            } catch (RuntimeException | Error e) {
+                // 非法的请求头等调用方的错误不计入主机的失败，但要归还半开状态的试探名额
+                if (breaker != null && !recorded) {
+                    breaker.release(host);
+                }
+                metrics.callFailed(e);
+                throw e;
             }
-            return stringBuilder.toString();
         }
 
-    }
-
-    /** 请求头 */
-    public enum Header {
-        AUTHORIZATION("Authorization"),
-        PROXY_AUTHORIZATION("Proxy-Authorization"),
-        DATE("Date"),
-        CONNECTION("Connection"),
-        MIME_VERSION("MIME-Version"),
+        /**
+         * 使用异步传输层请求，响应体读取完成后在 IO 线程中得到响应，不占用线程池的线程
+         * @param transport 异步传输层
+         * @param url       请求地址
+         * @param body      请求体
+         * @param headers   请求头
+         * @param method    请求方式
+         * @param mediaType 请求体类型
+         * @param timeout   超时设置
+         * @param metrics   请求指标
+         * @return          响应的 CompletableFuture
+         */
+        private static CompletableFuture<Response> response(AsyncTransport transport, String url, Body body, Entry headers, String method, String mediaType, Timeout timeout, CallMetrics metrics) {
+            long start = System.nanoTime();
+            metrics.callStart();
+            ResponseCache responseCache = cache;
+            ResponseCache.CacheEntry cached = responseCache == null ? null : responseCache.lookup(method, url, headers);
+            Response hit = responseCache == null ? null : responseCache.hit(cached, headers, start);
+            if (hit != null) {
+                metrics.callEnd(hit.getCode());
+                return CompletableFuture.completedFuture(hit);
+            }
+            CircuitBreaker breaker = circuitBreaker;
+            String host = breaker == null ? null : Dispatcher.hostOf(url);
+            long threshold = gzipThreshold;
+            Map<String, String> requestHeaders = requestHeaders(ResponseCache.conditional(cached, headers), mediaType, threshold);
+            try {
+                if (breaker != null) {
+                    breaker.acquire(host);
+                }
+                body = compress(body, requestHeaders, threshold);
+            } catch (IOException | RuntimeException e) {
+                if (breaker != null && !(e instanceof CircuitOpenException)) {
+                    if (e instanceof IOException) {
+                        breaker.record(host, true, System.nanoTime() - start);
+                    } else {
+                        breaker.release(host);
+                    }
+                }
+                metrics.callFailed(e);
+                CompletableFuture<Response> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+            CompletableFuture<Exchange> exchangeFuture;
+            try {
+                exchangeFuture = transport.executeAsync(method.toUpperCase(), url, requestHeaders, body, timeout, metrics);
+            } catch (RuntimeException e) {
+                exchangeFuture = new CompletableFuture<>();
+                exchangeFuture.completeExceptionally(e);
+            }
+            boolean[] recorded = new boolean[1];
+            CompletableFuture<Response> future = exchangeFuture.thenApply(exchange -> {
+                try (Exchange ex = exchange) {
+                    Response response = readResponse(ex, start, System.nanoTime(), metrics);
+                    if (breaker != null) {
+                        breaker.record(host, response.getCode() >= 500, System.nanoTime() - start);
+                        recorded[0] = true;
+                    }
+                    return responseCache == null ? response : responseCache.update(method, url, headers, cached, response);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+            return future.whenComplete((response, e) -> {
+                if (e != null) {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (breaker != null && !recorded[0]) {
+                        // 与同步请求一致，取消和调用方的错误只归还试探名额
+                        if (timeout.isCancelled() || !(cause instanceof IOException)) {
+                            breaker.release(host);
+                        } else {
+                            breaker.record(host, true, System.nanoTime() - start);
+                        }
+                    }
+                    metrics.callFailed(cause);
+                } else {
+                    metrics.callEnd(response.getCode());
+                }
+            });
+        }
+
+        /** 参数是否拼接在地址后 */
+        private static boolean hasQuery(String method) {
+            return "GET".equals(method) || "DELETE".equals(method) || "HEAD".equals(method);
+        }
+
+        /** 合并请求头并按配置压缩请求体后发送请求 */
+        private static Exchange execute(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout, CallMetrics metrics) throws IOException {
+            // 阈值只读取一次，请求模板的请求头不能修改，合并请求头和压缩请求体需要使用同一个阈值
+            long threshold = gzipThreshold;
+            Map<String, String> requestHeaders = requestHeaders(headers, mediaType, threshold);
+            return transport.execute(method, url, requestHeaders, compress(body, requestHeaders, threshold), timeout, metrics);
+        }
+
+        /** 按全局设置创建超时，总超时从此时开始计算 */
+        private static Timeout timeout() {
+            return new Timeout(connectTimeout, readTimeout, totalTimeout);
+        }
+
+        private static ScheduledThreadPoolExecutor newTimer() {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "HttpClient-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+
+        /**
+         * 请求体达到压缩阈值时使用 gzip 压缩，调用方已设置 Content-Encoding 时不处理
+         * @param threshold 合并请求头时读取的压缩阈值
+         */
+        private static Body compress(Body body, Map<String, String> requestHeaders, long threshold) throws IOException {
+            if (body == null || threshold < 0 || requestHeaders.containsKey(Header.CONTENT_ENCODING.getValue())
+                    || (body.length() >= 0 && body.length() < threshold)) {
+                return body;
+            }
+            requestHeaders.put(Header.CONTENT_ENCODING.getValue(), "gzip");
+            return body.gzip();
+        }
+
+        /**
+         * 按 Content-Encoding 解压响应体，未开启压缩或不支持的编码原样返回，同时统计解压前的字节数。
+         * 关闭解压流只释放解压器，响应由 {@link Exchange#close()} 释放
+         */
+        private static InputStream decode(Exchange exchange, CallMetrics metrics) throws IOException {
+            InputStream inputStream = new FilterInputStream(exchange.getBody()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        metrics.received(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        metrics.received(n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long skipped = super.skip(n);
+                    metrics.received(skipped);
+                    return skipped;
+                }
+
+                @Override
+                public void close() {
+                    // 不关闭响应流
+                }
+            };
+            String encoding = exchange.getHeader(Header.CONTENT_ENCODING.getValue());
+            if (!compression || encoding == null) {
+                return inputStream;
+            }
+            encoding = encoding.trim().toLowerCase();
+            boolean gzip = "gzip".equals(encoding) || "x-gzip".equals(encoding);
+            if (!gzip && !"deflate".equals(encoding)) {
+                return inputStream;
+            }
+            BufferedInputStream buffered = new BufferedInputStream(inputStream, 8192);
+            buffered.mark(2);
+            int cmf = buffered.read();
+            int flg = buffered.read();
+            buffered.reset();
+            if (cmf == -1) {
+                // 204 等没有响应体的响应也可能带有 Content-Encoding，没有压缩数据可以解压
+                return buffered;
+            }
+            if (gzip) {
+                return new GZIPInputStream(buffered, 8192);
+            }
+            // 标准的 deflate 带有 zlib 头，部分服务端发送不带头的原始 deflate 数据
+            boolean zlib = flg != -1 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            Inflater inflater = new Inflater(!zlib);
+            return new InflaterInputStream(buffered, inflater, 8192) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+
+        /**
+         * 合并默认请求头和调用方的请求头，请求头名称不区分大小写
+         * @param threshold 请求体压缩阈值，开启压缩时请求模板也返回可以修改的请求头
+         */
+        private static Map<String, String> requestHeaders(Entry headers, String mediaType, long threshold) {
+            if (headers != null && headers.template != null) {
+                Map<String, String> prepared = headers.template.headers(mediaType, threshold);
+                if (prepared != null) {
+                    return prepared;
+                }
+            }
+            return mergeHeaders(headers, mediaType, compression, keepAlive);
+        }
+
+        /**
+         * 检查请求头，名称和值中的 CR、LF 可以拆分出额外的请求头或请求，NUL 会截断请求头，
+         * 与 HttpURLConnection 一致抛出 IllegalArgumentException
+         */
+        private static void checkHeader(String name, String value) {
+            if (name == null || name.isEmpty() || hasControl(name) || (value != null && hasControl(value))) {
+                throw new IllegalArgumentException("Illegal character(s) in header: " + name);
+            }
+        }
+
+        /** 检查请求行中的请求方式和路径 */
+        private static void checkRequestLine(String method, String path) {
+            if (method.isEmpty() || hasControl(method) || method.indexOf(' ') >= 0 || hasControl(path)) {
+                throw new IllegalArgumentException("Illegal character(s) in request line: " + method + " " + path);
+            }
+        }
+
+        private static boolean hasControl(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\r' || c == '\n' || c == '\0') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** 合并默认请求头和请求的请求头，请求的请求头优先 */
+        private static Map<String, String> mergeHeaders(Entry headers, String mediaType, boolean compression, boolean keepAlive) {
+            Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            requestHeaders.put(Header.ACCEPT_CHARSET.getValue(), "utf-8");
+            requestHeaders.put(Header.CONTENT_TYPE.getValue(), mediaType);
+            if (compression) {
+                requestHeaders.put(Header.ACCEPT_ENCODING.getValue(), "gzip, deflate");
+            }
+            if (!keepAlive) {
+                requestHeaders.put(Header.CONNECTION.getValue(), "close");
+            }
+            for (Entry entry = headers; entry != null; entry = entry.next) {
+                if (entry.key != null && !entry.key.isEmpty()) {
+                    requestHeaders.put(entry.key, entry.value);
+                }
+            }
+            return requestHeaders;
+        }
+
+        /** 读取解压后的响应体，生成响应 */
+        private static Response readResponse(Exchange exchange, long start, long headersAt, CallMetrics metrics) throws IOException {
+            // 压缩的响应解压后的长度未知
+            long length = exchange.getHeader(Header.CONTENT_ENCODING.getValue()) == null ? contentLength(exchange) : -1;
+            byte[] body;
+            try (InputStream inputStream = decode(exchange, metrics)) {
+                body = readBody(inputStream, length);
+            }
+            return new Response(exchange.getCode(), exchange.getHeaders(), body, start, headersAt, System.nanoTime());
+        }
+
+        /** 响应头中的 Content-Length，没有或无效（包括负数）时返回 -1 */
+        private static long contentLength(Exchange exchange) {
+            String contentLength = exchange.getHeader(Header.CONTENT_LENGTH.getValue());
+            if (contentLength == null) {
+                return -1;
+            }
+            try {
+                return Math.max(Long.parseLong(contentLength.trim()), -1);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * 读取整个响应体。长度已知且不超过 8MB 时直接读入长度刚好的数组，
+         * 否则读入 {@link BufferPool} 中的数组，最后只复制一次；过大的长度不预先分配，避免服务端声明的长度占满内存
+         */
+        private static byte[] readBody(InputStream inputStream, long length) throws IOException {
+            if (length >= 0 && length <= 8 * 1024 * 1024) {
+                byte[] bytes = new byte[(int) length];
+                int size = 0;
+                int len;
+                while (size < bytes.length && (len = inputStream.read(bytes, size, bytes.length - size)) != -1) {
+                    size += len;
+                }
+                // HEAD 请求等没有响应体的响应也可能带有 Content-Length
+                return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+            }
+            byte[] buffer = BufferPool.acquire(BufferPool.MIN_SIZE);
+            try {
+                int size = 0;
+                int len;
+                while (true) {
+                    if (size == buffer.length) {
+                        if (size == Integer.MAX_VALUE - 8) {
+                            throw new IOException("Response body is too large");
+                        }
+                        byte[] larger = BufferPool.acquire((int) Math.min((long) size * 2, Integer.MAX_VALUE - 8));
+                        System.arraycopy(buffer, 0, larger, 0, size);
+                        BufferPool.release(buffer);
+                        buffer = larger;
+                    }
+                    if ((len = inputStream.read(buffer, size, buffer.length - size)) == -1) {
+                        break;
+                    }
+                    size += len;
+                }
+                return Arrays.copyOf(buffer, size);
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        /** 旧接口的返回结果：状态码不小于 300 时抛出 {@link HttpStatusException}，否则返回响应体字符串 */
+        private static String result(Response response) {
+            if (response == null) {
+                return null;
+            }
+            if (response.getCode() >= 300) {
+                throw new HttpStatusException(response);
+            }
+            return response.getBodyAsString();
+        }
+
+        /** 旧接口的异步返回结果：IO 异常打印后返回 null，其他异常原样抛出 */
+        private static String result(Response response, Throwable e) {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause != null) {
+                cause.printStackTrace();
+                return null;
+            }
+            return result(response);
+        }
+
+        /** 读尽并关闭流，忽略读取中的异常 */
+        private static void drain(InputStream inputStream) {
+            drain(inputStream, Long.MAX_VALUE);
+        }
+
+        /**
+         * 读取并丢弃流中最多 limit 字节后关闭流
+         * @return 是否读到了流的末尾
+         */
+        private static boolean drain(InputStream inputStream, long limit) {
+            if (inputStream == null) {
+                return true;
+            }
+            byte[] bytes = BufferPool.acquire(BufferPool.MIN_SIZE);
+            try {
+                long total = 0;
+                int len;
+                while ((len = inputStream.read(bytes)) != -1) {
+                    total += len;
+                    if (total > limit) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException ignored) {
+                // 连接已损坏，不会被复用
+                return false;
+            } finally {
+                BufferPool.release(bytes);
+                try {
+                    inputStream.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+
+        /**
+         * 表单请求
+         * @param url           请求地址
+         * @param body          编码后的请求参数
+         * @param headers       请求头
+         * @param method        请求方式
+         * @param onHttpResult  请求回调
+         */
+        private static void requestAsyn(String url, Body body, Entry headers, String method, OnHttpResult onHttpResult) {
+            requestAsyn(url, body, headers, method, "application/x-www-form-urlencoded", onHttpResult);
+        }
+
+        /**
+         * http请求
+         * @param url           请求地址
+         * @param body          请求体
+         * @param headers       请求头
+         * @param method        请求方式
+         * @param mediaType     参数类型,application/json,application/x-www-form-urlencoded
+         * @param onHttpResult  请求回调
+         */
+        private static void requestAsyn(String url, Body body, Entry headers, String method, String mediaType, OnHttpResult onHttpResult) {
+            responseFuture(url, body, headers, method, mediaType, timeout()).whenComplete((response, e) -> {
+                if (e instanceof RejectedExecutionException || e instanceof CircuitOpenException || e instanceof RateLimitedException) {
+                    onHttpResult.onError("HTTP Request is rejected, " + e.getMessage());
+                    return;
+                }
+                String result;
+                try {
+                    result = result(response, e);
+                } catch (RuntimeException | Error ex) {
+                    onHttpResult.onError((ex instanceof CompletionException ? ex.getCause() : ex).getMessage());
+                    return;
+                }
+                try {
+                    onHttpResult.onSuccess(result);
+                } catch (Exception ex) {
+                    onHttpResult.onError(ex.getMessage());
+                }
+            });
+        }
+
+        /**
+         * http请求，响应通过 CompletableFuture 返回，连接或读取失败时以 IOException 结束。
+         * 请求开始执行前取消或超时则不会发出请求（合并的请求除外，取消只结束当前调用方的等待），地址为空时得到 null
+         * @param url       请求地址
+         * @param body      请求体
+         * @param headers   请求头
+         * @param method    请求方式
+         * @param mediaType 请求体类型
+         * @param timeout   超时设置
+         * @return          响应的 CompletableFuture
+         */
+        private static CompletableFuture<Response> responseFuture(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            String key = url == null || url.trim().isEmpty() ? null : coalescingKey(method, url, headers);
+            if (key == null) {
+                return hedgeOrRetryFuture(url, body, headers, method, mediaType, timeout);
+            }
+            CompletableFuture<Response> flight = new CompletableFuture<>();
+            CompletableFuture<Response> leader = IN_FLIGHT.putIfAbsent(key, flight);
+            if (leader == null) {
+                hedgeOrRetryFuture(url, body, headers, method, mediaType, timeout).whenComplete((response, e) -> {
+                    IN_FLIGHT.remove(key, flight);
+                    if (e != null) {
+                        flight.completeExceptionally(e);
+                    } else {
+                        flight.complete(response);
+                    }
+                });
+                leader = flight;
+            }
+            // 每个调用方各自超时和取消，不影响合并的请求
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            if (timeout.hasDeadline()) {
+                ScheduledFuture<?> expiry = TIMER.schedule(() -> {
+                    future.completeExceptionally(new SocketTimeoutException("Request timed out"));
+                }, timeout.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                future.whenComplete((response, e) -> expiry.cancel(false));
+            }
+            leader.whenComplete((response, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(response);
+                }
+            });
+            return future;
+        }
+
+        private static CompletableFuture<Response> hedgeOrRetryFuture(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            HedgePolicy policy = hedgePolicy;
+            if (policy == null || !"GET".equalsIgnoreCase(method) || url == null || url.trim().isEmpty()) {
+                return retryFuture(url, body, headers, method, mediaType, timeout);
+            }
+            return hedge(policy, url, body, headers, method, mediaType, timeout);
+        }
+
+        /**
+         * 对冲请求：延迟时间内没有响应时再发出相同的请求，先得到的响应作为结果并取消其余请求。
+         * 请求失败时不等延迟立即发出下一个对冲请求，没有正在执行的请求且不能再发出对冲请求时以最后一个异常结束。
+         * 每个请求使用截止时间相同的超时设置，可以单独取消
+         */
+        private static CompletableFuture<Response> hedge(HedgePolicy policy, String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            CompletableFuture<Response> result = new CompletableFuture<>();
+            String host = Dispatcher.hostOf(url);
+            List<CompletableFuture<Response>> attempts = new ArrayList<>(policy.maxHedges + 1);
+            long delay = policy.delay(host);
+            policy.deposit();
+            // running 为正在执行的请求数，launched 为已发出的请求数，使用 attempts 加锁
+            int[] state = new int[2];
+            BooleanSupplier[] launch = new BooleanSupplier[1];
+            launch[0] = () -> {
+                int hedge;
+                synchronized (attempts) {
+                    if (result.isDone() || state[1] > policy.maxHedges) {
+                        return false;
+                    }
+                    hedge = state[1]++;
+                    state[0]++;
+                }
+                long start = System.nanoTime();
+                CompletableFuture<Response> attempt = retryFuture(policy.url(url, host, hedge), body, headers, method, mediaType, timeout.copy());
+                synchronized (attempts) {
+                    attempts.add(attempt);
+                }
+                if (hedge < policy.maxHedges) {
+                    ScheduledFuture<?> next = TIMER.schedule(() -> {
+                        if (!result.isDone() && policy.tryAcquire()) {
+                            launch[0].getAsBoolean();
+                        }
+                    }, delay, TimeUnit.NANOSECONDS);
+                    attempt.whenComplete((response, e) -> next.cancel(false));
+                }
+                attempt.whenComplete((response, e) -> {
+                    if (e == null) {
+                        if (result.complete(response)) {
+                            policy.record(host, System.nanoTime() - start);
+                        }
+                        return;
+                    }
+                    boolean more;
+                    synchronized (attempts) {
+                        state[0]--;
+                        more = state[1] <= policy.maxHedges;
+                    }
+                    if (attempt.isCancelled()) {
+                        return;
+                    }
+                    // 请求很快失败（例如连接被拒绝）时不等延迟，立即发出下一个对冲请求
+                    if (more && !result.isDone() && policy.tryAcquire() && launch[0].getAsBoolean()) {
+                        return;
+                    }
+                    boolean last;
+                    synchronized (attempts) {
+                        last = state[0] == 0;
+                    }
+                    if (last) {
+                        result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                    }
+                });
+                return true;
+            };
+            result.whenComplete((response, e) -> {
+                synchronized (attempts) {
+                    for (CompletableFuture<Response> attempt : attempts) {
+                        attempt.cancel(false);
+                    }
+                }
+            });
+            launch[0].getAsBoolean();
+            return result;
+        }
+
+        /** 按重试策略异步请求，重试前在定时器中等待，不占用线程池的线程 */
+        private static CompletableFuture<Response> retryFuture(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            RetryPolicy policy = retryPolicy;
+            if (policy == null || url == null || url.trim().isEmpty()) {
+                return submit(url, body, headers, method, mediaType, timeout);
+            }
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            retryFuture(policy, 1, future, url, body, headers, method, mediaType, timeout);
+            return future;
+        }
+
+        private static void retryFuture(RetryPolicy policy, int attempt, CompletableFuture<Response> future,
+                                        String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            CompletableFuture<Response> current = submit(url, body, headers, method, mediaType, timeout);
+            future.whenComplete((response, e) -> {
+                if (future.isCancelled()) {
+                    current.cancel(false);
+                }
+            });
+            current.whenComplete((response, e) -> {
+                if (future.isDone()) {
+                    return;
+                }
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                long delay = cause == null || cause instanceof IOException
+                        ? policy.delay(method, url, body, attempt, response, (IOException) cause, timeout) : -1;
+                if (delay < 0) {
+                    if (cause != null) {
+                        future.completeExceptionally(cause);
+                    } else {
+                        future.complete(response);
+                    }
+                    return;
+                }
+                TIMER.schedule(() -> retryFuture(policy, attempt + 1, future, url, body, headers, method, mediaType, timeout), delay, TimeUnit.MILLISECONDS);
+            });
+        }
+
+        /** 提交到线程池执行，请求开始执行前取消或超时则不会发出请求 */
+        private static CompletableFuture<Response> submit(String url, Body body, Entry headers, String method, String mediaType, Timeout timeout) {
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            CallMetrics metrics = url == null || url.trim().isEmpty() ? CallMetrics.NONE : CallMetrics.create(method, url);
+            metrics.queued();
+            if (timeout.hasDeadline()) {
+                ScheduledFuture<?> expiry = TIMER.schedule(() -> {
+                    future.completeExceptionally(new SocketTimeoutException("Request timed out"));
+                }, timeout.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                future.whenComplete((response, e) -> expiry.cancel(false));
+            }
+            future.whenComplete((response, e) -> {
+                if (future.isCancelled()) {
+                    // 已经开始的请求断开连接
+                    timeout.cancel();
+                }
+            });
+            long delay;
+            try {
+                delay = throttle(method, url, headers, timeout);
+            } catch (RateLimitedException e) {
+                metrics.callFailed(e);
+                future.completeExceptionally(e);
+                return future;
+            }
+            Dispatcher.AsyncCall call = new Dispatcher.AsyncCall(url) {
+                @Override
+                CompletionStage<?> execute() {
+                    if (future.isDone()) {
+                        if (!future.isCancelled()) {
+                            // 在队列中超过了总超时
+                            metrics.callFailed(new SocketTimeoutException("Request timed out"));
+                        }
+                        return null;
+                    }
+                    if (url == null || url.trim().isEmpty()) {
+                        future.complete(null);
+                        return null;
+                    }
+                    Transport current = transport;
+                    if (current instanceof AsyncTransport) {
+                        return response((AsyncTransport) current, url, body, headers, method, mediaType, timeout, metrics).handle((response, e) -> {
+                            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                            if (!timeout.isCancelled()) {
+                                completed(response, cause);
+                            }
+                            if (cause != null) {
+                                future.completeExceptionally(cause);
+                            } else {
+                                future.complete(response);
+                            }
+                            return null;
+                        });
+                    }
+                    try {
+                        Response response = response(url, body, headers, method, mediaType, timeout, metrics);
+                        completed(response, null);
+                        future.complete(response);
+                    } catch (Exception e) {
+                        if (!timeout.isCancelled()) {
+                            completed(null, e);
+                        }
+                        future.completeExceptionally(e);
+                    }
+                    return null;
+                }
+
+                @Override
+                void reject(RejectedExecutionException e) {
+                    metrics.callFailed(e);
+                    future.completeExceptionally(e);
+                }
+            };
+            if (delay > 0) {
+                // 在定时器中等待限流器，到时间后再进入线程池
+                TIMER.schedule(() -> DISPATCHER.dispatch(call), delay, TimeUnit.NANOSECONDS);
+            } else {
+                DISPATCHER.dispatch(call);
+            }
+            return future;
+        }
+
+        /** 按限流器计算请求发出前等待的纳秒数，缓存新鲜的 GET 请求不占用配额 */
+        private static long throttle(String method, String url, Entry headers, Timeout timeout) throws RateLimitedException {
+            RateLimiter limiter = rateLimiter;
+            if (limiter == null || url == null || url.trim().isEmpty()) {
+                return 0;
+            }
+            ResponseCache responseCache = cache;
+            if (responseCache != null && ResponseCache.isFresh(responseCache.lookup(method, url, headers), headers)) {
+                return 0;
+            }
+            return limiter.reserve(url, timeout);
+        }
+
+        /** 批量请求，见 {@link HttpClient#executeBatch(Collection, BatchOptions)} */
+        private static List<CompletableFuture<Response>> batch(List<Request> requests, BatchOptions options) {
+            List<CompletableFuture<Response>> futures = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                futures.add(new CompletableFuture<>());
+            }
+            Transport current = transport;
+            if (!(current instanceof NioTransport)) {
+                // 按连接数限制同时执行的请求，一个请求完成后开始下一个
+                AtomicInteger next = new AtomicInteger();
+                Runnable[] launch = new Runnable[1];
+                launch[0] = () -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests.size()) {
+                        CompletableFuture<Response> future = futures.get(i);
+                        CompletableFuture<Response> call = HttpClient.executeAsync(requests.get(i));
+                        future.whenComplete((response, e) -> call.cancel(false));
+                        call.whenComplete((response, e) -> complete(future, response, e));
+                        if (!call.isDone()) {
+                            call.whenComplete((response, e) -> launch[0].run());
+                            return;
+                        }
+                    }
+                };
+                for (int i = 0; i < Math.min(options.connections, requests.size()); i++) {
+                    launch[0].run();
+                }
+                return futures;
+            }
+            NioTransport nio = (NioTransport) current;
+            Map<String, NioTransport.Pipeline> pipelines = new HashMap<>();
+            for (int i = 0; i < requests.size(); i++) {
+                Request request = requests.get(i);
+                CompletableFuture<Response> future = futures.get(i);
+                String url = request.url();
+                if (url == null || url.trim().isEmpty()) {
+                    future.completeExceptionally(new MalformedURLException("Empty URL"));
+                    continue;
+                }
+                NioTransport.Pipeline pipeline = pipelines.computeIfAbsent(Dispatcher.hostOf(url),
+                        host -> nio.pipeline(options.connections, options.pipelining ? options.maxInFlight : 1, options.pipelineNonIdempotent));
+                Timeout timeout = request.timeout();
+                future.whenComplete((response, e) -> {
+                    if (future.isCancelled()) {
+                        timeout.cancel();
+                    }
+                });
+                long delay;
+                try {
+                    delay = throttle(request.method, url, request.headers, timeout);
+                } catch (RateLimitedException e) {
+                    future.completeExceptionally(e);
+                    continue;
+                }
+                Runnable send = () -> response(pipeline, url, request.body(), request.headers, request.method, request.mediaType(), timeout,
+                        CallMetrics.create(request.method, url)).whenComplete((response, e) -> complete(future, response, e));
+                if (delay > 0) {
+                    TIMER.schedule(send, delay, TimeUnit.NANOSECONDS);
+                } else {
+                    send.run();
+                }
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> {
+                for (NioTransport.Pipeline pipeline : pipelines.values()) {
+                    pipeline.release();
+                }
+            });
+            return futures;
+        }
+
+        private static void complete(CompletableFuture<Response> future, Response response, Throwable e) {
+            if (e != null) {
+                future.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                future.complete(response);
+            }
+        }
+
+        /**
+         * 表单请求，响应体以流的形式交给 onHttpStream 处理
+         * @param url           请求地址
+         * @param body          编码后的请求参数
+         * @param headers       请求头
+         * @param method        请求方式
+         * @param onHttpStream  响应体处理
+         * @throws IOException  连接或读取失败
+         */
+        private static void stream(String url, Body body, Entry headers, String method, OnHttpStream onHttpStream) throws IOException {
+            Timeout timeout = timeout();
+            CallMetrics metrics = CallMetrics.create(method, url);
+            throttle(method, url, headers, timeout, metrics);
+            metrics.callStart();
+            try (Exchange exchange = execute(url, body, headers, method, "application/x-www-form-urlencoded", timeout, metrics)) {
+                if (exchange.getCode() >= 300) {
+                    metrics.callEnd(exchange.getCode());
+                    throw new HttpStatusException(exchange.getCode());
+                }
+                try (InputStream inputStream = decode(exchange, metrics)) {
+                    onHttpStream.onStream(inputStream);
+                }
+                metrics.callEnd(exchange.getCode());
+            } catch (IOException e) {
+                IOException failure = timeout.translate(e);
+                metrics.callFailed(failure);
+                throw failure;
+            }
+        }
+
+        /** 把流写入文件，返回写入的字节数 */
+        private static long transfer(InputStream inputStream, Path target) throws IOException {
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            try (FileChannel fileChannel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = 0;
+                long n;
+                while ((n = fileChannel.transferFrom(source, position, 1024 * 1024)) > 0) {
+                    position += n;
+                }
+                return position;
+            }
+        }
+
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+        /** 按插入顺序把参数编码后拼接在地址后，没有参数时返回原地址 */
+        private static String query(String url, Entry params) {
+            int length = encodedLength(params);
+            if (length == 0 || url == null) {
+                return url;
+            }
+            StringBuilder stringBuilder = new StringBuilder(url.length() + 1 + length).append(url);
+            stringBuilder.append(url.indexOf('?') < 0 ? '?' : '&');
+            boolean isFirst = true;
+            for (Entry entry = params; entry != null; entry = entry.next) {
+                if (entry.key == null || entry.key.isEmpty()) {
+                    continue;
+                }
+                if (!isFirst) {
+                    stringBuilder.append('&');
+                }
+                isFirst = false;
+                encode(entry.key, stringBuilder);
+                stringBuilder.append('=');
+                encode(String.valueOf(entry.value), stringBuilder);
+            }
+            return stringBuilder.toString();
+        }
+
+        /** 按插入顺序把参数编码成 application/x-www-form-urlencoded 请求体，直接写入长度刚好的字节数组 */
+        private static Body form(Entry params) {
+            byte[] bytes = new byte[encodedLength(params)];
+            int position = 0;
+            for (Entry entry = params; entry != null; entry = entry.next) {
+                if (entry.key == null || entry.key.isEmpty()) {
+                    continue;
+                }
+                if (position > 0) {
+                    bytes[position++] = '&';
+                }
+                position = encode(entry.key, bytes, position);
+                bytes[position++] = '=';
+                position = encode(String.valueOf(entry.value), bytes, position);
+            }
+            return Body.form(bytes);
+        }
+
+        /** 所有参数编码后的总长度，包括分隔符 */
+        private static int encodedLength(Entry params) {
+            long length = 0;
+            for (Entry entry = params; entry != null; entry = entry.next) {
+                if (entry.key == null || entry.key.isEmpty()) {
+                    continue;
+                }
+                if (length > 0) {
+                    length++;
+                }
+                length += encodedLength(entry.key) + 1 + encodedLength(String.valueOf(entry.value));
+            }
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Request params are too large");
+            }
+            return (int) length;
+        }
+
+        /** 字符串编码后的长度：不需要编码的字符和空格占 1 个字符，其他字符按 UTF-8 编码后每个字节占 3 个字符 */
+        private static long encodedLength(String value) {
+            long length = 0;
+            for (int i = 0, n = value.length(); i < n; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length += isUnreserved(c) || c == ' ' ? 1 : 3;
+                } else if (c < 0x800) {
+                    length += 6;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 12;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // 不成对的代理字符按 UTF-8 编码为 '?'
+                    length += 3;
+                } else {
+                    length += 9;
+                }
+            }
+            return length;
+        }
+
+        /** 与 {@link java.net.URLEncoder} 相同的规则，不需要编码的字符原样保留，空格编码为 '+' */
+        private static boolean isUnreserved(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '*';
+        }
+
+        /** 以 UTF-8 编码写入 StringBuilder，全部是不需要编码的字符时直接追加 */
+        private static void encode(String value, StringBuilder out) {
+            int n = value.length();
+            int i = 0;
+            while (i < n && isUnreserved(value.charAt(i))) {
+                i++;
+            }
+            if (i == n) {
+                out.append(value);
+                return;
+            }
+            out.append(value, 0, i);
+            for (; i < n; i++) {
+                char c = value.charAt(i);
+                if (isUnreserved(c)) {
+                    out.append(c);
+                } else if (c == ' ') {
+                    out.append('+');
+                } else {
+                    int codePoint = c;
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    } else if (Character.isSurrogate(c)) {
+                        codePoint = '?';
+                    }
+                    appendUtf8(codePoint, out);
+                }
+            }
+        }
+
+        private static void appendUtf8(int codePoint, StringBuilder out) {
+            if (codePoint < 0x80) {
+                appendHex(codePoint, out);
+            } else if (codePoint < 0x800) {
+                appendHex(0xc0 | (codePoint >> 6), out);
+                appendHex(0x80 | (codePoint & 0x3f), out);
+            } else if (codePoint < 0x10000) {
+                appendHex(0xe0 | (codePoint >> 12), out);
+                appendHex(0x80 | ((codePoint >> 6) & 0x3f), out);
+                appendHex(0x80 | (codePoint & 0x3f), out);
+            } else {
+                appendHex(0xf0 | (codePoint >> 18), out);
+                appendHex(0x80 | ((codePoint >> 12) & 0x3f), out);
+                appendHex(0x80 | ((codePoint >> 6) & 0x3f), out);
+                appendHex(0x80 | (codePoint & 0x3f), out);
+            }
+        }
+
+        private static void appendHex(int b, StringBuilder out) {
+            out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+        }
+
+        /** 以 UTF-8 编码写入字节数组，返回写入后的位置 */
+        private static int encode(String value, byte[] out, int position) {
+            for (int i = 0, n = value.length(); i < n; i++) {
+                char c = value.charAt(i);
+                if (isUnreserved(c)) {
+                    out[position++] = (byte) c;
+                } else if (c == ' ') {
+                    out[position++] = '+';
+                } else {
+                    int codePoint = c;
+                    if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                        codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    } else if (Character.isSurrogate(c)) {
+                        codePoint = '?';
+                    }
+                    position = writeUtf8(codePoint, out, position);
+                }
+            }
+            return position;
+        }
+
+        private static int writeUtf8(int codePoint, byte[] out, int position) {
+            if (codePoint < 0x80) {
+                return writeHex(codePoint, out, position);
+            }
+            if (codePoint < 0x800) {
+                position = writeHex(0xc0 | (codePoint >> 6), out, position);
+            } else {
+                if (codePoint < 0x10000) {
+                    position = writeHex(0xe0 | (codePoint >> 12), out, position);
+                } else {
+                    position = writeHex(0xf0 | (codePoint >> 18), out, position);
+                    position = writeHex(0x80 | ((codePoint >> 12) & 0x3f), out, position);
+                }
+                position = writeHex(0x80 | ((codePoint >> 6) & 0x3f), out, position);
+            }
+            return writeHex(0x80 | (codePoint & 0x3f), out, position);
+        }
+
+        private static int writeHex(int b, byte[] out, int position) {
+            out[position] = '%';
+            out[position + 1] = (byte) HEX[b >> 4];
+            out[position + 2] = (byte) HEX[b & 0xf];
+            return position + 3;
+        }
+
+    }
+
+    /**
+     * 按大小分级的字节数组池，用于读取响应体等临时缓冲。
+     * 使用无锁的槽位而不是 ThreadLocal，虚拟线程之间同样可以复用，超过最大级别的数组不会被缓存
+     */
+    private static final class BufferPool {
+        static final int MIN_SIZE = 8 * 1024;
+        /** 各级数组的大小 */
+        private static final int[] SIZES = {MIN_SIZE, 64 * 1024, 512 * 1024};
+        private static final AtomicReferenceArray<?>[] SLOTS = new AtomicReferenceArray<?>[SIZES.length];
+
+        static {
+            int slots = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+            for (int i = 0; i < SIZES.length; i++) {
+                SLOTS[i] = new AtomicReferenceArray<byte[]>(slots);
+            }
+        }
+
+        private BufferPool() {
+        }
+
+        /** 取得长度不小于 minSize 的数组，池中没有时新建，内容未清空 */
+        static byte[] acquire(int minSize) {
+            for (int i = 0; i < SIZES.length; i++) {
+                if (SIZES[i] >= minSize) {
+                    AtomicReferenceArray<byte[]> slots = slots(i);
+                    int start = ThreadLocalRandom.current().nextInt(slots.length());
+                    for (int j = 0; j < slots.length(); j++) {
+                        int index = (start + j) % slots.length();
+                        if (slots.get(index) != null) {
+                            byte[] buffer = slots.getAndSet(index, null);
+                            if (buffer != null) {
+                                return buffer;
+                            }
+                        }
+                    }
+                    return new byte[SIZES[i]];
+                }
+            }
+            return new byte[minSize];
+        }
+
+        /** 归还数组，池已满或大小不属于任何级别时丢弃 */
+        static void release(byte[] buffer) {
+            for (int i = 0; i < SIZES.length; i++) {
+                if (SIZES[i] == buffer.length) {
+                    AtomicReferenceArray<byte[]> slots = slots(i);
+                    int start = ThreadLocalRandom.current().nextInt(slots.length());
+                    for (int j = 0; j < slots.length(); j++) {
+                        int index = (start + j) % slots.length();
+                        if (slots.get(index) == null && slots.compareAndSet(index, null, buffer)) {
+                            return;
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static AtomicReferenceArray<byte[]> slots(int sizeClass) {
+            return (AtomicReferenceArray<byte[]>) SLOTS[sizeClass];
+        }
+    }
+
+    /** 异步请求调度器，在线程池之上限制每个主机的并发数 */
+    private static class Dispatcher {
+
+        private volatile ExecutorService executorService = newExecutor(64, 1024, null);
+        /** 当前线程池是否由调度器创建，替换时需要关闭 */
+        private boolean ownsExecutor = true;
+        private volatile int maxRequestsPerHost = 0;
+        /** 自适应并发限流，为 null 时只按 maxRequestsPerHost 限制 */
+        private volatile AdaptiveLimiter limiter;
+        /** 每个主机正在执行的请求数和等待的请求，使用 this 加锁 */
+        private final Map<String, HostCalls> hostCalls = new HashMap<>();
+        /** 线程池已关闭，之后的请求不再排队，直接提交后被拒绝，使用 this 加锁 */
+        private boolean shutdown;
+
+        private static ExecutorService newExecutor(int maxThreads, int queueCapacity, RejectedExecutionHandler handler) {
+            if (maxThreads <= 0 || queueCapacity <= 0) {
+                throw new IllegalArgumentException("maxThreads and queueCapacity must be positive");
+            }
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity),
+                    runnable -> new Thread(runnable, "HttpClient-" + count.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+            if (handler != null) {
+                executor.setRejectedExecutionHandler(releasing(handler));
+            }
+            return executor;
+        }
+
+        /**
+         * 包装拒绝策略：策略返回后请求既没有执行也不在队列中，说明被丢弃，改为拒绝，释放主机的名额并回调错误。
+         * 丢弃队列中其他请求的 {@link ThreadPoolExecutor.DiscardOldestPolicy} 无法这样处理，不能使用
+         */
+        private static RejectedExecutionHandler releasing(RejectedExecutionHandler handler) {
+            if (handler instanceof ThreadPoolExecutor.DiscardPolicy || handler instanceof ThreadPoolExecutor.DiscardOldestPolicy) {
+                throw new IllegalArgumentException("discard policies lose requests, use CallerRunsPolicy or the default policy: " + handler.getClass().getName());
+            }
+            if (handler instanceof ReleasingHandler) {
+                return handler;
+            }
+            return new ReleasingHandler(handler);
+        }
+
+        private static final class ReleasingHandler implements RejectedExecutionHandler {
+            private final RejectedExecutionHandler handler;
+
+            ReleasingHandler(RejectedExecutionHandler handler) {
+                this.handler = handler;
+            }
+
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                handler.rejectedExecution(runnable, executor);
+                if (runnable instanceof AsyncCall && !((AsyncCall) runnable).claimed.get() && !executor.getQueue().contains(runnable)) {
+                    throw new RejectedExecutionException("HttpClient request discarded by " + handler.getClass().getName());
+                }
+            }
+        }
+
+        /** 通过反射创建虚拟线程执行器，兼容 JDK 8 编译，不支持时返回 null */
+        private static ExecutorService newVirtualThreadExecutor() {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // JDK 21 以下没有该方法，JDK 19/20 未开启预览特性时调用失败
+                return null;
+            }
+        }
+
+        private synchronized void setExecutor(ExecutorService executorService, boolean ownsExecutor) {
+            if (executorService == null) {
+                throw new IllegalArgumentException("executorService is null");
+            }
+            if (executorService instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor executor = (ThreadPoolExecutor) executorService;
+                executor.setRejectedExecutionHandler(releasing(executor.getRejectedExecutionHandler()));
+            }
+            if (this.ownsExecutor) {
+                this.executorService.shutdown();
+            }
+            this.executorService = executorService;
+            this.ownsExecutor = ownsExecutor;
+            this.shutdown = false;
+        }
+
+        /** 把各主机排队的请求提交到线程池后关闭线程池，排队的请求不会在关闭后才提交而被拒绝 */
+        private void shutdown() {
+            List<AsyncCall> queued = new ArrayList<>();
+            ExecutorService executor;
+            synchronized (this) {
+                shutdown = true;
+                for (HostCalls calls : hostCalls.values()) {
+                    AsyncCall next;
+                    while ((next = calls.waiting.poll()) != null) {
+                        next.limited = true;
+                        calls.running++;
+                        queued.add(next);
+                    }
+                }
+                executor = executorService;
+            }
+            for (AsyncCall call : queued) {
+                submit(call);
+            }
+            executor.shutdown();
+        }
+
+        /** 提交异步请求，线程池拒绝时回调 {@link AsyncCall#reject(RejectedExecutionException)} */
+        private void dispatch(AsyncCall call) {
+            if (maxRequestsPerHost > 0 || limiter != null) {
+                call.host = hostOf(call.url);
+                synchronized (this) {
+                    HostCalls calls = hostCalls.computeIfAbsent(call.host, key -> new HostCalls());
+                    if (calls.running >= limit(call.host) && !shutdown) {
+                        calls.waiting.add(call);
+                        return;
+                    }
+                    calls.running++;
+                }
+                call.limited = true;
+            }
+            submit(call);
+        }
+
+        /**
+         * 提交请求。被拒绝时释放名额，同一主机等待的请求接着提交，循环处理，
+         * 线程池关闭后等待队列很长时也不会递归过深
+         */
+        private void submit(AsyncCall call) {
+            ArrayDeque<AsyncCall> pending = null;
+            while (call != null) {
+                try {
+                    executorService.execute(call);
+                } catch (RejectedExecutionException e) {
+                    if (call.claimed.compareAndSet(false, true)) {
+                        List<AsyncCall> ready = release(call);
+                        call.reject(e);
+                        if (ready != null) {
+                            if (pending == null) {
+                                pending = new ArrayDeque<>();
+                            }
+                            pending.addAll(ready);
+                        }
+                    }
+                }
+                call = pending == null ? null : pending.poll();
+            }
+        }
+
+        /** 请求结束，释放主机的名额，按当前上限提交该主机等待的请求 */
+        private void finished(AsyncCall call) {
+            List<AsyncCall> ready = release(call);
+            if (ready != null) {
+                for (AsyncCall next : ready) {
+                    submit(next);
+                }
+            }
+        }
+
+        /** 释放主机的名额，返回按当前上限可以开始的等待请求 */
+        private List<AsyncCall> release(AsyncCall call) {
+            if (!call.limited) {
+                return null;
+            }
+            List<AsyncCall> ready = null;
+            synchronized (this) {
+                HostCalls calls = hostCalls.get(call.host);
+                AdaptiveLimiter current = limiter;
+                if (current != null && call.completed) {
+                    current.record(call.host, call.failed, System.nanoTime() - call.startNanos, calls.running);
+                }
+                calls.running--;
+                int limit = limit(call.host);
+                while (calls.running < limit && !calls.waiting.isEmpty()) {
+                    AsyncCall next = calls.waiting.poll();
+                    next.limited = true;
+                    calls.running++;
+                    if (ready == null) {
+                        ready = new ArrayList<>(1);
+                    }
+                    ready.add(next);
+                }
+                if (calls.running == 0) {
+                    hostCalls.remove(call.host);
+                }
+            }
+            return ready;
+        }
+
+        /** 主机当前的并发上限，同时设置时取两者中较小的值 */
+        private int limit(String host) {
+            AdaptiveLimiter current = limiter;
+            int max = maxRequestsPerHost;
+            if (current == null) {
+                return max > 0 ? max : Integer.MAX_VALUE;
+            }
+            int adaptive = current.getLimit(host);
+            return max > 0 ? Math.min(adaptive, max) : adaptive;
+        }
+
+        private static String hostOf(String url) {
+            try {
+                URL httpUrl = new URL(url);
+                return httpUrl.getHost() + ":" + (httpUrl.getPort() == -1 ? httpUrl.getDefaultPort() : httpUrl.getPort());
+            } catch (MalformedURLException e) {
+                return "";
+            }
+        }
+
+        private static class HostCalls {
+            private int running;
+            private final ArrayDeque<AsyncCall> waiting = new ArrayDeque<>();
+        }
+
+        /** 一次异步请求 */
+        private abstract static class AsyncCall implements Runnable {
+            private final String url;
+            private String host;
+            /** 是否占用了主机的名额 */
+            private boolean limited;
+            /** 已开始执行或已被拒绝，二者只发生一个 */
+            private final AtomicBoolean claimed = new AtomicBoolean();
+            private long startNanos;
+            /** 请求是否已经执行完成，以及是否失败，用于调整并发上限 */
+            private boolean completed;
+            private boolean failed;
+
+            AsyncCall(String url) {
+                this.url = url;
+            }
+
+            /** 记录执行结果，连接或读取失败、429 和 5xx 记为失败，熔断的请求不记录 */
+            void completed(Response response, Throwable e) {
+                if (e instanceof CircuitOpenException) {
+                    return;
+                }
+                completed = true;
+                failed = e != null || response == null || response.getCode() == 429 || response.getCode() >= 500;
+            }
+
+            /** 执行请求，返回 null 表示已经执行完成，否则在返回的 CompletionStage 完成时结束 */
+            abstract CompletionStage<?> execute();
+
+            abstract void reject(RejectedExecutionException e);
+
+            @Override
+            public final void run() {
+                if (!claimed.compareAndSet(false, true)) {
+                    return;
+                }
+                startNanos = System.nanoTime();
+                CompletionStage<?> stage = null;
+                try {
+                    stage = execute();
+                } finally {
+                    if (stage == null) {
+                        HttpBase.DISPATCHER.finished(this);
+                    } else {
+                        stage.whenComplete((result, e) -> HttpBase.DISPATCHER.finished(this));
+                    }
+                }
+            }
+        }
+    }
+
+    /** 传输层，负责把请求发送到服务器并返回响应，通过 {@link #setTransport(Transport)} 替换 */
+    public interface Transport {
+        /**
+         * 发送请求，收到响应头后返回
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @return          响应，读取完成后需要关闭
+         * @throws IOException 连接或读写失败
+         */
+        Exchange execute(String method, String url, Map<String, String> headers, Body body) throws IOException;
+
+        /**
+         * 按超时设置发送请求，默认忽略超时设置，自定义传输层可覆盖
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @param timeout   超时设置
+         * @return          响应，读取完成后需要关闭
+         * @throws IOException 连接或读写失败
+         */
+        default Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout) throws IOException {
+            return execute(method, url, headers, body);
+        }
+
+        /**
+         * 发送请求并记录各阶段的时间，默认不记录传输层内部的阶段，自定义传输层可覆盖
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @param timeout   超时设置
+         * @param metrics   请求指标
+         * @return          响应，读取完成后需要关闭
+         * @throws IOException 连接或读写失败
+         */
+        default Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) throws IOException {
+            return execute(method, url, headers, body, timeout);
+        }
+    }
+
+    /** 非阻塞的传输层，异步请求时不占用调用线程等待响应 */
+    public interface AsyncTransport extends Transport {
+        /**
+         * 发送请求，响应体全部读取后完成，完成回调在传输层的 IO 线程中执行
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @return          响应的 CompletableFuture
+         */
+        CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body);
+
+        /**
+         * 按超时设置发送请求，默认忽略超时设置，自定义传输层可覆盖
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @param timeout   超时设置
+         * @return          响应的 CompletableFuture
+         */
+        default CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout) {
+            return executeAsync(method, url, headers, body);
+        }
+
+        /**
+         * 发送请求并记录各阶段的时间，默认不记录传输层内部的阶段，自定义传输层可覆盖
+         * @param method    请求方式
+         * @param url       请求地址，包含查询参数
+         * @param headers   请求头
+         * @param body      请求体，没有时为 null
+         * @param timeout   超时设置
+         * @param metrics   请求指标
+         * @return          响应的 CompletableFuture
+         */
+        default CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) {
+            return executeAsync(method, url, headers, body, timeout);
+        }
+    }
+
+    /** 传输层返回的响应 */
+    public interface Exchange extends Closeable {
+        /** 响应状态码 */
+        int getCode();
+
+        /** 响应头，名称不区分大小写，不存在时返回 null */
+        String getHeader(String name);
+
+        /** 所有响应头 */
+        Map<String, List<String>> getHeaders();
+
+        /** 响应体，包括错误响应的响应体，没有响应体时返回空的流 */
+        InputStream getBody() throws IOException;
+
+        /** 释放连接，未读完的响应体会被丢弃 */
+        @Override
+        void close();
+    }
+
+    /** 基于 {@link HttpURLConnection} 的传输层，连接由 JDK 按 host/port 复用 */
+    public static class UrlConnectionTransport implements Transport {
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body) throws IOException {
+            return execute(method, url, headers, body, HttpBase.timeout());
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout) throws IOException {
+            return execute(method, url, headers, body, timeout, CallMetrics.NONE);
+        }
+
+        /** 解析域名计入连接阶段，响应头读取完成时记为收到第一个字节 */
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) throws IOException {
+            HttpURLConnection httpURLConnection = (HttpURLConnection) new URL(url).openConnection();
+            ScheduledFuture<?> watchdog = null;
+            try {
+                timeout.onCancel(httpURLConnection::disconnect);
+                if ("POST".equals(method) || "PUT".equals(method)) {
+                    httpURLConnection.setDoOutput(true);
+                    httpURLConnection.setUseCaches(false);
+                }
+                httpURLConnection.setReadTimeout(timeout.getReadTimeout());
+                httpURLConnection.setConnectTimeout(timeout.getConnectTimeout());
+                if (timeout.hasDeadline()) {
+                    // 到达总超时时断开连接，阻塞中的读写随之失败，JDK 内部的重定向和重试同样受限
+                    watchdog = HttpBase.TIMER.schedule(httpURLConnection::disconnect, timeout.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+                }
+                httpURLConnection.setRequestMethod(method);
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    // HttpURLConnection 拒绝 CR、LF，但不拒绝 NUL，与其他传输层统一检查
+                    HttpBase.checkHeader(header.getKey(), header.getValue());
+                    httpURLConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+                long sent = 0;
+                if (body != null && httpURLConnection.getDoOutput()) {
+                    if (body.streaming) {
+                        // 直接写入连接，不在内存中缓存整个请求体
+                        if (body.length() >= 0) {
+                            httpURLConnection.setFixedLengthStreamingMode(body.length());
+                        } else {
+                            httpURLConnection.setChunkedStreamingMode(0);
+                        }
+                    }
+                    metrics.connectStart();
+                    httpURLConnection.connect();
+                    metrics.connectEnd();
+                    long[] written = {body.length()};
+                    try (OutputStream outputStream = httpURLConnection.getOutputStream()) {
+                        if (written[0] >= 0 || metrics == CallMetrics.NONE) {
+                            body.writeTo(outputStream);
+                        } else {
+                            // 长度未知或压缩后发送，统计实际写出的字节数
+                            written[0] = 0;
+                            body.writeTo(new FilterOutputStream(outputStream) {
+                                @Override
+                                public void write(int b) throws IOException {
+                                    out.write(b);
+                                    written[0]++;
+                                }
+
+                                @Override
+                                public void write(byte[] b, int off, int len) throws IOException {
+                                    out.write(b, off, len);
+                                    written[0] += len;
+                                }
+
+                                @Override
+                                public void close() {
+                                    // 由外层关闭连接的输出流
+                                }
+                            });
+                        }
+                    }
+                    sent = written[0];
+                } else {
+                    metrics.connectStart();
+                    httpURLConnection.connect();
+                    metrics.connectEnd();
+                }
+                metrics.requestEnd(sent);
+                int code = httpURLConnection.getResponseCode();
+                metrics.responseStart();
+                return new UrlConnectionExchange(httpURLConnection, code, watchdog, timeout);
+            } catch (IOException e) {
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+                try {
+                    timeout.onCancel(null);
+                } catch (IOException ignored) {
+                    // 已取消
+                }
+                if (HttpBase.keepAlive && !timeout.isExpired()) {
+                    HttpBase.drain(httpURLConnection.getErrorStream());
+                } else {
+                    httpURLConnection.disconnect();
+                }
+                throw timeout.translate(e);
+            }
+        }
+
+        private static class UrlConnectionExchange implements Exchange {
+            private final HttpURLConnection httpURLConnection;
+            private final int code;
+            /** 总超时的断开任务，没有总超时时为 null */
+            private final ScheduledFuture<?> watchdog;
+            private final Timeout timeout;
+            private InputStream body;
+
+            UrlConnectionExchange(HttpURLConnection httpURLConnection, int code, ScheduledFuture<?> watchdog, Timeout timeout) {
+                this.httpURLConnection = httpURLConnection;
+                this.code = code;
+                this.watchdog = watchdog;
+                this.timeout = timeout;
+            }
+
+            @Override
+            public int getCode() {
+                return code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                return httpURLConnection.getHeaderField(name);
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return httpURLConnection.getHeaderFields();
+            }
+
+            @Override
+            public InputStream getBody() throws IOException {
+                if (body == null) {
+                    body = code >= 400 ? httpURLConnection.getErrorStream() : httpURLConnection.getInputStream();
+                    if (body == null) {
+                        body = new ByteArrayInputStream(new byte[0]);
+                    }
+                }
+                return body;
+            }
+
+            @Override
+            public void close() {
+                try {
+                    // 连接归还后不再响应取消
+                    timeout.onCancel(null);
+                } catch (IOException e) {
+                    httpURLConnection.disconnect();
+                }
+                if (HttpBase.keepAlive) {
+                    // 读尽剩余不多的响应体，连接才能被复用；剩余过多时直接断开，避免读完大文件
+                    try {
+                        if (!HttpBase.drain(getBody(), 512 * 1024)) {
+                            httpURLConnection.disconnect();
+                        }
+                    } catch (IOException e) {
+                        httpURLConnection.disconnect();
+                    }
+                } else {
+                    if (body != null) {
+                        try {
+                            body.close();
+                        } catch (IOException ignored) {
+                            // ignore
+                        }
+                    }
+                    httpURLConnection.disconnect();
+                }
+                if (watchdog != null) {
+                    watchdog.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 基于 NIO 的 HTTP/1.1 传输层。少量事件循环线程通过 {@link Selector} 处理所有连接的读写，空闲连接按 host:port 复用。
+     * 只支持 http 协议，https 请求和长度未知的请求体交给 {@link UrlConnectionTransport} 处理；不支持代理。
+     * 文件请求体通过 {@link FileChannel#transferTo} 直接写入 socket。
+     */
+    public static class NioTransport implements AsyncTransport, Closeable {
+
+        /** 同步读取时缓存的响应体超过该值后暂停读取 */
+        private static final int HIGH_WATER = 1024 * 1024;
+        private static final int LOW_WATER = 256 * 1024;
+
+        private final EventLoop[] eventLoops;
+        private final AtomicInteger nextLoop = new AtomicInteger();
+        private final int maxIdlePerHost;
+        private final long keepAliveNanos;
+        /** 每个主机的空闲连接，使用 idleConnections 加锁 */
+        private final Map<String, ArrayDeque<NioConnection>> idleConnections = new HashMap<>();
+        private final Transport fallback = new UrlConnectionTransport();
+
+        /** 使用 2 个事件循环线程，每个主机最多保留 5 个空闲连接，空闲 5 秒后关闭 */
+        public NioTransport() {
+            this(2, 5, 5000);
+        }
+
+        /**
+         * @param eventLoops        事件循环线程数
+         * @param maxIdlePerHost    每个主机最多保留的空闲连接数
+         * @param keepAliveMillis   空闲连接保留的毫秒数
+         */
+        public NioTransport(int eventLoops, int maxIdlePerHost, long keepAliveMillis) {
+            if (eventLoops <= 0 || maxIdlePerHost < 0 || keepAliveMillis < 0) {
+                throw new IllegalArgumentException("invalid NioTransport configuration");
+            }
+            this.maxIdlePerHost = maxIdlePerHost;
+            this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+            this.eventLoops = new EventLoop[eventLoops];
+            for (int i = 0; i < eventLoops; i++) {
+                try {
+                    this.eventLoops[i] = new EventLoop("HttpClient-nio-" + (i + 1));
+                } catch (IOException e) {
+                    close();
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body) throws IOException {
+            return execute(method, url, headers, body, HttpBase.timeout());
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout) throws IOException {
+            return execute(method, url, headers, body, timeout, CallMetrics.NONE);
+        }
+
+        /** 事件在事件循环线程中回调 */
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) throws IOException {
+            URL httpUrl = new URL(url);
+            if (!"http".equalsIgnoreCase(httpUrl.getProtocol()) || (body != null && body.length() < 0)) {
+                return fallback.execute(method, url, headers, body, timeout, metrics);
+            }
+            NioExchange exchange = new NioExchange(httpUrl, method, headers, body, timeout, metrics, false);
+            timeout.onCancel(this::wakeup);
+            start(exchange);
+            try {
+                if (timeout.hasDeadline()) {
+                    // 总超时由事件循环处理，这里多等一秒作为保护，事件循环没有按时结束请求时调用方也不会一直等待
+                    return exchange.headersFuture.get(timeout.remaining(TimeUnit.NANOSECONDS) + TimeUnit.SECONDS.toNanos(1), TimeUnit.NANOSECONDS);
+                }
+                return exchange.headersFuture.get();
+            } catch (InterruptedException e) {
+                exchange.close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("HTTP Request is interrupted");
+            } catch (TimeoutException e) {
+                exchange.close();
+                throw new SocketTimeoutException("Request timed out");
+            } catch (ExecutionException e) {
+                throw asIOException(e.getCause());
+            }
+        }
+
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body) {
+            return executeAsync(method, url, headers, body, HttpBase.timeout());
+        }
+
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout) {
+            return executeAsync(method, url, headers, body, timeout, CallMetrics.NONE);
+        }
+
+        /** 事件在事件循环线程中回调 */
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) {
+            CompletableFuture<Exchange> future = new CompletableFuture<>();
+            try {
+                URL httpUrl = new URL(url);
+                if (!"http".equalsIgnoreCase(httpUrl.getProtocol()) || (body != null && body.length() < 0)) {
+                    future.complete(fallback.execute(method, url, headers, body, timeout, metrics));
+                    return future;
+                }
+                NioExchange exchange = new NioExchange(httpUrl, method, headers, body, timeout, metrics, true);
+                timeout.onCancel(this::wakeup);
+                start(exchange);
+                exchange.bodyFuture.whenComplete((result, e) -> {
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+            } catch (IOException | IllegalArgumentException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        /** 关闭所有事件循环线程和连接，未完成的请求以异常结束 */
+        @Override
+        public void close() {
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.shutdown();
+                }
+            }
+        }
+
+        /** 唤醒所有事件循环，取消的请求在下一次检查超时时结束 */
+        private void wakeup() {
+            for (EventLoop eventLoop : eventLoops) {
+                eventLoop.selector.wakeup();
+            }
+        }
+
+        private static IOException asIOException(Throwable e) {
+            if (e instanceof IOException) {
+                return (IOException) e;
+            }
+            return new IOException(e);
+        }
+
+        /** 优先复用空闲连接，没有时在下一个事件循环中建立新连接 */
+        private void start(NioExchange exchange) throws IOException {
+            NioConnection connection;
+            synchronized (idleConnections) {
+                ArrayDeque<NioConnection> connections = idleConnections.get(exchange.hostKey);
+                connection = connections == null ? null : connections.pollLast();
+            }
+            if (connection != null) {
+                NioConnection reused = connection;
+                if (reused.eventLoop.closed) {
+                    throw new IOException("NioTransport is closed");
+                }
+                reused.execute(() -> reused.begin(exchange));
+                return;
+            }
+            connect(exchange);
+        }
+
+        /** 在下一个事件循环中建立新连接，复用失败重试时可能在事件循环线程中解析地址 */
+        private void connect(NioExchange exchange) {
+            if (exchange.address == null) {
+                try {
+                    exchange.resolve();
+                } catch (UnknownHostException e) {
+                    exchange.fail(e);
+                    return;
+                }
+            }
+            EventLoop eventLoop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+            if (eventLoop.closed) {
+                exchange.fail(new IOException("NioTransport is closed"));
+                return;
+            }
+            eventLoop.execute(() -> eventLoop.connect(exchange));
+        }
+
+        /** 响应结束后归还连接，超过空闲连接数时关闭 */
+        private void release(NioConnection connection) {
+            synchronized (idleConnections) {
+                ArrayDeque<NioConnection> connections = idleConnections.computeIfAbsent(connection.hostKey, key -> new ArrayDeque<>());
+                if (connections.size() < maxIdlePerHost) {
+                    connection.idleSince = System.nanoTime();
+                    connections.addLast(connection);
+                    return;
+                }
+            }
+            connection.close();
+        }
+
+        private void removeIdle(NioConnection connection) {
+            synchronized (idleConnections) {
+                ArrayDeque<NioConnection> connections = idleConnections.get(connection.hostKey);
+                if (connections != null) {
+                    connections.remove(connection);
+                    if (connections.isEmpty()) {
+                        idleConnections.remove(connection.hostKey);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 创建批量请求使用的一组连接，所有连接在同一个事件循环中
+         * @param connections   最多建立的连接数
+         * @param maxInFlight   服务端支持流水线时每个连接上未返回响应的请求数，为 1 时不使用流水线
+         * @param nonIdempotent 非幂等的请求是否也使用流水线
+         */
+        private Pipeline pipeline(int connections, int maxInFlight, boolean nonIdempotent) {
+            return new Pipeline(eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)], connections, maxInFlight, nonIdempotent);
+        }
+
+        /**
+         * 批量请求同一主机时使用的固定数量的连接，请求在连接之间分配，超出的请求排队等待。
+         * 连接上的第一个响应表明服务端保持 HTTP/1.1 连接后，在前面的响应返回前继续发送请求（流水线）。
+         * 默认只有幂等的请求使用流水线，非幂等的请求等连接空闲后发送，发送后连接上不再排入其他请求（RFC 7230 6.3.2）。
+         * 连接被关闭时尚未得到响应的请求重新排队；非幂等的请求已发送后不再重新发送
+         */
+        private final class Pipeline implements AsyncTransport {
+            private final EventLoop eventLoop;
+            private final int maxConnections;
+            private final int maxInFlight;
+            /** 非幂等的请求是否也使用流水线 */
+            private final boolean nonIdempotent;
+            private volatile InetSocketAddress address;
+            /** 以下字段只在事件循环线程中访问 */
+            private final List<NioConnection> connections = new ArrayList<>();
+            private final ArrayDeque<NioExchange> waiting = new ArrayDeque<>();
+            private boolean released;
+
+            Pipeline(EventLoop eventLoop, int maxConnections, int maxInFlight, boolean nonIdempotent) {
+                this.eventLoop = eventLoop;
+                this.maxConnections = maxConnections;
+                this.maxInFlight = maxInFlight;
+                this.nonIdempotent = nonIdempotent;
+            }
+
+            @Override
+            public Exchange execute(String method, String url, Map<String, String> headers, Body body) throws IOException {
+                return NioTransport.this.execute(method, url, headers, body);
+            }
+
+            @Override
+            public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body) {
+                return executeAsync(method, url, headers, body, HttpBase.timeout(), CallMetrics.NONE);
+            }
+
+            /** 事件在事件循环线程中回调，https 和长度未知的请求体不使用批量连接 */
+            @Override
+            public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) {
+                CompletableFuture<Exchange> future = new CompletableFuture<>();
+                try {
+                    URL httpUrl = new URL(url);
+                    if (!"http".equalsIgnoreCase(httpUrl.getProtocol()) || (body != null && body.length() < 0)) {
+                        return NioTransport.this.executeAsync(method, url, headers, body, timeout, metrics);
+                    }
+                    NioExchange exchange = new NioExchange(httpUrl, method, headers, body, timeout, metrics, true);
+                    if (address != null && HttpBase.dnsResolver == null) {
+                        exchange.address = address;
+                    } else {
+                        // 设置了域名解析时每个请求分别选择地址，需要建立新连接时使用
+                        exchange.resolve();
+                        address = HttpBase.dnsResolver == null ? exchange.address : null;
+                    }
+                    exchange.pipeline = this;
+                    timeout.onCancel(eventLoop.selector::wakeup);
+                    if (eventLoop.closed) {
+                        throw new IOException("NioTransport is closed");
+                    }
+                    eventLoop.execute(() -> {
+                        waiting.addLast(exchange);
+                        dispatch();
+                    });
+                    exchange.bodyFuture.whenComplete((result, e) -> {
+                        if (e != null) {
+                            future.completeExceptionally(e);
+                        } else {
+                            future.complete(result);
+                        }
+                    });
+                } catch (IOException | IllegalArgumentException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+
+            /** 把排队的请求分配给未返回响应最少的连接，连接都满时建立新连接 */
+            void dispatch() {
+                NioExchange next;
+                while ((next = waiting.peekFirst()) != null) {
+                    if (released || next.timeout.isCancelled() || next.timeout.isExpired()) {
+                        waiting.pollFirst();
+                        next.fail(next.timeout.isExpired() ? new SocketTimeoutException("Request timed out") : new IOException("Canceled"));
+                        continue;
+                    }
+                    NioConnection target = null;
+                    for (NioConnection connection : connections) {
+                        int capacity = connection.pipelined && (nonIdempotent || (idempotent(next) && idempotent(connection.exchange))) ? maxInFlight : 1;
+                        if (!connection.closed && !connection.closing() && connection.inFlight() < capacity
+                                && (target == null || connection.inFlight() < target.inFlight())) {
+                            target = connection;
+                        }
+                    }
+                    if (target == null && connections.size() >= maxConnections) {
+                        return;
+                    }
+                    waiting.pollFirst();
+                    if (target == null) {
+                        eventLoop.connect(next);
+                    } else {
+                        target.send(next);
+                    }
+                }
+            }
+
+            /** 连接上没有请求或请求是幂等的 */
+            private boolean idempotent(NioExchange exchange) {
+                return exchange == null || RetryPolicy.IDEMPOTENT.contains(exchange.method);
+            }
+
+            /**
+             * 连接关闭时未得到响应的请求重新排在队首。服务端声明关闭连接时后面的幂等请求没有被处理，总是重新发送；
+             * 连接失败时幂等的请求最多重新发送 2 次。非幂等的请求已发送后不再重新发送
+             * @param exchange  请求
+             * @param cause     连接失败的原因，服务端声明关闭连接时为 null
+             */
+            void requeue(NioExchange exchange, IOException cause) {
+                exchange.attach(null);
+                if (released || exchange.timeout.isCancelled() || (cause != null && exchange.requeued++ >= 2)
+                        || (exchange.written && !idempotent(exchange))) {
+                    exchange.fail(cause != null ? cause : new IOException("Connection closed before response"));
+                    return;
+                }
+                exchange.written = false;
+                waiting.addFirst(exchange);
+            }
+
+            /** 批量请求结束后，空闲连接归还到连接池，其余连接关闭 */
+            void release() {
+                eventLoop.execute(() -> {
+                    released = true;
+                    for (NioConnection connection : new ArrayList<>(connections)) {
+                        if (connection.exchange == null && !connection.closed) {
+                            connections.remove(connection);
+                            connection.pipeline = null;
+                            connection.idleSince = System.nanoTime();
+                            NioTransport.this.release(connection);
+                        } else {
+                            connection.fail(new IOException("Canceled"), false);
+                        }
+                    }
+                    dispatch();
+                });
+            }
+        }
+
+        /** 事件循环线程，处理注册到同一个 Selector 的所有连接 */
+        private final class EventLoop implements Runnable {
+            private final Selector selector;
+            private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+            /** 当前事件循环中的连接，只在事件循环线程中访问 */
+            private final Set<NioConnection> connections = new HashSet<>();
+            private volatile boolean closed;
+
+            EventLoop(String name) throws IOException {
+                this.selector = Selector.open();
+                Thread thread = new Thread(this, name);
+                thread.setDaemon(true);
+                thread.start();
+            }
+
+            void execute(Runnable task) {
+                tasks.add(task);
+                selector.wakeup();
+            }
+
+            void shutdown() {
+                closed = true;
+                selector.wakeup();
+            }
+
+            @Override
+            public void run() {
+                long selectMillis = 250;
+                while (!closed) {
+                    try {
+                        selector.select(selectMillis);
+                    } catch (IOException e) {
+                        break;
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        run(task);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            connection.handle(key);
+                        } catch (RuntimeException e) {
+                            connection.failUnexpectedly(e);
+                        }
+                    }
+                    selectMillis = checkTimeouts();
+                }
+                IOException closedException = new IOException("NioTransport is closed");
+                for (NioConnection connection : new ArrayList<>(connections)) {
+                    connection.fail(closedException, false);
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    run(task);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+
+            /**
+             * 执行任务。连接上的任务通过 {@link NioConnection#execute(Runnable)} 提交，出错时使连接失败；
+             * 其他任务的运行时异常在这里丢弃，事件循环线程不能因此退出，否则其中的连接都不再处理，也不再检查超时
+             */
+            private void run(Runnable task) {
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // ignore
+                }
+            }
+
+            /** 建立新连接 */
+            void connect(NioExchange exchange) {
+                if (closed) {
+                    exchange.fail(new IOException("NioTransport is closed"));
+                    return;
+                }
+                NioConnection connection = null;
+                try {
+                    SocketChannel channel = SocketChannel.open();
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    connection = new NioConnection(this, channel, exchange.hostKey);
+                    connection.endpoint = exchange.target;
+                    connection.exchange = exchange;
+                    exchange.attach(connection);
+                    connection.pipeline = exchange.pipeline;
+                    if (connection.pipeline != null) {
+                        connection.pipeline.connections.add(connection);
+                    }
+                    connection.deadline = exchange.timeout.deadline(System.nanoTime(), exchange.timeout.connectMillis);
+                    connection.key = channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                    connections.add(connection);
+                    exchange.metrics.connectStart();
+                    if (channel.connect(exchange.address)) {
+                        connection.connected();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    IOException cause = e instanceof IOException ? (IOException) e : new IOException("Unexpected error on connection to " + exchange.hostKey, e);
+                    if (connection != null) {
+                        connection.fail(cause, false);
+                    } else {
+                        exchange.fail(cause);
+                    }
+                }
+            }
+
+            /**
+             * 关闭超时的连接
+             * @return 距离最近的超时的毫秒数，最多 250 毫秒，用于下一次 select
+             */
+            private long checkTimeouts() {
+                long now = System.nanoTime();
+                long next = TimeUnit.MILLISECONDS.toNanos(250);
+                for (NioConnection connection : new ArrayList<>(connections)) {
+                    if (connection.exchange == null) {
+                        if (now - connection.idleSince > keepAliveNanos) {
+                            connection.close();
+                        }
+                    } else if (connection.exchange.timeout.isCancelled()) {
+                        connection.fail(new IOException("Canceled"), false);
+                    } else if (connection.exchange.timeout.isExpired()) {
+                        connection.fail(new SocketTimeoutException("Request timed out"), false);
+                    } else if (!connection.paused && now - connection.deadline > 0) {
+                        connection.fail(new SocketTimeoutException(connection.key.interestOps() == SelectionKey.OP_CONNECT
+                                ? "Connect timed out" : "Read timed out"), false);
+                    } else if (!connection.paused) {
+                        next = Math.min(next, connection.deadline - now);
+                    } else if (connection.exchange.timeout.hasDeadline()) {
+                        next = Math.min(next, connection.exchange.timeout.remaining(TimeUnit.NANOSECONDS));
+                    }
+                }
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next) + 1);
+            }
+        }
+
+        /** 一个 TCP 连接，只在所属的事件循环线程中访问 */
+        private final class NioConnection {
+            private final EventLoop eventLoop;
+            private final SocketChannel channel;
+            private final String hostKey;
+            private final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+            private SelectionKey key;
+            /** 连接的地址，未设置域名解析时为 null */
+            private DnsResolver.Endpoint endpoint;
+            private boolean established;
+            /** 正在读取响应的请求 */
+            private NioExchange exchange;
+            /** 流水线中排在 exchange 之后的请求，按发送顺序排列 */
+            private final ArrayDeque<NioExchange> queued = new ArrayDeque<>();
+            /** 正在发送的请求和等待发送的请求 */
+            private NioExchange writing;
+            private final ArrayDeque<NioExchange> unwritten = new ArrayDeque<>();
+            private ByteBuffer[] writeBuffers;
+            /** 文件请求体已写入的字节数 */
+            private long fileWritten;
+            /** 批量请求的连接，普通连接为 null */
+            private Pipeline pipeline;
+            /** 服务端已保持 HTTP/1.1 连接，可以使用流水线 */
+            private boolean pipelined;
+            private boolean reused;
+            private boolean closed;
+            /** 缓存的响应体过多，暂停读取 */
+            private boolean paused;
+            private long deadline;
+            private long idleSince;
+
+            NioConnection(EventLoop eventLoop, SocketChannel channel, String hostKey) {
+                this.eventLoop = eventLoop;
+                this.channel = channel;
+                this.hostKey = hostKey;
+            }
+
+            void handle(SelectionKey key) {
+                try {
+                    if (!key.isValid()) {
+                        return;
+                    }
+                    if (key.isConnectable()) {
+                        if (channel.finishConnect()) {
+                            connected();
+                        }
+                        return;
+                    }
+                    if (key.isWritable()) {
+                        write();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read();
+                    }
+                } catch (IOException e) {
+                    fail(e, true);
+                }
+            }
+
+            /** 在事件循环中执行连接上的任务，运行时异常使连接失败，不影响事件循环 */
+            void execute(Runnable task) {
+                eventLoop.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        failUnexpectedly(e);
+                    }
+                });
+            }
+
+            /** 处理连接时出现了运行时异常，连接状态未知，关闭连接，当前请求以 IOException 结束 */
+            void failUnexpectedly(RuntimeException e) {
+                try {
+                    fail(new IOException("Unexpected error on connection to " + hostKey, e), false);
+                } catch (RuntimeException ignored) {
+                    close();
+                }
+            }
+
+            void connected() throws IOException {
+                NioExchange current = exchange;
+                exchange = null;
+                established = true;
+                if (endpoint != null) {
+                    endpoint.connected();
+                }
+                current.metrics.connectEnd();
+                begin(current);
+            }
+
+            /** 在当前连接上发送请求 */
+            void begin(NioExchange exchange) {
+                if (closed) {
+                    // 空闲连接在归还后已被服务端关闭，重新建立连接
+                    exchange.retried = true;
+                    exchange.attach(null);
+                    connect(exchange);
+                    return;
+                }
+                removeIdle(this);
+                reused = this.exchange == null && idleSince != 0;
+                if (reused) {
+                    exchange.metrics.connectionReused();
+                }
+                this.exchange = exchange;
+                exchange.attach(this);
+                deadline = exchange.timeout.deadline(System.nanoTime(), exchange.timeout.readMillis);
+                try {
+                    startWrite(exchange);
+                    key.interestOps(SelectionKey.OP_READ);
+                    write();
+                } catch (IOException e) {
+                    fail(e, true);
+                }
+            }
+
+            /** 流水线：在前面的响应返回前发送请求，前面的请求还没有发送完时排队 */
+            void send(NioExchange next) {
+                if (exchange == null) {
+                    begin(next);
+                    return;
+                }
+                next.attach(this);
+                queued.addLast(next);
+                if (writing != null) {
+                    unwritten.addLast(next);
+                    return;
+                }
+                try {
+                    startWrite(next);
+                    write();
+                } catch (IOException e) {
+                    fail(e, true);
+                }
+            }
+
+            /** 当前响应声明了关闭连接，不再发送新的请求 */
+            boolean closing() {
+                return exchange != null && exchange.state > NioExchange.HEADERS && !exchange.reusable;
+            }
+
+            /** 未返回响应的请求数 */
+            int inFlight() {
+                return (exchange == null ? 0 : 1) + queued.size();
+            }
+
+            private void startWrite(NioExchange next) throws IOException {
+                writing = next;
+                fileWritten = 0;
+                writeBuffers = next.requestBuffers();
+            }
+
+            /** 依次发送请求，写不完时等待可写 */
+            private void write() throws IOException {
+                while (writing != null) {
+                    boolean done;
+                    channel.write(writeBuffers);
+                    if (writeBuffers[writeBuffers.length - 1].hasRemaining()) {
+                        done = false;
+                    } else if (writing.requestFile != null) {
+                        long length = writing.requestBody.length();
+                        if (fileWritten < length) {
+                            fileWritten += writing.requestFile.transferTo(fileWritten, length - fileWritten, channel);
+                        }
+                        done = fileWritten >= length;
+                    } else {
+                        done = true;
+                    }
+                    if (!done) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    writing.written = true;
+                    writing.metrics.requestEnd(writing.requestHead.length + (writing.requestBody == null ? 0 : writing.requestBody.length()));
+                    writing = null;
+                    NioExchange next = unwritten.pollFirst();
+                    if (next != null) {
+                        startWrite(next);
+                    }
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+
+            private void read() throws IOException {
+                int n = channel.read(readBuffer);
+                if (exchange == null) {
+                    // 空闲连接被服务端关闭或收到多余数据
+                    close();
+                    return;
+                }
+                if (n == -1) {
+                    if (exchange.state == NioExchange.BODY_UNTIL_CLOSE) {
+                        finish(false);
+                    } else {
+                        fail(new EOFException("Unexpected end of response"), true);
+                    }
+                    return;
+                }
+                deadline = exchange.timeout.deadline(System.nanoTime(), exchange.timeout.readMillis);
+                if (n > 0) {
+                    exchange.metrics.responseStart();
+                }
+                parse();
+            }
+
+            /** 解析缓冲区中的数据，缓存的响应体过多时暂停读取。流水线中后面的响应可能已在缓冲区中 */
+            void parse() throws IOException {
+                while (true) {
+                    readBuffer.flip();
+                    try {
+                        exchange.parse(readBuffer);
+                    } finally {
+                        readBuffer.compact();
+                    }
+                    if (exchange.state != NioExchange.DONE) {
+                        if (exchange.body.pauseIfFull()) {
+                            key.interestOps(0);
+                            paused = true;
+                        }
+                        return;
+                    }
+                    finish(exchange.reusable && (readBuffer.position() == 0 || !queued.isEmpty()));
+                    if (exchange == null || readBuffer.position() == 0) {
+                        return;
+                    }
+                    exchange.metrics.responseStart();
+                }
+            }
+
+            /** 消费者读取后恢复读取 */
+            void resume() {
+                if (closed || exchange == null) {
+                    return;
+                }
+                try {
+                    paused = false;
+                    deadline = exchange.timeout.deadline(System.nanoTime(), exchange.timeout.readMillis);
+                    key.interestOps(SelectionKey.OP_READ);
+                    if (readBuffer.position() > 0) {
+                        parse();
+                    }
+                } catch (IOException e) {
+                    fail(e, true);
+                }
+            }
+
+            /** 响应结束，可以复用时先归还连接或开始读取流水线中的下一个响应，再通知调用方 */
+            private void finish(boolean reusable) {
+                NioExchange current = exchange;
+                exchange = null;
+                if (reusable && !closed) {
+                    pipelined = current.http11;
+                    exchange = queued.pollFirst();
+                    if (exchange != null) {
+                        deadline = exchange.timeout.deadline(System.nanoTime(), exchange.timeout.readMillis);
+                    } else {
+                        idleSince = System.nanoTime();
+                        if (pipeline == null) {
+                            release(this);
+                        }
+                    }
+                } else {
+                    close();
+                }
+                current.complete();
+                if (pipeline != null) {
+                    pipeline.dispatch();
+                }
+            }
+
+            /** 请求失败。复用的连接在收到响应前失败时，使用新连接重试一次 */
+            void fail(IOException e, boolean retryable) {
+                NioExchange current = exchange;
+                exchange = null;
+                // 连接失败时换用其他地址重新连接
+                boolean failover = false;
+                if (!established && endpoint != null && current != null && !current.timeout.isCancelled() && !current.timeout.isExpired()) {
+                    endpoint.connectFailed();
+                    failover = current.retarget();
+                }
+                if (pipeline != null) {
+                    Pipeline owner = pipeline;
+                    List<NioExchange> pending = new ArrayList<>(queued);
+                    queued.clear();
+                    // 服务端已声明关闭连接时，后面的请求没有被处理
+                    IOException cause = current != null && current.state > NioExchange.HEADERS && !current.reusable ? null : e;
+                    close();
+                    for (int i = pending.size() - 1; i >= 0; i--) {
+                        owner.requeue(pending.get(i), cause);
+                    }
+                    if (current != null) {
+                        if ((retryable || failover) && current.received == 0) {
+                            owner.requeue(current, e);
+                        } else {
+                            current.fail(e);
+                        }
+                    }
+                    owner.dispatch();
+                    return;
+                }
+                close();
+                if (current == null) {
+                    return;
+                }
+                if (failover) {
+                    current.attach(null);
+                    connect(current);
+                    return;
+                }
+                if (retryable && reused && !current.retried && current.state == NioExchange.STATUS_LINE && current.received == 0
+                        && !current.timeout.isExpired() && !current.timeout.isCancelled()) {
+                    current.retried = true;
+                    current.attach(null);
+                    connect(current);
+                    return;
+                }
+                current.fail(e);
+            }
+
+            void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                eventLoop.connections.remove(this);
+                removeIdle(this);
+                writing = null;
+                unwritten.clear();
+                if (pipeline != null) {
+                    // 服务端声明关闭连接，后面的请求没有被处理
+                    pipeline.connections.remove(this);
+                    NioExchange pending;
+                    while ((pending = queued.pollLast()) != null) {
+                        pipeline.requeue(pending, null);
+                    }
+                }
+                if (key != null) {
+                    key.cancel();
+                }
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+
+        /** 一次请求和响应，响应由事件循环线程解析 */
+        private final class NioExchange implements Exchange {
+            static final int STATUS_LINE = 0;
+            static final int HEADERS = 1;
+            static final int BODY_LENGTH = 2;
+            static final int CHUNK_SIZE = 3;
+            static final int CHUNK_DATA = 4;
+            static final int CHUNK_END = 5;
+            static final int TRAILERS = 6;
+            static final int BODY_UNTIL_CLOSE = 7;
+            static final int DONE = 8;
+
+            private final String method;
+            private final String host;
+            private final int port;
+            private final String hostKey;
+            private final byte[] requestHead;
+            private final Body requestBody;
+            private final Timeout timeout;
+            private final CallMetrics metrics;
+            /** 文件请求体，第一次发送时打开，请求结束时关闭 */
+            private FileChannel requestFile;
+            private final boolean closeRequested;
+            private final CompletableFuture<Exchange> headersFuture = new CompletableFuture<>();
+            private final CompletableFuture<Exchange> bodyFuture = new CompletableFuture<>();
+            private final BodyStream body;
+            private final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            private final StringBuilder line = new StringBuilder();
+            private InetSocketAddress address;
+            /** 建立新连接时使用的地址，未设置域名解析时为 null */
+            private DnsResolver.Endpoint target;
+            /** 连接失败后换用其他地址的次数 */
+            private int failovers;
+            /** 在途请求数计入的地址，随请求所在的连接变化 */
+            private DnsResolver.Endpoint endpoint;
+            private volatile NioConnection connection;
+            /** 批量请求使用的连接，普通请求为 null */
+            private Pipeline pipeline;
+            private boolean retried;
+            /** 请求已全部发送 */
+            private boolean written;
+            /** 连接关闭后重新排队的次数 */
+            private int requeued;
+            private int state = STATUS_LINE;
+            private boolean http11;
+            private int code;
+            private long remaining;
+            private long received;
+            /**
+             * 按 Content-Length 读取的响应体的最后一段，连接归还连接池后才交给调用方，
+             * 调用方读完响应体后立即发出的请求可以复用该连接
+             */
+            private byte[] lastChunk;
+            private boolean reusable;
+
+            NioExchange(URL url, String method, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics, boolean buffered) {
+                this.method = method;
+                this.timeout = timeout;
+                this.metrics = metrics;
+                this.host = url.getHost();
+                this.port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+                this.hostKey = host + ":" + port;
+                this.requestBody = body;
+                this.body = new BodyStream(buffered);
+                String path = url.getFile().isEmpty() ? "/" : url.getFile();
+                HttpBase.checkRequestLine(method, path);
+                PreparedHeaders.Encoded lines = headerLines(url, headers);
+                StringBuilder tail = new StringBuilder(24);
+                if (body != null) {
+                    tail.append("Content-Length: ").append(body.length()).append("\r\n");
+                } else if ("POST".equals(method) || "PUT".equals(method)) {
+                    tail.append("Content-Length: 0\r\n");
+                }
+                tail.append("\r\n");
+                byte[] requestLine = (method + ' ' + path + " HTTP/1.1\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                byte[] contentLength = tail.toString().getBytes(StandardCharsets.ISO_8859_1);
+                byte[] head = new byte[requestLine.length + lines.head.length + contentLength.length];
+                System.arraycopy(requestLine, 0, head, 0, requestLine.length);
+                System.arraycopy(lines.head, 0, head, requestLine.length, lines.head.length);
+                System.arraycopy(contentLength, 0, head, requestLine.length + lines.head.length, contentLength.length);
+                this.requestHead = head;
+                this.closeRequested = lines.close;
+            }
+
+            /** 编码请求头和 Host，不含请求行和 Content-Length。请求模板的请求头按地址缓存编码结果 */
+            private PreparedHeaders.Encoded headerLines(URL url, Map<String, String> headers) {
+                PreparedHeaders prepared = headers instanceof PreparedHeaders ? (PreparedHeaders) headers : null;
+                String key = host + ":" + url.getPort();
+                if (prepared != null) {
+                    PreparedHeaders.Encoded cached = prepared.http1;
+                    if (cached != null && cached.key.equals(key)) {
+                        return cached;
+                    }
+                }
+                StringBuilder head = new StringBuilder(256);
+                boolean hasHost = false;
+                boolean close = false;
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    String name = header.getKey();
+                    if (name.equalsIgnoreCase(Header.CONTENT_LENGTH.getValue()) || name.equalsIgnoreCase(Header.TRANSFER_ENCODING.getValue())) {
+                        continue;
+                    }
+                    HttpBase.checkHeader(name, header.getValue());
+                    hasHost |= name.equalsIgnoreCase(Header.HOST.getValue());
+                    close |= name.equalsIgnoreCase(Header.CONNECTION.getValue()) && "close".equalsIgnoreCase(header.getValue());
+                    head.append(name).append(": ").append(header.getValue()).append("\r\n");
+                }
+                if (!hasHost) {
+                    head.append("Host: ").append(host);
+                    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+                        head.append(':').append(url.getPort());
+                    }
+                    head.append("\r\n");
+                }
+                PreparedHeaders.Encoded encoded = new PreparedHeaders.Encoded(key, head.toString().getBytes(StandardCharsets.ISO_8859_1), null, close);
+                if (prepared != null) {
+                    prepared.http1 = encoded;
+                }
+                return encoded;
+            }
+
+            /** 解析建立新连接使用的地址，设置了域名解析时按解析器选择 */
+            void resolve() throws UnknownHostException {
+                DnsResolver resolver = HttpBase.dnsResolver;
+                metrics.dnsStart();
+                try {
+                    if (resolver != null) {
+                        target = resolver.select(host);
+                        address = new InetSocketAddress(target.address, port);
+                    } else {
+                        address = new InetSocketAddress(host, port);
+                    }
+                } finally {
+                    metrics.dnsEnd();
+                }
+                if (address.isUnresolved()) {
+                    address = null;
+                    throw new UnknownHostException(host);
+                }
+            }
+
+            /** 连接失败后换用其他地址，最多两次，没有其他可用地址时返回 false */
+            boolean retarget() {
+                DnsResolver resolver = HttpBase.dnsResolver;
+                DnsResolver.Endpoint next = target == null || resolver == null || failovers >= 2 ? null : resolver.next(host, target);
+                if (next == null) {
+                    return false;
+                }
+                failovers++;
+                target = next;
+                address = new InetSocketAddress(next.address, port);
+                return true;
+            }
+
+            /** 请求转移到另一个连接，在途请求数计入新连接的地址 */
+            void attach(NioConnection next) {
+                connection = next;
+                DnsResolver.Endpoint current = next == null ? null : next.endpoint;
+                if (current != endpoint) {
+                    if (endpoint != null) {
+                        endpoint.release();
+                    }
+                    if (current != null) {
+                        current.acquire();
+                    }
+                    endpoint = current;
+                }
+            }
+
+            /** 请求结束，不再计入地址的在途请求数 */
+            private void detach() {
+                if (endpoint != null) {
+                    endpoint.release();
+                    endpoint = null;
+                }
+            }
+
+            /** 请求头和内存中的请求体，文件请求体在请求头之后单独发送 */
+            ByteBuffer[] requestBuffers() throws IOException {
+                if (requestBody == null) {
+                    return new ByteBuffer[]{ByteBuffer.wrap(requestHead)};
+                }
+                if (requestBody.path != null) {
+                    if (requestFile == null) {
+                        requestFile = FileChannel.open(requestBody.path, StandardOpenOption.READ);
+                    }
+                    return new ByteBuffer[]{ByteBuffer.wrap(requestHead)};
+                }
+                return new ByteBuffer[]{ByteBuffer.wrap(requestHead), requestBody.buffer.duplicate()};
+            }
+
+            private void closeRequestFile() {
+                if (requestFile != null) {
+                    try {
+                        requestFile.close();
+                    } catch (IOException ignored) {
+                        // ignore
+                    }
+                    requestFile = null;
+                }
+            }
+
+            /** 解析响应，直到数据用完或响应结束 */
+            void parse(ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining() && state != DONE) {
+                    switch (state) {
+                        case STATUS_LINE:
+                        case HEADERS:
+                        case CHUNK_SIZE:
+                        case CHUNK_END:
+                        case TRAILERS:
+                            if (readLine(buffer)) {
+                                onLine(line.toString());
+                                line.setLength(0);
+                            }
+                            break;
+                        case BODY_LENGTH:
+                        case CHUNK_DATA:
+                            int length = (int) Math.min(remaining, buffer.remaining());
+                            remaining -= length;
+                            if (remaining == 0 && state == BODY_LENGTH) {
+                                lastChunk = take(buffer, length);
+                                state = DONE;
+                                break;
+                            }
+                            readBody(buffer, length);
+                            if (remaining == 0) {
+                                state = CHUNK_END;
+                            }
+                            break;
+                        case BODY_UNTIL_CLOSE:
+                            readBody(buffer, buffer.remaining());
+                            break;
+                        default:
+                            throw new IllegalStateException("state " + state);
+                    }
+                }
+            }
+
+            private boolean readLine(ByteBuffer buffer) throws IOException {
+                while (buffer.hasRemaining()) {
+                    char c = (char) (buffer.get() & 0xff);
+                    received++;
+                    if (c == '\n') {
+                        int last = line.length() - 1;
+                        if (last >= 0 && line.charAt(last) == '\r') {
+                            line.setLength(last);
+                        }
+                        return true;
+                    }
+                    if (line.length() >= 64 * 1024) {
+                        throw new IOException("Response header line too long");
+                    }
+                    line.append(c);
+                }
+                return false;
+            }
+
+            private byte[] take(ByteBuffer buffer, int length) {
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                received += length;
+                return bytes;
+            }
+
+            private void readBody(ByteBuffer buffer, int length) throws IOException {
+                if (!body.offer(take(buffer, length))) {
+                    throw new IOException("Exchange is closed with too much unread response body");
+                }
+            }
+
+            private void onLine(String text) throws IOException {
+                switch (state) {
+                    case STATUS_LINE:
+                        if (text.isEmpty()) {
+                            return;
+                        }
+                        String[] parts = text.split(" ", 3);
+                        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                            throw new IOException("Invalid status line: " + text);
+                        }
+                        http11 = !"HTTP/1.0".equals(parts[0]);
+                        try {
+                            code = Integer.parseInt(parts[1]);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid status line: " + text);
+                        }
+                        responseHeaders.clear();
+                        state = HEADERS;
+                        break;
+                    case HEADERS:
+                        if (!text.isEmpty()) {
+                            int colon = text.indexOf(':');
+                            if (colon > 0) {
+                                responseHeaders.computeIfAbsent(text.substring(0, colon).trim(), key -> new ArrayList<>(1))
+                                        .add(text.substring(colon + 1).trim());
+                            }
+                        } else if (code >= 100 && code < 200) {
+                            // 忽略 1xx 响应
+                            state = STATUS_LINE;
+                        } else {
+                            headersComplete();
+                        }
+                        break;
+                    case CHUNK_SIZE:
+                        int semicolon = text.indexOf(';');
+                        try {
+                            remaining = Long.parseLong((semicolon < 0 ? text : text.substring(0, semicolon)).trim(), 16);
+                        } catch (NumberFormatException e) {
+                            throw new IOException("Invalid chunk size: " + text);
+                        }
+                        if (remaining < 0) {
+                            throw new IOException("Invalid chunk size: " + text);
+                        }
+                        state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+                        break;
+                    case CHUNK_END:
+                        state = CHUNK_SIZE;
+                        break;
+                    case TRAILERS:
+                        if (text.isEmpty()) {
+                            state = DONE;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("state " + state);
+                }
+            }
+
+            private void headersComplete() throws IOException {
+                String connectionHeader = getHeader(Header.CONNECTION.getValue());
+                reusable = !closeRequested && (http11 ? !"close".equalsIgnoreCase(connectionHeader) : "keep-alive".equalsIgnoreCase(connectionHeader));
+                String transferEncoding = getHeader(Header.TRANSFER_ENCODING.getValue());
+                String contentLength = getHeader(Header.CONTENT_LENGTH.getValue());
+                if ("HEAD".equals(method) || code == 204 || code == 304) {
+                    state = DONE;
+                } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                    state = CHUNK_SIZE;
+                } else if (contentLength != null) {
+                    try {
+                        remaining = Long.parseLong(contentLength.trim());
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid Content-Length: " + contentLength);
+                    }
+                    if (remaining < 0) {
+                        throw new IOException("Invalid Content-Length: " + contentLength);
+                    }
+                    state = remaining == 0 ? DONE : BODY_LENGTH;
+                } else {
+                    state = BODY_UNTIL_CLOSE;
+                    reusable = false;
+                }
+                headersFuture.complete(this);
+            }
+
+            /** 响应体读取完成，在事件循环线程中调用 */
+            void complete() {
+                closeRequestFile();
+                detach();
+                state = DONE;
+                if (lastChunk != null) {
+                    body.offer(lastChunk);
+                    lastChunk = null;
+                }
+                body.finish(null);
+                headersFuture.complete(this);
+                bodyFuture.complete(this);
+            }
+
+            void fail(IOException e) {
+                closeRequestFile();
+                detach();
+                body.finish(e);
+                headersFuture.completeExceptionally(e);
+                bodyFuture.completeExceptionally(e);
+            }
+
+            @Override
+            public int getCode() {
+                return code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                List<String> values = responseHeaders.get(name);
+                return values == null || values.isEmpty() ? null : values.get(0);
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return responseHeaders;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+
+            /** 未读完的响应体在后台丢弃，剩余不多时连接仍可复用 */
+            @Override
+            public void close() {
+                if (body.discard()) {
+                    NioConnection current = connection;
+                    if (current != null) {
+                        current.execute(current::resume);
+                    }
+                }
+            }
+
+            /** 响应体流，事件循环线程写入，调用方读取 */
+            private final class BodyStream extends InputStream {
+                private final boolean buffered;
+                private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+                private int offset;
+                private long size;
+                private boolean done;
+                private IOException failure;
+                /** 调用方已关闭，丢弃后续数据 */
+                private boolean discarding;
+                private long discarded;
+                /** 事件循环是否因缓存过多暂停读取 */
+                private boolean paused;
+
+                BodyStream(boolean buffered) {
+                    this.buffered = buffered;
+                }
+
+                /** 写入数据，丢弃的数据过多时返回 false */
+                synchronized boolean offer(byte[] bytes) {
+                    if (discarding) {
+                        discarded += bytes.length;
+                        return discarded <= 512 * 1024;
+                    }
+                    if (done || bytes.length == 0) {
+                        return true;
+                    }
+                    chunks.addLast(bytes);
+                    size += bytes.length;
+                    notifyAll();
+                    return true;
+                }
+
+                /**
+                 * 调用方关闭时丢弃缓存和后续数据
+                 * @return 事件循环因缓存过多暂停时返回 true，需要恢复读取
+                 */
+                synchronized boolean discard() {
+                    if (done || discarding) {
+                        return false;
+                    }
+                    discarding = true;
+                    chunks.clear();
+                    size = 0;
+                    notifyAll();
+                    boolean resume = paused;
+                    paused = false;
+                    return resume;
+                }
+
+                /** 缓存过多时标记暂停，由读取方在缓存减少后恢复 */
+                synchronized boolean pauseIfFull() {
+                    if (!buffered && !done && size >= HIGH_WATER) {
+                        paused = true;
+                    }
+                    return paused;
+                }
+
+                synchronized void finish(IOException e) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                    failure = e;
+                    notifyAll();
+                }
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    int n;
+                    boolean resume = false;
+                    synchronized (this) {
+                        if (discarding) {
+                            throw new IOException("Stream closed");
+                        }
+                        while (chunks.isEmpty()) {
+                            if (discarding) {
+                                throw new IOException("Stream closed");
+                            }
+                            if (done) {
+                                if (failure != null) {
+                                    throw failure;
+                                }
+                                return -1;
+                            }
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("HTTP Request is interrupted");
+                            }
+                        }
+                        byte[] chunk = chunks.peekFirst();
+                        n = Math.min(len, chunk.length - offset);
+                        System.arraycopy(chunk, offset, b, off, n);
+                        offset += n;
+                        if (offset == chunk.length) {
+                            chunks.pollFirst();
+                            offset = 0;
+                        }
+                        size -= n;
+                        if (paused && size <= LOW_WATER) {
+                            paused = false;
+                            resume = true;
+                        }
+                    }
+                    if (resume) {
+                        NioConnection current = connection;
+                        if (current != null) {
+                            current.execute(current::resume);
+                        }
+                    }
+                    return n;
+                }
+
+                @Override
+                public synchronized int available() {
+                    return (int) Math.min(size, Integer.MAX_VALUE);
+                }
+
+                @Override
+                public void close() {
+                    NioExchange.this.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * HTTP/2 传输层，每个主机只建立一个连接，并发的请求在同一连接上多路复用，按流和连接进行流量控制。
+     * http 地址直接以 HTTP/2 通信（h2c prior knowledge，需要服务端支持），https 地址通过 ALPN 协商，
+     * 服务端不支持 HTTP/2，或 JDK 低于 8u252 没有 ALPN 时，https 请求改用 {@link UrlConnectionTransport}。
+     * 同步请求的请求头和请求体在调用线程中发送；异步请求在调用线程中只编码请求头，建立连接、等待可用的流和
+     * 按流量控制窗口发送请求体都在传输层的发送线程中进行，不阻塞调用线程。响应由每个连接的读取线程接收，不支持服务端推送
+     */
+    public static class Http2Transport implements AsyncTransport, Closeable {
+        private static final int DATA = 0x0;
+        private static final int HEADERS = 0x1;
+        private static final int RST_STREAM = 0x3;
+        private static final int SETTINGS = 0x4;
+        private static final int PUSH_PROMISE = 0x5;
+        private static final int PING = 0x6;
+        private static final int GOAWAY = 0x7;
+        private static final int WINDOW_UPDATE = 0x8;
+        private static final int CONTINUATION = 0x9;
+
+        private static final int FLAG_END_STREAM = 0x1;
+        private static final int FLAG_ACK = 0x1;
+        private static final int FLAG_END_HEADERS = 0x4;
+        private static final int FLAG_PADDED = 0x8;
+        private static final int FLAG_PRIORITY = 0x20;
+
+        private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+        private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+        private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+        private static final int REFUSED_STREAM = 0x7;
+        private static final int CANCEL = 0x8;
+
+        private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        /** 协议默认的窗口和帧大小 */
+        private static final int DEFAULT_WINDOW = 65535;
+        private static final int DEFAULT_FRAME_SIZE = 16384;
+        /** 每个流和整个连接的接收窗口 */
+        private static final int STREAM_WINDOW = 1024 * 1024;
+        private static final int CONNECTION_WINDOW = 16 * 1024 * 1024;
+        /** HTTP/2 中不允许的连接相关请求头，Host 改为 :authority */
+        private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+                "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "content-length"));
+        /** ALPN 的方法在 JDK 8u252 加入，通过反射调用以兼容更早的 JDK 8，不支持时为 null，https 请求使用 HTTP/1.1 */
+        private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class, "setApplicationProtocols", String[].class);
+        private static final Method GET_APPLICATION_PROTOCOL = method(SSLSocket.class, "getApplicationProtocol");
+
+        private final long idleTimeoutNanos;
+        /** 每个主机的连接，建立完成前为未完成的 CompletableFuture，使用 connections 加锁 */
+        private final Map<String, CompletableFuture<Http2Connection>> connections = new HashMap<>();
+        /** ALPN 协商结果为 HTTP/1.1 的主机 */
+        private final Set<String> http1Hosts = ConcurrentHashMap.newKeySet();
+        private final Transport fallback = new UrlConnectionTransport();
+        /** 异步请求建立连接和发送请求体的线程，空闲 60 秒后结束 */
+        private final ExecutorService sender;
+        private boolean closed;
+
+        /** 连接空闲 60 秒后关闭 */
+        public Http2Transport() {
+            this(60_000);
+        }
+
+        /**
+         * @param idleTimeoutMillis 连接上没有请求时保留的毫秒数
+         */
+        public Http2Transport(long idleTimeoutMillis) {
+            if (idleTimeoutMillis < 0) {
+                throw new IllegalArgumentException("invalid idleTimeoutMillis: " + idleTimeoutMillis);
+            }
+            this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            AtomicInteger count = new AtomicInteger();
+            this.sender = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "HttpClient-h2-sender-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body) throws IOException {
+            return execute(method, url, headers, body, HttpBase.timeout());
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout) throws IOException {
+            return execute(method, url, headers, body, timeout, CallMetrics.NONE);
+        }
+
+        @Override
+        public Exchange execute(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) throws IOException {
+            URL httpUrl = new URL(url);
+            Http2Stream stream = start(headerBlock(method, httpUrl, headers, body), httpUrl, body, timeout, metrics, false);
+            if (stream == null) {
+                return fallback.execute(method, url, headers, body, timeout, metrics);
+            }
+            try {
+                return stream.headersFuture.get();
+            } catch (InterruptedException e) {
+                stream.close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("HTTP Request is interrupted");
+            } catch (ExecutionException e) {
+                throw NioTransport.asIOException(e.getCause());
+            }
+        }
+
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body) {
+            return executeAsync(method, url, headers, body, HttpBase.timeout());
+        }
+
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout) {
+            return executeAsync(method, url, headers, body, timeout, CallMetrics.NONE);
+        }
+
+        /**
+         * 请求头在调用线程中编码，无效时立即以异常结束；建立连接和发送请求在发送线程中进行，
+         * 响应体全部接收后在连接的读取线程中回调
+         */
+        @Override
+        public CompletableFuture<Exchange> executeAsync(String method, String url, Map<String, String> headers, Body body, Timeout timeout, CallMetrics metrics) {
+            CompletableFuture<Exchange> future = new CompletableFuture<>();
+            URL httpUrl;
+            byte[] headerBlock;
+            try {
+                httpUrl = new URL(url);
+                headerBlock = headerBlock(method, httpUrl, headers, body);
+            } catch (IOException | IllegalArgumentException e) {
+                future.completeExceptionally(e);
+                return future;
+            }
+            try {
+                sender.execute(() -> {
+                    try {
+                        Http2Stream stream = start(headerBlock, httpUrl, body, timeout, metrics, true);
+                        if (stream == null) {
+                            future.complete(fallback.execute(method, url, headers, body, timeout, metrics));
+                            return;
+                        }
+                        stream.bodyFuture.whenComplete((result, e) -> {
+                            if (e != null) {
+                                future.completeExceptionally(e);
+                            } else {
+                                future.complete(result);
+                            }
+                        });
+                    } catch (IOException | RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new IOException("Http2Transport is closed", e));
+            }
+            return future;
+        }
+
+        /** 关闭所有连接，未完成的请求以异常结束 */
+        @Override
+        public void close() {
+            List<CompletableFuture<Http2Connection>> all;
+            synchronized (connections) {
+                closed = true;
+                all = new ArrayList<>(connections.values());
+                connections.clear();
+            }
+            sender.shutdown();
+            IOException closedException = new IOException("Http2Transport is closed");
+            for (CompletableFuture<Http2Connection> future : all) {
+                future.thenAccept(connection -> {
+                    if (connection != null) {
+                        connection.close(closedException);
+                    }
+                });
+            }
+        }
+
+        /** 在主机的连接上发送请求，连接在取得后关闭时换一个连接。ALPN 协商为 HTTP/1.1 时返回 null */
+        private Http2Stream start(byte[] headerBlock, URL url, Body body, Timeout timeout, CallMetrics metrics, boolean buffered) throws IOException {
+            while (true) {
+                Http2Connection connection = connection(url, timeout, metrics);
+                if (connection == null) {
+                    return null;
+                }
+                Http2Stream stream = connection.start(headerBlock, body, timeout, metrics, buffered);
+                if (stream != null) {
+                    return stream;
+                }
+            }
+        }
+
+        /** 取得主机的连接，没有可用的连接时建立新连接，同一主机同时只建立一个连接。ALPN 协商为 HTTP/1.1 时返回 null */
+        private Http2Connection connection(URL url, Timeout timeout, CallMetrics metrics) throws IOException {
+            boolean tls = "https".equalsIgnoreCase(url.getProtocol());
+            if (!tls && !"http".equalsIgnoreCase(url.getProtocol())) {
+                throw new MalformedURLException("Unsupported protocol: " + url.getProtocol());
+            }
+            int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+            String hostKey = url.getProtocol().toLowerCase() + "://" + url.getHost() + ":" + port;
+            if (http1Hosts.contains(hostKey)) {
+                return null;
+            }
+            CompletableFuture<Http2Connection> future;
+            boolean create = false;
+            synchronized (connections) {
+                if (closed) {
+                    throw new IOException("Http2Transport is closed");
+                }
+                future = connections.get(hostKey);
+                if (future == null || (future.isDone() && !future.join().isAvailable())) {
+                    future = new CompletableFuture<>();
+                    connections.put(hostKey, future);
+                    create = true;
+                }
+            }
+            if (create) {
+                try {
+                    Http2Connection connection = connect(url.getHost(), port, tls, hostKey, timeout, metrics);
+                    if (connection == null) {
+                        http1Hosts.add(hostKey);
+                        remove(hostKey, future);
+                    }
+                    future.complete(connection);
+                    return connection;
+                } catch (IOException | RuntimeException e) {
+                    remove(hostKey, future);
+                    future.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            Http2Connection connection;
+            try {
+                int connectMillis = timeout.getConnectTimeout();
+                connection = connectMillis == 0 ? future.get() : future.get(connectMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("HTTP Request is interrupted");
+            } catch (ExecutionException e) {
+                throw NioTransport.asIOException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new SocketTimeoutException("Connect timed out");
+            }
+            if (connection != null) {
+                metrics.connectionReused();
+            }
+            return connection;
+        }
+
+        private void remove(String hostKey, CompletableFuture<Http2Connection> future) {
+            synchronized (connections) {
+                connections.remove(hostKey, future);
+            }
+        }
+
+        /** 连接关闭或不再接受新的请求时从连接池中移除 */
+        private void remove(Http2Connection connection) {
+            synchronized (connections) {
+                CompletableFuture<Http2Connection> future = connections.get(connection.hostKey);
+                if (future != null && future.isDone() && !future.isCompletedExceptionally() && future.join() == connection) {
+                    connections.remove(connection.hostKey);
+                }
+            }
+        }
+
+        private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+            try {
+                return type.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        private static Object invoke(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * 建立连接，https 通过 ALPN 协商，服务端选择 HTTP/1.1 时关闭连接并返回 null。
+         * JDK 不支持 ALPN 时 https 不建立连接，直接返回 null
+         */
+        private Http2Connection connect(String host, int port, boolean tls, String hostKey, Timeout timeout, CallMetrics metrics) throws IOException {
+            if (tls && (SET_APPLICATION_PROTOCOLS == null || GET_APPLICATION_PROTOCOL == null)) {
+                return null;
+            }
+            DnsResolver resolver = HttpBase.dnsResolver;
+            DnsResolver.Endpoint endpoint;
+            InetSocketAddress address;
+            metrics.dnsStart();
+            try {
+                endpoint = resolver == null ? null : resolver.select(host);
+                address = endpoint == null ? new InetSocketAddress(host, port) : new InetSocketAddress(endpoint.address, port);
+            } finally {
+                metrics.dnsEnd();
+            }
+            if (address.isUnresolved()) {
+                throw new UnknownHostException(host);
+            }
+            Socket socket = new Socket();
+            try {
+                metrics.connectStart();
+                socket.setTcpNoDelay(true);
+                for (int failovers = 0; ; failovers++) {
+                    try {
+                        socket.connect(address, timeout.getConnectTimeout());
+                        break;
+                    } catch (IOException e) {
+                        if (endpoint == null) {
+                            throw e;
+                        }
+                        endpoint.connectFailed();
+                        // 换用其他地址重新连接
+                        endpoint = failovers < 2 && !timeout.isExpired() && !timeout.isCancelled() ? resolver.next(host, endpoint) : null;
+                        if (endpoint == null) {
+                            throw e;
+                        }
+                        address = new InetSocketAddress(endpoint.address, port);
+                        socket.close();
+                        socket = new Socket();
+                        socket.setTcpNoDelay(true);
+                    }
+                }
+                if (endpoint != null) {
+                    endpoint.connected();
+                }
+                if (tls) {
+                    SSLSocket sslSocket = (SSLSocket) HttpsURLConnection.getDefaultSSLSocketFactory().createSocket(socket, host, port, true);
+                    socket = sslSocket;
+                    SSLParameters parameters = sslSocket.getSSLParameters();
+                    parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    invoke(SET_APPLICATION_PROTOCOLS, parameters, (Object) new String[]{"h2", "http/1.1"});
+                    sslSocket.setSSLParameters(parameters);
+                    sslSocket.setSoTimeout(timeout.getConnectTimeout());
+                    sslSocket.startHandshake();
+                    sslSocket.setSoTimeout(0);
+                    if (!"h2".equals(invoke(GET_APPLICATION_PROTOCOL, sslSocket))) {
+                        sslSocket.close();
+                        return null;
+                    }
+                }
+                metrics.connectEnd();
+                return new Http2Connection(socket, hostKey, endpoint);
+            } catch (IOException | RuntimeException e) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+                throw e;
+            }
+        }
+
+        /** 编码请求头，伪首部在前，不使用动态表 */
+        private static byte[] headerBlock(String method, URL url, Map<String, String> headers, Body body) {
+            PreparedHeaders.Encoded fields = headerFields(method, url, headers);
+            String path = url.getFile().isEmpty() ? "/" : url.getFile();
+            HttpBase.checkRequestLine(method, path);
+            ByteArrayOutputStream block = new ByteArrayOutputStream(fields.head.length + fields.tail.length + 64);
+            block.write(fields.head, 0, fields.head.length);
+            Hpack.encode(block, ":path", path);
+            block.write(fields.tail, 0, fields.tail.length);
+            if (body != null && body.length() >= 0) {
+                Hpack.encode(block, "content-length", Long.toString(body.length()));
+            }
+            return block.toByteArray();
+        }
+
+        /** 编码 :path 之前的伪首部和普通首部。请求模板的请求头按请求方式和地址缓存编码结果 */
+        private static PreparedHeaders.Encoded headerFields(String method, URL url, Map<String, String> headers) {
+            PreparedHeaders prepared = headers instanceof PreparedHeaders ? (PreparedHeaders) headers : null;
+            String key = method + " " + url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+            if (prepared != null) {
+                PreparedHeaders.Encoded cached = prepared.http2;
+                if (cached != null && cached.key.equals(key)) {
+                    return cached;
+                }
+            }
+            String authority = null;
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(Header.HOST.getValue())) {
+                    authority = header.getValue();
+                }
+            }
+            if (authority == null) {
+                authority = url.getPort() == -1 || url.getPort() == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + url.getPort();
+            }
+            ByteArrayOutputStream pseudo = new ByteArrayOutputStream(64);
+            Hpack.encode(pseudo, ":method", method);
+            Hpack.encode(pseudo, ":scheme", url.getProtocol().toLowerCase());
+            Hpack.encode(pseudo, ":authority", authority);
+            ByteArrayOutputStream regular = new ByteArrayOutputStream(192);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                String name = header.getKey().toLowerCase();
+                if (!CONNECTION_HEADERS.contains(name) && header.getValue() != null) {
+                    HttpBase.checkHeader(name, header.getValue());
+                    Hpack.encode(regular, name, header.getValue());
+                }
+            }
+            PreparedHeaders.Encoded encoded = new PreparedHeaders.Encoded(key, pseudo.toByteArray(), regular.toByteArray(), false);
+            if (prepared != null) {
+                prepared.http2 = encoded;
+            }
+            return encoded;
+        }
+
+        private static int readInt(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+        }
+
+        private static void writeInt(byte[] bytes, int offset, int value) {
+            bytes[offset] = (byte) (value >>> 24);
+            bytes[offset + 1] = (byte) (value >>> 16);
+            bytes[offset + 2] = (byte) (value >>> 8);
+            bytes[offset + 3] = (byte) value;
+        }
+
+        /** 一个 HTTP/2 连接，连接状态和写入使用连接对象加锁，读取线程接收所有流的帧 */
+        private final class Http2Connection implements Runnable {
+            private final Socket socket;
+            private final String hostKey;
+            /** 连接的地址，未设置域名解析时为 null */
+            private final DnsResolver.Endpoint endpoint;
+            private final DataInputStream in;
+            private final OutputStream out;
+            private final Hpack.Decoder decoder = new Hpack.Decoder();
+            /** 以下字段使用连接对象加锁 */
+            private final Map<Integer, Http2Stream> streams = new HashMap<>();
+            private int nextStreamId = 1;
+            private int maxConcurrentStreams = Integer.MAX_VALUE;
+            private int initialWindow = DEFAULT_WINDOW;
+            private int maxFrameSize = DEFAULT_FRAME_SIZE;
+            private long sendWindow = DEFAULT_WINDOW;
+            /** 服务端发送了 GOAWAY 或连接空闲，不再发送新的请求 */
+            private boolean goAway;
+            private IOException failure;
+            private long idleSince = System.nanoTime();
+            /** 以下字段只在读取线程中访问 */
+            private int unacknowledged;
+            private ByteArrayOutputStream headerBlock;
+            private int headerStream;
+            private int headerFlags;
+            private volatile ScheduledFuture<?> checker;
+
+            Http2Connection(Socket socket, String hostKey, DnsResolver.Endpoint endpoint) throws IOException {
+                this.socket = socket;
+                this.hostKey = hostKey;
+                this.endpoint = endpoint;
+                this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024));
+                this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+                synchronized (this) {
+                    out.write(PREFACE);
+                    // 禁用服务端推送，增大每个流的接收窗口
+                    byte[] settings = new byte[12];
+                    settings[1] = 0x2;
+                    settings[7] = SETTINGS_INITIAL_WINDOW_SIZE;
+                    writeInt(settings, 8, STREAM_WINDOW);
+                    writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+                    writeWindowUpdate(0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+                    out.flush();
+                }
+                Thread thread = new Thread(this, "HttpClient-h2-" + hostKey);
+                thread.setDaemon(true);
+                thread.start();
+                checker = HttpBase.TIMER.scheduleWithFixedDelay(this::checkTimeouts, 100, 100, TimeUnit.MILLISECONDS);
+            }
+
+            synchronized boolean isAvailable() {
+                return failure == null && !goAway;
+            }
+
+            /**
+             * 等待可用的流后发送请求头和请求体
+             * @return 流，连接已不可用时返回 null
+             */
+            Http2Stream start(byte[] block, Body body, Timeout timeout, CallMetrics metrics, boolean buffered) throws IOException {
+                Http2Stream stream = new Http2Stream(this, timeout, metrics, buffered);
+                synchronized (this) {
+                    long deadline = timeout.deadline(System.nanoTime(), timeout.readMillis);
+                    while (failure == null && !goAway && streams.size() >= maxConcurrentStreams) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException("Timed out waiting for an HTTP/2 stream");
+                        }
+                        waitNanos(remaining);
+                    }
+                    if (failure != null || goAway || nextStreamId < 0) {
+                        goAway = true;
+                        return null;
+                    }
+                    stream.id = nextStreamId;
+                    nextStreamId += 2;
+                    stream.sendWindow = initialWindow;
+                    streams.put(stream.id, stream);
+                    if (endpoint != null) {
+                        endpoint.acquire();
+                        stream.counted = true;
+                    }
+                    writeHeaders(stream.id, block, body == null);
+                    out.flush();
+                }
+                long sent = 0;
+                try {
+                    timeout.onCancel(() -> reset(stream, new IOException("Canceled")));
+                    if (body != null) {
+                        try (RequestBody requestBody = new RequestBody(stream)) {
+                            body.writeTo(requestBody);
+                            sent = requestBody.written;
+                        }
+                    }
+                } catch (IOException e) {
+                    reset(stream, e);
+                    throw e;
+                }
+                metrics.requestEnd(sent);
+                stream.sent(System.nanoTime());
+                return stream;
+            }
+
+            /** 发送 DATA 帧，窗口不足时等待服务端更新窗口 */
+            void sendData(Http2Stream stream, byte[] bytes, int offset, int length, boolean endStream) throws IOException {
+                if (length == 0 && !endStream) {
+                    return;
+                }
+                synchronized (this) {
+                    long deadline = stream.timeout.deadline(System.nanoTime(), stream.timeout.readMillis);
+                    while (true) {
+                        if (failure != null) {
+                            throw new IOException("HTTP/2 connection failed", failure);
+                        }
+                        IOException streamFailure = stream.failure();
+                        if (streamFailure != null) {
+                            throw streamFailure;
+                        }
+                        int n = (int) Math.max(0, Math.min(length, Math.min(maxFrameSize, Math.min(sendWindow, stream.sendWindow))));
+                        if (n > 0 || length == 0) {
+                            boolean last = endStream && n == length;
+                            writeFrame(DATA, last ? FLAG_END_STREAM : 0, stream.id, bytes, offset, n);
+                            sendWindow -= n;
+                            stream.sendWindow -= n;
+                            offset += n;
+                            length -= n;
+                            if (length == 0) {
+                                out.flush();
+                                return;
+                            }
+                            continue;
+                        }
+                        out.flush();
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException("Write timed out");
+                        }
+                        waitNanos(remaining);
+                    }
+                }
+            }
+
+            /** 通知服务端已接收的数据，streamId 为 0 时为整个连接 */
+            void windowUpdate(int streamId, int increment) throws IOException {
+                synchronized (this) {
+                    if (failure == null && (streamId == 0 || streams.containsKey(streamId))) {
+                        writeWindowUpdate(streamId, increment);
+                        out.flush();
+                    }
+                }
+            }
+
+            /** 取消流，服务端不再发送该流的数据 */
+            void reset(Http2Stream stream, IOException e) {
+                boolean drained = false;
+                synchronized (this) {
+                    if (stream.id != 0 && streams.remove(stream.id) != null) {
+                        byte[] code = new byte[4];
+                        writeInt(code, 0, CANCEL);
+                        try {
+                            writeFrame(RST_STREAM, 0, stream.id, code, 0, code.length);
+                            out.flush();
+                        } catch (IOException ignored) {
+                            // 连接失败由读取线程处理
+                        }
+                        drained = released();
+                    }
+                }
+                stream.fail(e);
+                if (drained) {
+                    close(new IOException("HTTP/2 connection is closed"));
+                }
+            }
+
+            /** 流结束后从连接中移除 */
+            void remove(Http2Stream stream) {
+                boolean drained;
+                synchronized (this) {
+                    drained = streams.remove(stream.id) != null && released();
+                }
+                if (drained) {
+                    close(new IOException("HTTP/2 connection is closed"));
+                }
+            }
+
+            /** 流结束，唤醒等待可用流的请求，返回不再接受请求的连接上是否已没有流 */
+            private boolean released() {
+                if (streams.isEmpty()) {
+                    idleSince = System.nanoTime();
+                }
+                notifyAll();
+                return goAway && streams.isEmpty();
+            }
+
+            /** 关闭连接，未完成的流以异常结束 */
+            void close(IOException e) {
+                List<Http2Stream> active;
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    active = new ArrayList<>(streams.values());
+                    streams.clear();
+                    notifyAll();
+                }
+                ScheduledFuture<?> current = checker;
+                if (current != null) {
+                    current.cancel(false);
+                }
+                Http2Transport.this.remove(this);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+                for (Http2Stream stream : active) {
+                    stream.fail(e);
+                }
+            }
+
+            /** 结束超时或取消的流，关闭空闲的连接 */
+            private void checkTimeouts() {
+                long now = System.nanoTime();
+                List<Http2Stream> expired = new ArrayList<>();
+                boolean idle;
+                synchronized (this) {
+                    for (Http2Stream stream : streams.values()) {
+                        if (stream.timeout.isCancelled() || stream.timeout.isExpired() || stream.readTimedOut(now)) {
+                            expired.add(stream);
+                        }
+                    }
+                    idle = failure == null && streams.isEmpty() && now - idleSince > idleTimeoutNanos;
+                    if (idle) {
+                        goAway = true;
+                    }
+                }
+                for (Http2Stream stream : expired) {
+                    reset(stream, stream.timeout.isCancelled() ? new IOException("Canceled")
+                            : new SocketTimeoutException(stream.timeout.isExpired() ? "Request timed out" : "Read timed out"));
+                }
+                if (idle) {
+                    close(new IOException("HTTP/2 connection is idle"));
+                }
+            }
+
+            private void waitNanos(long nanos) throws InterruptedIOException {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("HTTP Request is interrupted");
+                }
+            }
+
+            /** 请求头超过帧大小时拆分为 HEADERS 和 CONTINUATION 帧，调用方加锁 */
+            private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+                int offset = 0;
+                do {
+                    int length = Math.min(block.length - offset, maxFrameSize);
+                    boolean last = offset + length == block.length;
+                    int flags = last ? FLAG_END_HEADERS : 0;
+                    if (offset == 0) {
+                        writeFrame(HEADERS, flags | (endStream ? FLAG_END_STREAM : 0), streamId, block, offset, length);
+                    } else {
+                        writeFrame(CONTINUATION, flags, streamId, block, offset, length);
+                    }
+                    offset += length;
+                } while (offset < block.length);
+            }
+
+            private void writeWindowUpdate(int streamId, int increment) throws IOException {
+                byte[] payload = new byte[4];
+                writeInt(payload, 0, increment);
+                writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+            }
+
+            /** 写入一个帧，调用方加锁并刷新 */
+            private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+                byte[] header = new byte[9];
+                header[0] = (byte) (length >>> 16);
+                header[1] = (byte) (length >>> 8);
+                header[2] = (byte) length;
+                header[3] = (byte) type;
+                header[4] = (byte) flags;
+                writeInt(header, 5, streamId);
+                out.write(header);
+                out.write(payload, offset, length);
+            }
+
+            /** 读取线程，读取失败时关闭连接 */
+            @Override
+            public void run() {
+                byte[] header = new byte[9];
+                try {
+                    while (true) {
+                        in.readFully(header);
+                        int length = (header[0] & 0xff) << 16 | (header[1] & 0xff) << 8 | header[2] & 0xff;
+                        if (length > DEFAULT_FRAME_SIZE) {
+                            throw new IOException("HTTP/2 frame too large: " + length);
+                        }
+                        byte[] payload = new byte[length];
+                        in.readFully(payload);
+                        onFrame(header[3] & 0xff, header[4] & 0xff, readInt(header, 5) & 0x7fffffff, payload);
+                    }
+                } catch (IOException e) {
+                    close(e);
+                } catch (RuntimeException e) {
+                    close(new IOException("Invalid HTTP/2 frame", e));
+                }
+            }
+
+            private void onFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+                if (headerBlock != null && type != CONTINUATION) {
+                    throw new IOException("Expected CONTINUATION frame");
+                }
+                switch (type) {
+                    case DATA:
+                        onData(flags, streamId, payload);
+                        break;
+                    case HEADERS:
+                        int offset = 0;
+                        int end = payload.length;
+                        if ((flags & FLAG_PADDED) != 0) {
+                            end -= payload[0] & 0xff;
+                            offset = 1;
+                        }
+                        if ((flags & FLAG_PRIORITY) != 0) {
+                            offset += 5;
+                        }
+                        if (offset > end) {
+                            throw new IOException("Invalid HEADERS frame");
+                        }
+                        headerBlock = new ByteArrayOutputStream(end - offset);
+                        headerBlock.write(payload, offset, end - offset);
+                        headerStream = streamId;
+                        headerFlags = flags;
+                        if ((flags & FLAG_END_HEADERS) != 0) {
+                            onHeaders();
+                        }
+                        break;
+                    case CONTINUATION:
+                        if (headerBlock == null || streamId != headerStream) {
+                            throw new IOException("Unexpected CONTINUATION frame");
+                        }
+                        headerBlock.write(payload, 0, payload.length);
+                        if ((flags & FLAG_END_HEADERS) != 0) {
+                            onHeaders();
+                        }
+                        break;
+                    case RST_STREAM:
+                        Http2Stream reset;
+                        synchronized (this) {
+                            reset = streams.get(streamId);
+                        }
+                        if (reset != null) {
+                            int errorCode = readInt(payload, 0);
+                            remove(reset);
+                            // REFUSED_STREAM 表示服务端没有处理请求，可以安全地重试
+                            reset.fail(errorCode == REFUSED_STREAM ? new ConnectException("HTTP/2 stream refused by server")
+                                    : new IOException("HTTP/2 stream reset by server, error code " + errorCode));
+                        }
+                        break;
+                    case SETTINGS:
+                        if ((flags & FLAG_ACK) == 0) {
+                            onSettings(payload);
+                        }
+                        break;
+                    case PING:
+                        if ((flags & FLAG_ACK) == 0) {
+                            synchronized (this) {
+                                writeFrame(PING, FLAG_ACK, 0, payload, 0, payload.length);
+                                out.flush();
+                            }
+                        }
+                        break;
+                    case GOAWAY:
+                        onGoAway(readInt(payload, 0) & 0x7fffffff, readInt(payload, 4));
+                        break;
+                    case WINDOW_UPDATE:
+                        int increment = readInt(payload, 0) & 0x7fffffff;
+                        synchronized (this) {
+                            if (streamId == 0) {
+                                sendWindow += increment;
+                            } else {
+                                Http2Stream stream = streams.get(streamId);
+                                if (stream != null) {
+                                    stream.sendWindow += increment;
+                                }
+                            }
+                            notifyAll();
+                        }
+                        break;
+                    case PUSH_PROMISE:
+                        throw new IOException("Unexpected PUSH_PROMISE, server push is disabled");
+                    default:
+                        // 忽略 PRIORITY 和未知类型的帧
+                }
+            }
+
+            private void onData(int flags, int streamId, byte[] payload) throws IOException {
+                int offset = 0;
+                int end = payload.length;
+                if ((flags & FLAG_PADDED) != 0) {
+                    end -= payload[0] & 0xff;
+                    offset = 1;
+                    if (end < offset) {
+                        throw new IOException("Invalid DATA frame");
+                    }
+                }
+                // 连接窗口在收到数据时更新，流的窗口在数据被读取后更新
+                unacknowledged += payload.length;
+                if (unacknowledged >= CONNECTION_WINDOW / 2) {
+                    windowUpdate(0, unacknowledged);
+                    unacknowledged = 0;
+                }
+                Http2Stream stream;
+                synchronized (this) {
+                    stream = streams.get(streamId);
+                }
+                if (stream != null) {
+                    byte[] data = offset == 0 && end == payload.length ? payload : Arrays.copyOfRange(payload, offset, end);
+                    stream.onData(data, payload.length - data.length, (flags & FLAG_END_STREAM) != 0);
+                }
+            }
+
+            /** 所有的头部块都需要解码，保持动态表与服务端一致 */
+            private void onHeaders() throws IOException {
+                byte[] block = headerBlock.toByteArray();
+                headerBlock = null;
+                List<String[]> fields = decoder.decode(block);
+                Http2Stream stream;
+                synchronized (this) {
+                    stream = streams.get(headerStream);
+                }
+                if (stream != null) {
+                    stream.onHeaders(fields, (headerFlags & FLAG_END_STREAM) != 0);
+                }
+            }
+
+            private void onSettings(byte[] payload) throws IOException {
+                synchronized (this) {
+                    for (int i = 0; i + 6 <= payload.length; i += 6) {
+                        int id = (payload[i] & 0xff) << 8 | payload[i + 1] & 0xff;
+                        int value = readInt(payload, i + 2);
+                        switch (id) {
+                            case SETTINGS_MAX_CONCURRENT_STREAMS:
+                                maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                                break;
+                            case SETTINGS_INITIAL_WINDOW_SIZE:
+                                if (value < 0) {
+                                    throw new IOException("Invalid HTTP/2 initial window size: " + value);
+                                }
+                                for (Http2Stream stream : streams.values()) {
+                                    stream.sendWindow += value - initialWindow;
+                                }
+                                initialWindow = value;
+                                break;
+                            case SETTINGS_MAX_FRAME_SIZE:
+                                if (value < DEFAULT_FRAME_SIZE || value > 0xffffff) {
+                                    throw new IOException("Invalid HTTP/2 max frame size: " + value);
+                                }
+                                maxFrameSize = value;
+                                break;
+                            default:
+                                // 请求头不使用动态表，忽略 HEADER_TABLE_SIZE 等设置
+                        }
+                    }
+                    writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+                    out.flush();
+                    notifyAll();
+                }
+            }
+
+            /** 服务端不再接受新的流，编号大于 lastStreamId 的流没有被处理 */
+            private void onGoAway(int lastStreamId, int errorCode) {
+                List<Http2Stream> refused = new ArrayList<>();
+                boolean drained;
+                synchronized (this) {
+                    goAway = true;
+                    for (Iterator<Http2Stream> it = streams.values().iterator(); it.hasNext(); ) {
+                        Http2Stream stream = it.next();
+                        if (stream.id > lastStreamId) {
+                            refused.add(stream);
+                            it.remove();
+                        }
+                    }
+                    drained = released();
+                }
+                Http2Transport.this.remove(this);
+                for (Http2Stream stream : refused) {
+                    stream.fail(new ConnectException("HTTP/2 stream refused by server, GOAWAY error code " + errorCode));
+                }
+                if (drained) {
+                    close(new IOException("HTTP/2 connection is closed"));
+                }
+            }
+        }
+
+        /** 一个 HTTP/2 流，即一次请求和响应，响应由连接的读取线程写入 */
+        private final class Http2Stream implements Exchange {
+            private final Http2Connection connection;
+            private final Timeout timeout;
+            private final CallMetrics metrics;
+            /** 异步请求在完成前缓存整个响应体，收到数据后立即更新窗口 */
+            private final boolean buffered;
+            private final CompletableFuture<Exchange> headersFuture = new CompletableFuture<>();
+            private final CompletableFuture<Exchange> bodyFuture = new CompletableFuture<>();
+            private final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            private final InputStream body = new ResponseBody();
+            /** 以下两个字段使用连接加锁 */
+            private int id;
+            private long sendWindow;
+            private volatile int code;
+            /** 请求发送完成后才开始计算读取超时 */
+            private volatile boolean sent;
+            private volatile long deadline;
+            /** 以下字段使用当前对象加锁 */
+            private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+            private int offset;
+            private long size;
+            /** 已读取但还没有通知服务端的字节数 */
+            private int unacknowledged;
+            private boolean done;
+            /** 服务端已发送 END_STREAM，读取线程稍后移除该流，此时关闭不需要再取消 */
+            private volatile boolean ended;
+            /** 已计入地址的在途请求数 */
+            private volatile boolean counted;
+            private boolean discarding;
+            private IOException failure;
+
+            Http2Stream(Http2Connection connection, Timeout timeout, CallMetrics metrics, boolean buffered) {
+                this.connection = connection;
+                this.timeout = timeout;
+                this.metrics = metrics;
+                this.buffered = buffered;
+            }
+
+            void sent(long now) {
+                deadline = timeout.deadline(now, timeout.readMillis);
+                sent = true;
+            }
+
+            /** 等待服务端数据超过读取超时，调用方已读完缓存的数据时才计算 */
+            synchronized boolean readTimedOut(long now) {
+                return sent && !done && (buffered || size == 0) && now - deadline > 0;
+            }
+
+            synchronized IOException failure() {
+                return failure;
+            }
+
+            /** 收到响应头或 trailers，忽略 1xx 响应 */
+            void onHeaders(List<String[]> fields, boolean endStream) {
+                deadline = timeout.deadline(System.nanoTime(), timeout.readMillis);
+                ended = endStream;
+                if (code == 0) {
+                    int status = 0;
+                    for (String[] field : fields) {
+                        if (":status".equals(field[0])) {
+                            try {
+                                status = Integer.parseInt(field[1]);
+                            } catch (NumberFormatException e) {
+                                status = -1;
+                            }
+                        } else if (!field[0].startsWith(":") && (status < 100 || status >= 200)) {
+                            responseHeaders.computeIfAbsent(field[0], key -> new ArrayList<>(1)).add(field[1]);
+                        }
+                    }
+                    if (status < 100 || status > 999) {
+                        connection.reset(this, new IOException("Invalid HTTP/2 response status"));
+                        return;
+                    }
+                    if (status < 200) {
+                        responseHeaders.clear();
+                        return;
+                    }
+                    code = status;
+                    metrics.responseStart();
+                    headersFuture.complete(this);
+                }
+                if (endStream) {
+                    end();
+                }
+            }
+
+            void onData(byte[] data, int padding, boolean endStream) throws IOException {
+                deadline = timeout.deadline(System.nanoTime(), timeout.readMillis);
+                int acknowledge = padding;
+                synchronized (this) {
+                    ended = endStream;
+                    if (discarding || done) {
+                        acknowledge += data.length;
+                    } else if (data.length > 0) {
+                        chunks.addLast(data);
+                        size += data.length;
+                        notifyAll();
+                        if (buffered) {
+                            acknowledge += data.length;
+                        }
+                    }
+                }
+                if (endStream) {
+                    end();
+                } else if (acknowledge > 0) {
+                    connection.windowUpdate(id, acknowledge);
+                }
+            }
+
+            /** 服务端结束了流 */
+            private void end() {
+                connection.remove(this);
+                if (code == 0) {
+                    fail(new IOException("HTTP/2 stream ended without response"));
+                    return;
+                }
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                    notifyAll();
+                }
+                finished();
+                bodyFuture.complete(this);
+            }
+
+            void fail(IOException e) {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    done = true;
+                    failure = e;
+                    notifyAll();
+                }
+                finished();
+                headersFuture.completeExceptionally(e);
+                bodyFuture.completeExceptionally(e);
+            }
+
+            /** 流结束，不再计入地址的在途请求数 */
+            private void finished() {
+                if (counted) {
+                    connection.endpoint.release();
+                }
+            }
+
+            @Override
+            public int getCode() {
+                return code;
+            }
+
+            @Override
+            public String getHeader(String name) {
+                List<String> values = responseHeaders.get(name);
+                return values == null || values.isEmpty() ? null : values.get(0);
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return responseHeaders;
+            }
+
+            @Override
+            public InputStream getBody() {
+                return body;
+            }
+
+            /** 未读完的响应体直接取消流，不影响连接上的其他请求 */
+            @Override
+            public void close() {
+                synchronized (this) {
+                    if (done) {
+                        return;
+                    }
+                    discarding = true;
+                    chunks.clear();
+                    size = 0;
+                    notifyAll();
+                }
+                if (!ended) {
+                    connection.reset(this, new IOException("Stream closed"));
+                }
+            }
+
+            /** 响应体流，读取线程写入，调用方读取，读取后更新流的窗口 */
+            private final class ResponseBody extends InputStream {
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    int n;
+                    int update = 0;
+                    synchronized (Http2Stream.this) {
+                        while (chunks.isEmpty()) {
+                            if (discarding) {
+                                throw new IOException("Stream closed");
+                            }
+                            if (done) {
+                                if (failure != null) {
+                                    throw failure;
+                                }
+                                return -1;
+                            }
+                            try {
+                                Http2Stream.this.wait();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                throw new InterruptedIOException("HTTP Request is interrupted");
+                            }
+                        }
+                        byte[] chunk = chunks.peekFirst();
+                        n = Math.min(len, chunk.length - offset);
+                        System.arraycopy(chunk, offset, b, off, n);
+                        offset += n;
+                        if (offset == chunk.length) {
+                            chunks.pollFirst();
+                            offset = 0;
+                        }
+                        size -= n;
+                        if (!buffered && !done) {
+                            unacknowledged += n;
+                            if (unacknowledged >= STREAM_WINDOW / 2) {
+                                update = unacknowledged;
+                                unacknowledged = 0;
+                            }
+                        }
+                    }
+                    if (update > 0) {
+                        connection.windowUpdate(id, update);
+                    }
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    synchronized (Http2Stream.this) {
+                        return (int) Math.min(size, Integer.MAX_VALUE);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    Http2Stream.this.close();
+                }
+            }
+        }
+
+        /** 请求体输出流，按帧大小拆分为 DATA 帧，关闭时结束流 */
+        private static final class RequestBody extends OutputStream {
+            private final Http2Stream stream;
+            private final byte[] buffer = new byte[DEFAULT_FRAME_SIZE];
+            private int count;
+            private long written;
+            private boolean closed;
+
+            RequestBody(Http2Stream stream) {
+                this.stream = stream;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == buffer.length) {
+                        flushBuffer();
+                    }
+                    int n = Math.min(len, buffer.length - count);
+                    System.arraycopy(b, off, buffer, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            private void flushBuffer() throws IOException {
+                stream.connection.sendData(stream, buffer, 0, count, false);
+                written += count;
+                count = 0;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    stream.connection.sendData(stream, buffer, 0, count, true);
+                    written += count;
+                }
+            }
+        }
+
+        /** HPACK 头部压缩（RFC 7541），发送时不使用动态表和 Huffman 编码，接收时完整解码 */
+        private static final class Hpack {
+            private static final String[] STATIC_TABLE = {
+                    ":authority", "",
+                    ":method", "GET",
+                    ":method", "POST",
+                    ":path", "/",
+                    ":path", "/index.html",
+                    ":scheme", "http",
+                    ":scheme", "https",
+                    ":status", "200",
+                    ":status", "204",
+                    ":status", "206",
+                    ":status", "304",
+                    ":status", "400",
+                    ":status", "404",
+                    ":status", "500",
+                    "accept-charset", "",
+                    "accept-encoding", "gzip, deflate",
+                    "accept-language", "",
+                    "accept-ranges", "",
+                    "accept", "",
+                    "access-control-allow-origin", "",
+                    "age", "",
+                    "allow", "",
+                    "authorization", "",
+                    "cache-control", "",
+                    "content-disposition", "",
+                    "content-encoding", "",
+                    "content-language", "",
+                    "content-length", "",
+                    "content-location", "",
+                    "content-range", "",
+                    "content-type", "",
+                    "cookie", "",
+                    "date", "",
+                    "etag", "",
+                    "expect", "",
+                    "expires", "",
+                    "from", "",
+                    "host", "",
+                    "if-match", "",
+                    "if-modified-since", "",
+                    "if-none-match", "",
+                    "if-range", "",
+                    "if-unmodified-since", "",
+                    "last-modified", "",
+                    "link", "",
+                    "location", "",
+                    "max-forwards", "",
+                    "proxy-authenticate", "",
+                    "proxy-authorization", "",
+                    "range", "",
+                    "referer", "",
+                    "refresh", "",
+                    "retry-after", "",
+                    "server", "",
+                    "set-cookie", "",
+                    "strict-transport-security", "",
+                    "transfer-encoding", "",
+                    "user-agent", "",
+                    "vary", "",
+                    "via", "",
+                    "www-authenticate", ""
+            };
+
+            private static final int[] HUFFMAN_CODES = {
+                    0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+                    0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+                    0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+                    0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+                    0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+                    0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+                    0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+                    0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+                    0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+                    0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+                    0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+                    0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+                    0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+                    0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+                    0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+                    0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+                    0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+                    0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+                    0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+                    0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+                    0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+                    0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+                    0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+                    0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+                    0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+                    0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+                    0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+                    0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+                    0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+                    0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+                    0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+                    0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+            };
+            private static final byte[] HUFFMAN_LENGTHS = {
+                    13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+                    28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+                    6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+                    5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+                    13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+                    7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+                    15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+                    6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+                    20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+                    24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+                    22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+                    21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+                    26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+                    19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+                    20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+                    26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+            };
+            /** Huffman 解码树，每个节点占两个位置，正数为子节点，负数为 -1 - 字符，0 表示没有 */
+            private static final int[] HUFFMAN_TREE = huffmanTree();
+            /** 静态表中名称的第一个位置 */
+            private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+            static {
+                for (int i = STATIC_TABLE.length / 2; i > 0; i--) {
+                    STATIC_NAMES.put(STATIC_TABLE[(i - 1) * 2], i);
+                }
+            }
+
+            private static int[] huffmanTree() {
+                int[] tree = new int[2 * 512];
+                int nodes = 1;
+                for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+                    int code = HUFFMAN_CODES[symbol];
+                    int node = 0;
+                    for (int i = HUFFMAN_LENGTHS[symbol] - 1; i > 0; i--) {
+                        int bit = (code >>> i) & 1;
+                        if (tree[node * 2 + bit] == 0) {
+                            tree[node * 2 + bit] = nodes++;
+                        }
+                        node = tree[node * 2 + bit];
+                    }
+                    tree[node * 2 + (code & 1)] = -1 - symbol;
+                }
+                return tree;
+            }
+
+            /** 不加入索引的字面量，名称在静态表中时使用索引 */
+            static void encode(ByteArrayOutputStream out, String name, String value) {
+                Integer index = STATIC_NAMES.get(name);
+                if (index != null) {
+                    writeInt(out, 0, 4, index);
+                } else {
+                    out.write(0);
+                    writeString(out, name);
+                }
+                writeString(out, value);
+            }
+
+            private static void writeString(ByteArrayOutputStream out, String value) {
+                byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+                writeInt(out, 0, 7, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+
+            private static void writeInt(ByteArrayOutputStream out, int flags, int prefixBits, int value) {
+                int max = (1 << prefixBits) - 1;
+                if (value < max) {
+                    out.write(flags | value);
+                    return;
+                }
+                out.write(flags | max);
+                value -= max;
+                while (value >= 0x80) {
+                    out.write((value & 0x7f) | 0x80);
+                    value >>>= 7;
+                }
+                out.write(value);
+            }
+
+            static String huffmanDecode(byte[] bytes, int offset, int length) throws IOException {
+                StringBuilder text = new StringBuilder(length * 8 / 5);
+                int node = 0;
+                int pending = 0;
+                boolean ones = true;
+                for (int i = offset; i < offset + length; i++) {
+                    int b = bytes[i] & 0xff;
+                    for (int shift = 7; shift >= 0; shift--) {
+                        int bit = (b >>> shift) & 1;
+                        int next = HUFFMAN_TREE[node * 2 + bit];
+                        if (next == 0) {
+                            throw new IOException("Invalid Huffman code");
+                        }
+                        if (next < 0) {
+                            text.append((char) (-1 - next));
+                            node = 0;
+                            pending = 0;
+                            ones = true;
+                        } else {
+                            node = next;
+                            pending++;
+                            ones &= bit == 1;
+                        }
+                    }
+                }
+                // 末尾的填充为不超过 7 位的 1
+                if (pending > 7 || !ones) {
+                    throw new IOException("Invalid Huffman padding");
+                }
+                return text.toString();
+            }
+
+            /** 解码器，动态表与服务端的编码器保持一致，只在连接的读取线程中使用 */
+            static final class Decoder {
+                /** 动态表，最新的条目在最后 */
+                private final ArrayList<String[]> table = new ArrayList<>();
+                private int tableSize;
+                private int maxTableSize = 4096;
+                private byte[] block;
+                private int position;
+
+                List<String[]> decode(byte[] block) throws IOException {
+                    this.block = block;
+                    this.position = 0;
+                    List<String[]> fields = new ArrayList<>();
+                    while (position < block.length) {
+                        int b = block[position] & 0xff;
+                        if ((b & 0x80) != 0) {
+                            fields.add(entry(readInt(7)));
+                        } else if ((b & 0x40) != 0) {
+                            String[] field = literal(6);
+                            add(field);
+                            fields.add(field);
+                        } else if ((b & 0x20) != 0) {
+                            int size = readInt(5);
+                            if (size > 4096) {
+                                throw new IOException("Invalid HPACK table size: " + size);
+                            }
+                            maxTableSize = size;
+                            evict();
+                        } else {
+                            fields.add(literal(4));
+                        }
+                    }
+                    this.block = null;
+                    return fields;
+                }
+
+                private String[] literal(int prefixBits) throws IOException {
+                    int index = readInt(prefixBits);
+                    String name = index == 0 ? readString() : entry(index)[0];
+                    return new String[]{name, readString()};
+                }
+
+                private String[] entry(int index) throws IOException {
+                    if (index > 0 && index <= STATIC_TABLE.length / 2) {
+                        return new String[]{STATIC_TABLE[(index - 1) * 2], STATIC_TABLE[(index - 1) * 2 + 1]};
+                    }
+                    int dynamic = index - STATIC_TABLE.length / 2 - 1;
+                    if (index <= 0 || dynamic >= table.size()) {
+                        throw new IOException("Invalid HPACK index: " + index);
+                    }
+                    return table.get(table.size() - 1 - dynamic);
+                }
+
+                private void add(String[] field) {
+                    int size = 32 + field[0].length() + field[1].length();
+                    if (size > maxTableSize) {
+                        table.clear();
+                        tableSize = 0;
+                        return;
+                    }
+                    table.add(field);
+                    tableSize += size;
+                    evict();
+                }
+
+                private void evict() {
+                    while (tableSize > maxTableSize) {
+                        String[] oldest = table.remove(0);
+                        tableSize -= 32 + oldest[0].length() + oldest[1].length();
+                    }
+                }
+
+                private int readInt(int prefixBits) throws IOException {
+                    int max = (1 << prefixBits) - 1;
+                    int value = block[position++] & max;
+                    if (value < max) {
+                        return value;
+                    }
+                    int shift = 0;
+                    int b;
+                    do {
+                        if (position >= block.length || shift > 21) {
+                            throw new IOException("Invalid HPACK integer");
+                        }
+                        b = block[position++] & 0xff;
+                        value += (b & 0x7f) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    return value;
+                }
+
+                private String readString() throws IOException {
+                    if (position >= block.length) {
+                        throw new IOException("Invalid HPACK string");
+                    }
+                    boolean huffman = (block[position] & 0x80) != 0;
+                    int length = readInt(7);
+                    if (length > block.length - position) {
+                        throw new IOException("Invalid HPACK string length: " + length);
+                    }
+                    String value = huffman ? huffmanDecode(block, position, length) : new String(block, position, length, StandardCharsets.ISO_8859_1);
+                    position += length;
+                    return value;
+                }
+            }
+        }
+    }
+
+    /** 请求头 */
+    public enum Header {
+        AUTHORIZATION("Authorization"),
+        PROXY_AUTHORIZATION("Proxy-Authorization"),
+        DATE("Date"),
+        CONNECTION("Connection"),
+        MIME_VERSION("MIME-Version"),
         TRAILER("Trailer"),
         TRANSFER_ENCODING("Transfer-Encoding"),
         UPGRADE("Upgrade"),
@@ -595,108 +5819,2655 @@ public class HttpClient {
         CONTENT_ENCODING("Content-Encoding"),
         CONTENT_DISPOSITION("Content-Disposition"),
         ETAG("ETag"),
+        LAST_MODIFIED("Last-Modified"),
+        IF_NONE_MATCH("If-None-Match"),
+        IF_MODIFIED_SINCE("If-Modified-Since"),
+        EXPIRES("Expires"),
+        AGE("Age"),
+        VARY("Vary"),
+        RETRY_AFTER("Retry-After"),
         LOCATION("Location");
 
-        private final String value;
-        private Header(String value) {
-            this.value = value;
+        private final String value;
+        private Header(String value) {
+            this.value = value;
+        }
+        public String getValue() {
+            return this.value;
+        }
+        public String toString() {
+            return this.getValue();
+        }
+
+    }
+
+    /** 请求回调 */
+    public interface OnHttpResult {
+        void onSuccess(String result);
+        void onError(String message);
+    }
+
+    /** 响应体流回调，需要 {@link ReadableByteChannel} 时可用 {@link Channels#newChannel(InputStream)} 转换 */
+    public interface OnHttpStream {
+        void onStream(InputStream body) throws IOException;
+    }
+
+    /** 为了方便使用 http 接口，通过 Entry 实体类进行参数传入 */
+    public static class Entry {
+        private String value;
+        private String key;
+        private Entry next;
+        /** 已知的最后一个节点，追加时从这里开始查找，避免每次遍历整个链表 */
+        private Entry tail = this;
+        /** 请求模板的请求头指向所属的模板，见 {@link PreparedRequest} */
+        private PreparedRequest template;
+        public boolean hasNext () {
+            return next != null;
+        }
+        public Entry last() {
+            Entry tmp = tail;
+            while (tmp.hasNext()) {
+                tmp = tmp.next;
+            }
+            tail = tmp;
+            return tmp;
+        }
+        public Entry setKeyValue(String key, String value) {
+            if (this.key== null || this.key.length() == 0) {
+                this.key = key;
+                this.value = value;
+            } else {
+                Entry entry = new Entry();
+                entry.key = key;
+                entry.value = value;
+                this.last().next = entry;
+                tail = entry;
+            }
+            return this;
+        }
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "value='" + value + '\'' +
+                    ", key='" + key + '\'' +
+                    ", next=" + next +
+                    '}';
+        }
+    }
+
+    /**
+     * 请求体，用于发送文件或二进制数据。请求体直接写入连接，不会转换成字符串，也不会在内存中复制。
+     * 长度已知的请求体使用固定长度发送，{@link #of(InputStream)} 创建的请求体使用分块（chunked）发送。
+     */
+    public static final class Body {
+        private final ByteBuffer buffer;
+        private final Path path;
+        private final InputStream inputStream;
+        private final long length;
+        /** 是否使用流式发送，表单参数等小请求体由 HttpURLConnection 缓存后发送，连接失效时可以重试 */
+        private final boolean streaming;
+        /** 是否在发送时 gzip 压缩 */
+        private final boolean gzip;
+
+        private Body(ByteBuffer buffer, Path path, InputStream inputStream, long length, boolean streaming) {
+            this(buffer, path, inputStream, length, streaming, false);
+        }
+
+        private Body(ByteBuffer buffer, Path path, InputStream inputStream, long length, boolean streaming, boolean gzip) {
+            this.buffer = buffer;
+            this.path = path;
+            this.inputStream = inputStream;
+            this.length = length;
+            this.streaming = streaming;
+            this.gzip = gzip;
+        }
+
+        /** 字节数组请求体，发送时不复制数组 */
+        public static Body of(byte[] bytes) {
+            return new Body(ByteBuffer.wrap(bytes), null, null, bytes.length, true);
+        }
+
+        /** ByteBuffer 请求体，发送 position 到 limit 之间的数据，不改变传入 buffer 的 position */
+        public static Body of(ByteBuffer buffer) {
+            ByteBuffer slice = buffer.slice();
+            return new Body(slice, null, null, slice.remaining(), true);
+        }
+
+        /**
+         * 文件请求体，发送时通过 {@link FileChannel#transferTo} 读取文件
+         * @throws IOException 读取文件大小失败
+         */
+        public static Body of(Path path) throws IOException {
+            return new Body(null, path, null, Files.size(path), true);
+        }
+
+        /** 长度未知的流请求体，使用分块发送，只能发送一次 */
+        public static Body of(InputStream inputStream) {
+            return new Body(null, null, inputStream, -1, true);
+        }
+
+        /** 编码后的表单参数请求体 */
+        private static Body form(byte[] bytes) {
+            return new Body(ByteBuffer.wrap(bytes), null, null, bytes.length, false);
+        }
+
+        /** 请求体长度，未知时返回 -1 */
+        public long length() {
+            return gzip ? -1 : length;
+        }
+
+        /** gzip 压缩的请求体，内存中的请求体直接压缩，文件和流在发送时压缩 */
+        private Body gzip() throws IOException {
+            if (buffer == null) {
+                return new Body(null, path, inputStream, length, true, true);
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) Math.min(Math.max(length / 4, 64), Integer.MAX_VALUE - 8));
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed, 8192)) {
+                writeTo(gzipOutputStream);
+            }
+            return new Body(ByteBuffer.wrap(compressed.toByteArray()), null, null, compressed.size(), streaming);
+        }
+
+        /** 写入阻塞的输出流 */
+        private void writeTo(OutputStream outputStream) throws IOException {
+            if (gzip) {
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream, 8192);
+                writeContent(gzipOutputStream);
+                gzipOutputStream.finish();
+            } else {
+                writeContent(outputStream);
+            }
+        }
+
+        private void writeContent(OutputStream outputStream) throws IOException {
+            if (buffer != null) {
+                if (buffer.hasArray()) {
+                    outputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    WritableByteChannel target = Channels.newChannel(outputStream);
+                    ByteBuffer source = buffer.duplicate();
+                    while (source.hasRemaining()) {
+                        target.write(source);
+                    }
+                }
+            } else if (path != null) {
+                try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    WritableByteChannel target = Channels.newChannel(outputStream);
+                    long position = 0;
+                    while (position < length) {
+                        long n = fileChannel.transferTo(position, length - position, target);
+                        if (n <= 0) {
+                            throw new EOFException("File is shorter than " + length + " bytes: " + path);
+                        }
+                        position += n;
+                    }
+                }
+            } else {
+                byte[] bytes = BufferPool.acquire(BufferPool.MIN_SIZE);
+                try {
+                    int len;
+                    while ((len = inputStream.read(bytes)) != -1) {
+                        outputStream.write(bytes, 0, len);
+                    }
+                } finally {
+                    BufferPool.release(bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * 完整的 http 响应，包含状态码、响应头、解压后的响应体和耗时。
+     * 响应体字符串在第一次调用 {@link #getBodyAsString()} 时按 Content-Type 中的 charset 解码，未指定时使用 UTF-8
+     */
+    public static final class Response {
+        private final int code;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        private final long startNanos;
+        private final long headersNanos;
+        private final long endNanos;
+        private String bodyString;
+
+        private Response(int code, Map<String, List<String>> headers, byte[] body, long startNanos, long headersNanos, long endNanos) {
+            Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            if (headers != null) {
+                for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                    // HttpURLConnection 把状态行放在 null 键下
+                    if (header.getKey() != null) {
+                        map.put(header.getKey(), header.getValue());
+                    }
+                }
+            }
+            this.code = code;
+            this.headers = Collections.unmodifiableMap(map);
+            this.body = body;
+            this.startNanos = startNanos;
+            this.headersNanos = headersNanos;
+            this.endNanos = endNanos;
+        }
+
+        /** 响应状态码 */
+        public int getCode() {
+            return code;
+        }
+
+        /** 状态码是否为 2xx */
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        /** 响应头，名称不区分大小写，有多个值时返回第一个，不存在时返回 null */
+        public String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        /** 所有响应头，名称不区分大小写 */
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        /** 解压后的响应体，错误状态码的响应体也会保留，返回的数组不会复制，不要修改 */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /** 按响应的字符集解码的响应体 */
+        public String getBodyAsString() {
+            String result = bodyString;
+            if (result == null) {
+                result = new String(body, getCharset());
+                bodyString = result;
+            }
+            return result;
+        }
+
+        /** Content-Type 中的 charset，未指定或不支持时返回 UTF-8 */
+        public Charset getCharset() {
+            String contentType = getHeader(Header.CONTENT_TYPE.getValue());
+            if (contentType != null) {
+                for (String parameter : contentType.split(";")) {
+                    int index = parameter.indexOf('=');
+                    if (index > 0 && "charset".equalsIgnoreCase(parameter.substring(0, index).trim())) {
+                        String name = parameter.substring(index + 1).trim();
+                        if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+                            name = name.substring(1, name.length() - 1);
+                        }
+                        try {
+                            return Charset.forName(name);
+                        } catch (IllegalArgumentException ignored) {
+                            // 不支持的字符集
+                        }
+                    }
+                }
+            }
+            return StandardCharsets.UTF_8;
+        }
+
+        /** 从发出请求到收到响应头的时间。异步传输层在响应体读取完成后才返回，此时包含读取响应体的时间 */
+        public long getHeadersTime(TimeUnit unit) {
+            return unit.convert(headersNanos - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /** 从发出请求到读完响应体的时间 */
+        public long getTotalTime(TimeUnit unit) {
+            return unit.convert(endNanos - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "Response{" +
+                    "code=" + code +
+                    ", headers=" + headers +
+                    ", bodyLength=" + body.length +
+                    '}';
+        }
+    }
+
+    /** 状态码不小于 300 时旧接口抛出的异常，可通过 {@link #getCode()} 区分错误，不需要解析异常信息 */
+    public static class HttpStatusException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int code;
+        private final transient Response response;
+
+        HttpStatusException(int code) {
+            this(code, null);
+        }
+
+        HttpStatusException(Response response) {
+            this(response.getCode(), response);
+        }
+
+        private HttpStatusException(int code, Response response) {
+            super("HTTP Request is not success, Response code is " + code, null, false, false);
+            this.code = code;
+            this.response = response;
+        }
+
+        /** 响应状态码 */
+        public int getCode() {
+            return code;
+        }
+
+        /** 完整的响应，流式请求时为 null */
+        public Response getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * 请求，未设置的超时使用全局设置。
+     * GET、DELETE、HEAD 的参数拼接在地址后，其他请求方式没有请求体时参数作为表单请求体发送
+     */
+    public static class Request {
+        private final String method;
+        private final String url;
+        private Entry params;
+        private Entry headers;
+        private Body body;
+        /** 超时的毫秒数，小于 0 表示使用全局设置 */
+        private int connectTimeout = -1;
+        private int readTimeout = -1;
+        private int timeout = -1;
+
+        public Request(String method, String url) {
+            if (method == null) {
+                throw new IllegalArgumentException("method is null");
+            }
+            this.method = method.toUpperCase();
+            this.url = url;
+        }
+
+        public Request setParams(Entry params) {
+            this.params = params;
+            return this;
+        }
+
+        public Request setHeaders(Entry headers) {
+            this.headers = headers;
+            return this;
+        }
+
+        /** 请求体，默认 Content-Type 为 application/octet-stream，可通过请求头覆盖 */
+        public Request setBody(Body body) {
+            this.body = body;
+            return this;
+        }
+
+        /** 连接超时，0 表示不限制 */
+        public Request setConnectTimeout(long timeout, TimeUnit unit) {
+            this.connectTimeout = Timeout.toMillis(timeout, unit);
+            return this;
+        }
+
+        /** 读取超时，即等待服务端数据的最长时间，0 表示不限制 */
+        public Request setReadTimeout(long timeout, TimeUnit unit) {
+            this.readTimeout = Timeout.toMillis(timeout, unit);
+            return this;
+        }
+
+        /** 总超时，包括在队列中等待、重定向和重试的时间，0 表示不限制 */
+        public Request setTimeout(long timeout, TimeUnit unit) {
+            this.timeout = Timeout.toMillis(timeout, unit);
+            return this;
+        }
+
+        private String url() {
+            return HttpBase.hasQuery(method) ? HttpBase.query(url, params) : url;
+        }
+
+        private Body body() {
+            if (body != null || HttpBase.hasQuery(method)) {
+                return body;
+            }
+            return HttpBase.form(params);
+        }
+
+        private String mediaType() {
+            return body != null ? "application/octet-stream" : "application/x-www-form-urlencoded";
+        }
+
+        /** 按请求和全局设置创建超时，总超时从此时开始计算 */
+        private Timeout timeout() {
+            return new Timeout(connectTimeout < 0 ? HttpBase.connectTimeout : connectTimeout,
+                    readTimeout < 0 ? HttpBase.readTimeout : readTimeout,
+                    timeout < 0 ? HttpBase.totalTimeout : timeout);
+        }
+    }
+
+    /**
+     * 请求模板，请求方式、地址和请求头固定，每次请求只提供参数或请求体。
+     * 地址在创建时检查，默认请求头和模板的请求头预先合并；传输层为 {@link NioTransport} 或 {@link Http2Transport} 时，
+     * 编码后的请求头在请求之间复用。开启了请求体压缩或需要附加缓存验证请求头时，按普通请求合并请求头
+     * <pre>
+     * PreparedRequest search = new PreparedRequest("GET", "https://example.com/search", new Entry().setKeyValue("Accept", "application/json"));
+     * Response response = search.execute(new Entry().setKeyValue("q", "java"));
+     * </pre>
+     */
+    public static final class PreparedRequest {
+        private static final String FORM = "application/x-www-form-urlencoded";
+        private static final String OCTET_STREAM = "application/octet-stream";
+
+        private final String method;
+        private final String url;
+        private final Entry headers;
+        /** 以表单和请求体发送时合并后的请求头，全局的压缩或连接设置变化后重新合并 */
+        private volatile PreparedHeaders formHeaders;
+        private volatile PreparedHeaders bodyHeaders;
+
+        /**
+         * @param headers 固定的请求头，创建时复制，之后修改不影响模板
+         */
+        public PreparedRequest(String method, String url, Entry headers) {
+            if (method == null) {
+                throw new IllegalArgumentException("method is null");
+            }
+            if (url == null || url.trim().isEmpty()) {
+                throw new IllegalArgumentException("url is empty");
+            }
+            try {
+                new URL(url);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("invalid url: " + url, e);
+            }
+            this.method = method.toUpperCase();
+            this.url = url;
+            Entry copy = new Entry();
+            for (Entry entry = headers; entry != null; entry = entry.next) {
+                if (entry.key != null && !entry.key.isEmpty()) {
+                    copy.setKeyValue(entry.key, entry.value);
+                }
+            }
+            copy.template = this;
+            this.headers = copy;
+            boolean compression = HttpBase.compression;
+            boolean keepAlive = HttpBase.keepAlive;
+            this.formHeaders = prepare(FORM, compression, keepAlive);
+            this.bodyHeaders = prepare(OCTET_STREAM, compression, keepAlive);
+        }
+
+        /** 按参数创建请求，可以再设置超时或交给 {@link HttpClient#executeBatch(Collection, BatchOptions)} */
+        public Request request(Entry params) {
+            return new Request(method, url).setHeaders(headers).setParams(params);
+        }
+
+        /** 按请求体创建请求 */
+        public Request request(Body body) {
+            return new Request(method, url).setHeaders(headers).setBody(body);
+        }
+
+        public Response execute(Entry params) throws IOException {
+            return HttpClient.execute(request(params));
+        }
+
+        public Response execute(Body body) throws IOException {
+            return HttpClient.execute(request(body));
+        }
+
+        public CompletableFuture<Response> executeAsync(Entry params) {
+            return HttpClient.executeAsync(request(params));
+        }
+
+        public CompletableFuture<Response> executeAsync(Body body) {
+            return HttpClient.executeAsync(request(body));
+        }
+
+        /**
+         * 合并后的请求头，开启请求体压缩时需要添加 Content-Encoding，返回 null
+         * @param threshold 本次请求使用的压缩阈值
+         */
+        private Map<String, String> headers(String mediaType, long threshold) {
+            if (threshold >= 0) {
+                return null;
+            }
+            boolean form = FORM.equals(mediaType);
+            if (!form && !OCTET_STREAM.equals(mediaType)) {
+                return null;
+            }
+            PreparedHeaders prepared = form ? formHeaders : bodyHeaders;
+            boolean compression = HttpBase.compression;
+            boolean keepAlive = HttpBase.keepAlive;
+            if (prepared.compression != compression || prepared.keepAlive != keepAlive) {
+                prepared = prepare(mediaType, compression, keepAlive);
+                if (form) {
+                    formHeaders = prepared;
+                } else {
+                    bodyHeaders = prepared;
+                }
+            }
+            return prepared;
+        }
+
+        private PreparedHeaders prepare(String mediaType, boolean compression, boolean keepAlive) {
+            return new PreparedHeaders(HttpBase.mergeHeaders(headers, mediaType, compression, keepAlive), compression, keepAlive);
+        }
+    }
+
+    /** 请求模板合并后的请求头，创建后不能修改，传输层在上面缓存编码结果 */
+    private static final class PreparedHeaders extends TreeMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient boolean compression;
+        private final transient boolean keepAlive;
+        private final transient boolean sealed;
+        /** NioTransport 编码的请求头 */
+        private transient volatile Encoded http1;
+        /** Http2Transport 编码的首部块 */
+        private transient volatile Encoded http2;
+
+        PreparedHeaders(Map<String, String> headers, boolean compression, boolean keepAlive) {
+            super(String.CASE_INSENSITIVE_ORDER);
+            putAll(headers);
+            this.compression = compression;
+            this.keepAlive = keepAlive;
+            this.sealed = true;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            if (sealed) {
+                throw new UnsupportedOperationException("prepared headers are read-only");
+            }
+            return super.put(key, value);
+        }
+
+        @Override
+        public String remove(Object key) {
+            throw new UnsupportedOperationException("prepared headers are read-only");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("prepared headers are read-only");
+        }
+
+        /** 编码结果，key 为编码时使用的请求方式和地址，不一致时重新编码 */
+        private static final class Encoded {
+            private final String key;
+            private final byte[] head;
+            private final byte[] tail;
+            private final boolean close;
+
+            Encoded(String key, byte[] head, byte[] tail, boolean close) {
+                this.key = key;
+                this.head = head;
+                this.tail = tail;
+                this.close = close;
+            }
+        }
+    }
+
+    /** 批量请求的选项，见 {@link #executeBatch(Collection, BatchOptions)} */
+    public static final class BatchOptions {
+        private int connections = 4;
+        private int maxInFlight = 8;
+        private boolean pipelining = true;
+        private boolean pipelineNonIdempotent;
+
+        /** 默认每个主机 4 个连接，幂等的请求使用流水线，每个连接上最多 8 个未返回响应的请求 */
+        public BatchOptions() {
+        }
+
+        /**
+         * @param connections 每个主机的连接数，其他传输层为同时执行的请求数
+         */
+        public BatchOptions setConnections(int connections) {
+            if (connections < 1) {
+                throw new IllegalArgumentException("connections must be at least 1: " + connections);
+            }
+            this.connections = connections;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight 使用流水线时每个连接上最多未返回响应的请求数
+         */
+        public BatchOptions setMaxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param pipelining 是否使用 HTTP/1.1 流水线。连接上的第一个响应表明服务端保持连接后才开始流水线发送，
+         *                   服务端关闭连接时未处理的请求在其他连接上重新发送
+         */
+        public BatchOptions setPipelining(boolean pipelining) {
+            this.pipelining = pipelining;
+            return this;
+        }
+
+        /**
+         * @param pipelineNonIdempotent 是否流水线发送 POST 等非幂等的请求，默认 false，非幂等的请求等连接空闲后单独发送。
+         *                              开启后连接关闭时已发送但未得到响应的非幂等请求失败，不会重新发送
+         */
+        public BatchOptions setPipelineNonIdempotent(boolean pipelineNonIdempotent) {
+            this.pipelineNonIdempotent = pipelineNonIdempotent;
+            return this;
+        }
+    }
+
+    /**
+     * 一次请求的超时设置，传输层据此设置连接和读取超时。
+     * 有总超时时，连接和读取超时不会超过剩余时间，总超时对重定向和重试同样有效
+     */
+    public static final class Timeout {
+        /** 不限制时使用的时长，相加后不会溢出 */
+        private static final long FOREVER = Long.MAX_VALUE >> 1;
+
+        private final int connectMillis;
+        private final int readMillis;
+        /** 总超时的截止时间，基于 {@link System#nanoTime()} */
+        private final long deadline;
+        private final boolean hasDeadline;
+        /** 是否已取消，以及取消时断开连接的操作，使用 this 加锁 */
+        private boolean cancelled;
+        private Runnable cancelAction;
+
+        private Timeout(int connectMillis, int readMillis, int totalMillis) {
+            this.connectMillis = connectMillis;
+            this.readMillis = readMillis;
+            this.hasDeadline = totalMillis > 0;
+            this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(totalMillis);
+        }
+
+        private Timeout(Timeout timeout) {
+            this.connectMillis = timeout.connectMillis;
+            this.readMillis = timeout.readMillis;
+            this.hasDeadline = timeout.hasDeadline;
+            this.deadline = timeout.deadline;
+        }
+
+        /** 截止时间相同、可以单独取消的副本 */
+        private Timeout copy() {
+            return new Timeout(this);
+        }
+
+        /** 取消请求，传输层注册了断开操作时立即断开连接 */
+        private void cancel() {
+            Runnable action;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                action = cancelAction;
+                cancelAction = null;
+            }
+            if (action != null) {
+                action.run();
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 注册取消时执行的操作，替换之前注册的操作，为 null 时清除
+         * @throws IOException 已经取消
+         */
+        private void onCancel(Runnable action) throws IOException {
+            synchronized (this) {
+                if (!cancelled) {
+                    cancelAction = action;
+                    return;
+                }
+            }
+            throw new IOException("Canceled");
+        }
+
+        private static int toMillis(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+            }
+            long millis = unit.toMillis(timeout);
+            if (millis == 0 && timeout > 0) {
+                return 1;
+            }
+            return (int) Math.min(millis, Integer.MAX_VALUE);
+        }
+
+        /**
+         * 连接超时的毫秒数，不超过总超时的剩余时间，0 表示不限制
+         * @throws SocketTimeoutException 已超过总超时
+         */
+        public int getConnectTimeout() throws SocketTimeoutException {
+            return limit(connectMillis);
+        }
+
+        /**
+         * 读取超时的毫秒数，不超过总超时的剩余时间，0 表示不限制
+         * @throws SocketTimeoutException 已超过总超时
+         */
+        public int getReadTimeout() throws SocketTimeoutException {
+            return limit(readMillis);
+        }
+
+        /** 是否设置了总超时 */
+        public boolean hasDeadline() {
+            return hasDeadline;
+        }
+
+        /** 总超时的剩余时间，没有总超时时返回 {@link Long#MAX_VALUE} */
+        public long remaining(TimeUnit unit) {
+            return hasDeadline ? unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : Long.MAX_VALUE;
+        }
+
+        /** 是否已超过总超时 */
+        public boolean isExpired() {
+            return hasDeadline && deadline - System.nanoTime() <= 0;
+        }
+
+        private int limit(int millis) throws SocketTimeoutException {
+            if (!hasDeadline) {
+                return millis;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Request timed out");
+            }
+            int remainingMillis = (int) Math.min(Math.max(TimeUnit.NANOSECONDS.toMillis(remaining), 1), Integer.MAX_VALUE);
+            return millis == 0 ? remainingMillis : Math.min(millis, remainingMillis);
+        }
+
+        /** 从 now 开始经过 millis 毫秒的截止时间，不晚于总超时，millis 为 0 表示不限制 */
+        private long deadline(long now, int millis) {
+            long phase = now + (millis == 0 ? FOREVER : TimeUnit.MILLISECONDS.toNanos(millis));
+            return hasDeadline && deadline - phase < 0 ? deadline : phase;
+        }
+
+        /** 超过总超时或取消后连接被断开导致的异常，转换为 {@link SocketTimeoutException} 或取消的异常 */
+        private IOException translate(IOException e) {
+            if (isCancelled()) {
+                IOException canceled = new IOException("Canceled");
+                canceled.initCause(e);
+                return canceled;
+            }
+            if (e instanceof SocketTimeoutException || !isExpired()) {
+                return e;
+            }
+            SocketTimeoutException timeout = new SocketTimeoutException("Request timed out");
+            timeout.initCause(e);
+            return timeout;
+        }
+    }
+
+    /**
+     * 失败重试策略，通过 {@link #setRetryPolicy(RetryPolicy)} 启用，设置后不要再修改。
+     * GET、HEAD、PUT、DELETE、OPTIONS 在连接或读取失败、返回可重试的状态码时重试；
+     * 其他请求方式只在连接被拒绝、返回 429 或 503 时重试，这些情况下服务端没有处理请求。
+     * 重试间隔为完全随机的指数退避，服务端返回 Retry-After 时不早于该时间；
+     * 每个主机的重试次数受令牌桶限制，避免服务端故障时重试放大请求量。
+     * 重试和等待都计入总超时，剩余时间不够时返回最后一次的结果。流请求体无法重发，不会重试
+     */
+    public static final class RetryPolicy {
+        private static final Set<String> IDEMPOTENT = new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS"));
+
+        private int maxAttempts = 3;
+        private long baseDelayMillis = 100;
+        private long maxDelayMillis = 10_000;
+        private Set<Integer> retryStatuses = new HashSet<>(Arrays.asList(429, 502, 503, 504));
+        /** 令牌桶容量和每个请求存入的令牌，以千分之一个令牌为单位 */
+        private long budgetCapacity = 10_000;
+        private long budgetDeposit = 100;
+        /** 每个主机的令牌数，以千分之一个令牌为单位 */
+        private final Map<String, AtomicLong> budgets = new ConcurrentHashMap<>();
+
+        /** 默认最多请求 3 次，退避 100 毫秒到 10 秒，重试 429、502、503、504，每个主机最多连续重试 10 次，每个请求恢复 0.1 次 */
+        public RetryPolicy() {
+        }
+
+        /**
+         * @param maxAttempts 最多请求的次数，包括第一次，1 表示不重试
+         */
+        public RetryPolicy setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 第 n 次重试前等待 0 到 min(maxDelay, baseDelay * 2^(n-1)) 之间的随机时间
+         * @param baseDelay 初始退避时间
+         * @param maxDelay  最长退避时间，Retry-After 超过该时间时不重试
+         * @param unit      时间单位
+         */
+        public RetryPolicy setBackoff(long baseDelay, long maxDelay, TimeUnit unit) {
+            if (baseDelay < 0 || maxDelay < baseDelay) {
+                throw new IllegalArgumentException("invalid backoff: " + baseDelay + ", " + maxDelay);
+            }
+            this.baseDelayMillis = unit.toMillis(baseDelay);
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * @param codes 重试的状态码，非幂等的请求只重试其中的 429 和 503
+         */
+        public RetryPolicy setRetryStatuses(int... codes) {
+            Set<Integer> statuses = new HashSet<>();
+            for (int code : codes) {
+                statuses.add(code);
+            }
+            this.retryStatuses = statuses;
+            return this;
+        }
+
+        /**
+         * 每个主机的重试令牌桶，每次重试消耗一个令牌，每个请求存入 ratio 个令牌，初始为满
+         * @param maxTokens 令牌桶容量，即连续失败时最多重试的次数
+         * @param ratio     每个请求存入的令牌数，长期来看重试不超过请求数的该比例
+         */
+        public RetryPolicy setRetryBudget(int maxTokens, double ratio) {
+            if (maxTokens < 0 || ratio < 0) {
+                throw new IllegalArgumentException("invalid retry budget: " + maxTokens + ", " + ratio);
+            }
+            this.budgetCapacity = maxTokens * 1000L;
+            this.budgetDeposit = Math.round(ratio * 1000);
+            budgets.clear();
+            return this;
+        }
+
+        /**
+         * 计算下一次重试前等待的毫秒数
+         * @param attempt   已经请求的次数
+         * @param response  响应，请求失败时为 null
+         * @param failure   请求失败的异常，有响应时为 null
+         * @return          等待的毫秒数，不重试时返回 -1
+         */
+        private long delay(String method, String url, Body body, int attempt, Response response, IOException failure, Timeout timeout) {
+            AtomicLong budget = budgets.computeIfAbsent(Dispatcher.hostOf(url), key -> new AtomicLong(budgetCapacity));
+            if (attempt == 1) {
+                budget.accumulateAndGet(budgetDeposit, (tokens, deposit) -> Math.min(tokens + deposit, budgetCapacity));
+            }
+            if (attempt >= maxAttempts || (body != null && body.inputStream != null) || timeout.isExpired() || timeout.isCancelled()) {
+                return -1;
+            }
+            boolean idempotent = IDEMPOTENT.contains(method.toUpperCase());
+            long retryAfter = 0;
+            if (failure != null) {
+                if (failure instanceof CircuitOpenException || failure instanceof RateLimitedException || (failure instanceof InterruptedIOException && !(failure instanceof SocketTimeoutException))) {
+                    return -1;
+                }
+                if (!idempotent && !(failure instanceof ConnectException)) {
+                    return -1;
+                }
+            } else {
+                int code = response.getCode();
+                if (!retryStatuses.contains(code) || (!idempotent && code != 429 && code != 503)) {
+                    return -1;
+                }
+                retryAfter = retryAfter(response.getHeader(Header.RETRY_AFTER.getValue()));
+                if (retryAfter > maxDelayMillis) {
+                    return -1;
+                }
+            }
+            long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+            long delay = Math.max(ThreadLocalRandom.current().nextLong(ceiling + 1), retryAfter);
+            if (timeout.hasDeadline() && delay >= timeout.remaining(TimeUnit.MILLISECONDS)) {
+                return -1;
+            }
+            long tokens;
+            do {
+                tokens = budget.get();
+                if (tokens < 1000) {
+                    return -1;
+                }
+            } while (!budget.compareAndSet(tokens, tokens - 1000));
+            return delay;
+        }
+
+        /** Retry-After 的毫秒数，可以是秒数或 HTTP 日期，没有或无效时返回 0 */
+        private static long retryAfter(String value) {
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(value.trim()), 0));
+            } catch (NumberFormatException e) {
+                long date = ResponseCache.parseDate(value);
+                return date < 0 ? 0 : Math.max(date - System.currentTimeMillis(), 0);
+            }
+        }
+    }
+
+    /**
+     * GET 请求的对冲策略，通过 {@link #setHedgePolicy(HedgePolicy)} 启用，设置后不要再修改。
+     * 请求在延迟时间内没有得到响应时，向同一主机或备用主机再发出一个相同的请求，先得到的响应作为结果，其余请求被取消。
+     * 延迟时间取该主机最近请求耗时的百分位数，样本不足时使用固定延迟；对冲请求数受令牌桶限制，避免服务端变慢时成倍增加请求
+     */
+    public static final class HedgePolicy {
+        /** 计算百分位数至少需要的样本数 */
+        private static final int MIN_SAMPLES = 20;
+        /** 每个主机统计的样本数，超过后重新统计 */
+        private static final int WINDOW = 10_000;
+
+        private long delayNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        private double percentile = 95;
+        private int maxHedges = 1;
+        private long budgetCapacity = 10_000;
+        private long budgetDeposit = 100;
+        /** 对冲请求的令牌，以千分之一个令牌为单位 */
+        private final AtomicLong budget = new AtomicLong(budgetCapacity);
+        private final Map<String, String[]> alternates = new HashMap<>();
+        private final Map<String, HostLatency> latencies = new ConcurrentHashMap<>();
+
+        /** 默认取最近请求耗时的 95 百分位，样本不足时延迟 50 毫秒，最多对冲 1 次，对冲请求不超过请求数的 10% */
+        public HedgePolicy() {
+        }
+
+        /**
+         * @param delay 样本不足时的固定延迟，也是百分位延迟的下限
+         * @param unit  时间单位
+         */
+        public HedgePolicy setDelay(long delay, TimeUnit unit) {
+            this.delayNanos = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * @param percentile 延迟取最近请求耗时的百分位，例如 95，0 表示总是使用固定延迟
+         */
+        public HedgePolicy setPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+            }
+            this.percentile = percentile;
+            return this;
+        }
+
+        /**
+         * @param maxHedges 每个请求最多额外发出的请求数，每次间隔一个延迟时间
+         */
+        public HedgePolicy setMaxHedges(int maxHedges) {
+            if (maxHedges < 1) {
+                throw new IllegalArgumentException("maxHedges must be at least 1: " + maxHedges);
+            }
+            this.maxHedges = maxHedges;
+            return this;
+        }
+
+        /**
+         * 对冲请求的令牌桶，每个对冲请求消耗一个令牌，每个请求存入 ratio 个令牌，初始为满
+         * @param maxTokens 令牌桶容量
+         * @param ratio     每个请求存入的令牌数，长期来看对冲请求不超过请求数的该比例
+         */
+        public HedgePolicy setHedgeBudget(int maxTokens, double ratio) {
+            if (maxTokens < 0 || ratio < 0) {
+                throw new IllegalArgumentException("invalid hedge budget: " + maxTokens + ", " + ratio);
+            }
+            this.budgetCapacity = maxTokens * 1000L;
+            this.budgetDeposit = Math.round(ratio * 1000);
+            budget.set(budgetCapacity);
+            return this;
+        }
+
+        /**
+         * 设置备用主机，对冲请求依次发往备用主机，没有设置时发往原主机
+         * @param host          主机，格式为 host:port
+         * @param alternates    提供相同服务的备用主机，格式为 host:port
+         */
+        public HedgePolicy setAlternateHosts(String host, String... alternates) {
+            this.alternates.put(host, alternates.clone());
+            return this;
+        }
+
+        /** 第 hedge 个对冲请求的地址，第 0 个为原请求 */
+        private String url(String url, String host, int hedge) {
+            String[] hosts = alternates.get(host);
+            if (hedge == 0 || hosts == null || hosts.length == 0) {
+                return url;
+            }
+            String alternate = hosts[(hedge - 1) % hosts.length];
+            try {
+                URL original = new URL(url);
+                int colon = alternate.lastIndexOf(':');
+                String alternateHost = colon < 0 ? alternate : alternate.substring(0, colon);
+                int port = colon < 0 ? -1 : Integer.parseInt(alternate.substring(colon + 1));
+                return new URL(original.getProtocol(), alternateHost, port, original.getFile()).toString();
+            } catch (MalformedURLException | NumberFormatException e) {
+                return url;
+            }
+        }
+
+        /** 发出对冲请求前等待的纳秒数 */
+        private long delay(String host) {
+            HostLatency latency = latencies.get(host);
+            return latency == null || percentile == 0 ? delayNanos : Math.max(delayNanos, latency.delayNanos);
+        }
+
+        /** 每个请求开始时存入令牌 */
+        private void deposit() {
+            budget.accumulateAndGet(budgetDeposit, (tokens, deposit) -> Math.min(tokens + deposit, budgetCapacity));
+        }
+
+        /** 取一个令牌，没有时不发出对冲请求 */
+        private boolean tryAcquire() {
+            long tokens;
+            do {
+                tokens = budget.get();
+                if (tokens < 1000) {
+                    return false;
+                }
+            } while (!budget.compareAndSet(tokens, tokens - 1000));
+            return true;
+        }
+
+        /** 记录得到响应的耗时 */
+        private void record(String host, long nanos) {
+            if (percentile > 0) {
+                latencies.computeIfAbsent(host, key -> new HostLatency()).record(nanos);
+            }
+        }
+
+        /** 一个主机最近的请求耗时 */
+        private final class HostLatency {
+            private volatile LatencyHistogram histogram = new LatencyHistogram();
+            private final AtomicInteger samples = new AtomicInteger();
+            private volatile long delayNanos = HedgePolicy.this.delayNanos;
+
+            void record(long nanos) {
+                LatencyHistogram current = histogram;
+                current.record(nanos);
+                int count = samples.incrementAndGet();
+                if (count >= MIN_SAMPLES && count % 16 == 0) {
+                    // 每 16 个样本重新计算延迟，避免每次请求都复制直方图
+                    delayNanos = TimeUnit.MICROSECONDS.toNanos(current.snapshot().getPercentile(percentile, TimeUnit.MICROSECONDS));
+                }
+                if (count >= WINDOW && samples.compareAndSet(count, MIN_SAMPLES)) {
+                    histogram = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按主机（host:port）统计的熔断器，通过 {@link #setCircuitBreaker(CircuitBreaker)} 启用，设置后不要再修改。
+     * 最近的请求中失败（连接或读取失败、5xx）或慢请求的比例超过阈值时打开，打开期间该主机的请求直接以
+     * {@link CircuitOpenException} 失败，不占用连接和线程；经过打开时间后放行少量试探请求，全部成功则关闭，否则重新打开
+     */
+    public static final class CircuitBreaker {
+        /** 熔断器状态 */
+        public enum State {
+            CLOSED, OPEN, HALF_OPEN
+        }
+
+        private int windowSize = 20;
+        private int minimumCalls = 10;
+        private double failureRateThreshold = 50;
+        private long slowCallNanos = 0;
+        private double slowCallRateThreshold = 100;
+        private long openNanos = TimeUnit.SECONDS.toNanos(10);
+        private int halfOpenCalls = 3;
+        private final Map<String, HostCircuit> circuits = new ConcurrentHashMap<>();
+
+        /** 默认统计最近 20 个请求，至少 10 个请求且失败超过 50% 时打开 10 秒，之后放行 3 个试探请求 */
+        public CircuitBreaker() {
+        }
+
+        /**
+         * @param windowSize    统计最近的请求数
+         * @param minimumCalls  请求数达到该值后才计算比例
+         */
+        public CircuitBreaker setWindow(int windowSize, int minimumCalls) {
+            if (windowSize <= 0 || minimumCalls <= 0 || minimumCalls > windowSize) {
+                throw new IllegalArgumentException("invalid window: " + windowSize + ", " + minimumCalls);
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            circuits.clear();
+            return this;
+        }
+
+        /**
+         * @param percent 打开熔断器的失败比例，0 到 100
+         */
+        public CircuitBreaker setFailureRateThreshold(double percent) {
+            this.failureRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * 耗时超过 duration 的请求记为慢请求，慢请求比例达到 percent 时打开熔断器，默认不统计慢请求
+         * @param duration  慢请求的耗时
+         * @param unit      时间单位
+         * @param percent   打开熔断器的慢请求比例，0 到 100
+         */
+        public CircuitBreaker setSlowCallThreshold(long duration, TimeUnit unit, double percent) {
+            this.slowCallNanos = unit.toNanos(duration);
+            this.slowCallRateThreshold = percent;
+            return this;
+        }
+
+        /**
+         * @param duration  打开后拒绝请求的时间
+         * @param unit      时间单位
+         */
+        public CircuitBreaker setOpenDuration(long duration, TimeUnit unit) {
+            this.openNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param calls 半开状态放行的试探请求数
+         */
+        public CircuitBreaker setHalfOpenCalls(int calls) {
+            if (calls <= 0) {
+                throw new IllegalArgumentException("halfOpenCalls must be positive: " + calls);
+            }
+            this.halfOpenCalls = calls;
+            return this;
+        }
+
+        /**
+         * @param host 主机，格式为 host:port
+         * @return     熔断器状态，没有请求过的主机为 {@link State#CLOSED}
+         */
+        public State getState(String host) {
+            HostCircuit circuit = circuits.get(host);
+            return circuit == null ? State.CLOSED : circuit.state();
+        }
+
+        /** 请求前调用，熔断器打开时抛出异常 */
+        private void acquire(String host) throws CircuitOpenException {
+            if (!circuits.computeIfAbsent(host, key -> new HostCircuit(windowSize)).acquire(System.nanoTime())) {
+                throw new CircuitOpenException(host);
+            }
+        }
+
+        /** 请求结束后记录结果 */
+        private void record(String host, boolean failed, long nanos) {
+            HostCircuit circuit = circuits.get(host);
+            if (circuit != null) {
+                circuit.record(failed, slowCallNanos > 0 && nanos > slowCallNanos, System.nanoTime());
+            }
+        }
+
+        /** 请求被取消或因调用方的错误（例如非法的请求头）结束，没有主机的结果时调用，归还半开状态的试探名额 */
+        private void release(String host) {
+            HostCircuit circuit = circuits.get(host);
+            if (circuit != null) {
+                circuit.release();
+            }
+        }
+
+        /** 一个主机的熔断器，使用 this 加锁 */
+        private final class HostCircuit {
+            private State state = State.CLOSED;
+            /** 最近的请求结果，环形数组 */
+            private final boolean[] failures;
+            private final boolean[] slowCalls;
+            private int next;
+            private int count;
+            private int failureCount;
+            private int slowCount;
+            /** 打开或进入半开状态的时间 */
+            private long since;
+            private int trials;
+            private int successes;
+
+            HostCircuit(int windowSize) {
+                this.failures = new boolean[windowSize];
+                this.slowCalls = new boolean[windowSize];
+            }
+
+            synchronized State state() {
+                return state;
+            }
+
+            synchronized boolean acquire(long now) {
+                if (state == State.OPEN) {
+                    if (now - since < openNanos) {
+                        return false;
+                    }
+                    halfOpen(now);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (trials >= halfOpenCalls) {
+                        // 试探请求没有结果（例如被取消）时，超过打开时间后重新放行
+                        if (now - since < openNanos) {
+                            return false;
+                        }
+                        halfOpen(now);
+                    }
+                    trials++;
+                }
+                return true;
+            }
+
+            synchronized void record(boolean failed, boolean slow, long now) {
+                if (state == State.HALF_OPEN) {
+                    if (failed || slow) {
+                        open(now);
+                    } else if (++successes >= halfOpenCalls) {
+                        close();
+                    }
+                    return;
+                }
+                if (state == State.OPEN) {
+                    // 打开前发出的请求
+                    return;
+                }
+                if (count == failures.length) {
+                    failureCount -= failures[next] ? 1 : 0;
+                    slowCount -= slowCalls[next] ? 1 : 0;
+                } else {
+                    count++;
+                }
+                failures[next] = failed;
+                slowCalls[next] = slow;
+                failureCount += failed ? 1 : 0;
+                slowCount += slow ? 1 : 0;
+                next = (next + 1) % failures.length;
+                if (count >= minimumCalls && (failureCount * 100.0 >= failureRateThreshold * count
+                        || (slowCallNanos > 0 && slowCount * 100.0 >= slowCallRateThreshold * count))) {
+                    open(now);
+                }
+            }
+
+            synchronized void release() {
+                if (state == State.HALF_OPEN && trials > successes) {
+                    trials--;
+                }
+            }
+
+            private void open(long now) {
+                state = State.OPEN;
+                since = now;
+            }
+
+            private void halfOpen(long now) {
+                state = State.HALF_OPEN;
+                since = now;
+                trials = 0;
+                successes = 0;
+            }
+
+            private void close() {
+                state = State.CLOSED;
+                Arrays.fill(failures, false);
+                Arrays.fill(slowCalls, false);
+                next = 0;
+                count = 0;
+                failureCount = 0;
+                slowCount = 0;
+            }
+        }
+    }
+
+    /** 熔断器打开时请求直接失败的异常，不会重试 */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String host;
+
+        public CircuitOpenException(String host) {
+            super("Circuit breaker is open for " + host);
+            this.host = host;
+        }
+
+        /** 熔断的主机，格式为 host:port */
+        public String getHost() {
+            return host;
+        }
+
+        /** 快速失败，不记录调用栈 */
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 按主机自适应调整异步请求并发数的限流器（AIMD），通过 {@link #setAdaptiveLimiter(AdaptiveLimiter)} 启用，设置后不要再修改。
+     * 请求成功且并发数接近上限时上限加 1；请求失败（连接或读取失败、超时、429、5xx）或耗时超过阈值时上限乘以退避系数。
+     * 超出上限的请求在该主机的队列中等待，不占用线程，慢的主机不会占满线程池
+     */
+    public static final class AdaptiveLimiter {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private long latencyThresholdNanos = 0;
+        /** 每个主机当前的并发上限，使用 this 加锁 */
+        private final Map<String, double[]> limits = new HashMap<>();
+
+        /** 默认初始并发数 20，范围 1 到 200，失败时乘以 0.9，不按耗时调整 */
+        public AdaptiveLimiter() {
+        }
+
+        /**
+         * @param initialLimit  初始并发数
+         * @param minLimit      最小并发数
+         * @param maxLimit      最大并发数
+         */
+        public AdaptiveLimiter setLimits(int initialLimit, int minLimit, int maxLimit) {
+            if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+                throw new IllegalArgumentException("invalid limits: " + initialLimit + ", " + minLimit + ", " + maxLimit);
+            }
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * @param ratio 请求失败时并发数乘以的系数，0 到 1 之间
+         */
+        public AdaptiveLimiter setBackoffRatio(double ratio) {
+            if (ratio <= 0 || ratio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be between 0 and 1: " + ratio);
+            }
+            this.backoffRatio = ratio;
+            return this;
+        }
+
+        /**
+         * 耗时超过该值的请求按失败处理，降低并发数，0 表示不按耗时调整
+         * @param threshold 耗时阈值
+         * @param unit      时间单位
+         */
+        public AdaptiveLimiter setLatencyThreshold(long threshold, TimeUnit unit) {
+            this.latencyThresholdNanos = unit.toNanos(threshold);
+            return this;
+        }
+
+        /**
+         * @param host 主机，格式为 host:port
+         * @return     该主机当前的并发上限
+         */
+        public synchronized int getLimit(String host) {
+            double[] limit = limits.get(host);
+            return limit == null ? initialLimit : (int) limit[0];
+        }
+
+        /** 请求结束后调整上限，inflight 为包括该请求在内正在执行的请求数 */
+        private synchronized void record(String host, boolean failed, long nanos, int inflight) {
+            double[] limit = limits.computeIfAbsent(host, key -> new double[]{initialLimit});
+            if (failed || (latencyThresholdNanos > 0 && nanos > latencyThresholdNanos)) {
+                limit[0] = Math.max(minLimit, limit[0] * backoffRatio);
+            } else if (inflight * 2 >= limit[0]) {
+                limit[0] = Math.min(maxLimit, limit[0] + 1);
+            }
+        }
+    }
+
+    /**
+     * 按主机和地址前缀限制请求速率的限流器（GCRA，效果与令牌桶相同），通过 {@link #setRateLimiter(RateLimiter)} 启用。
+     * 每条规则限制每秒请求数和允许连续发出的请求数，一个请求同时受所在主机的规则和匹配的最长地址前缀的规则限制。
+     * 重试和对冲发出的每个请求都占用配额，缓存新鲜的 GET 请求不占用
+     */
+    public static final class RateLimiter {
+        private long maxWaitNanos = Long.MAX_VALUE;
+        /** 以下字段使用 this 加锁 */
+        private Bucket defaultLimit;
+        private final Map<String, Bucket> hosts = new HashMap<>();
+        /** 使用默认规则的主机，每个主机单独计算 */
+        private final Map<String, Bucket> defaultHosts = new HashMap<>();
+        /** 按前缀从长到短排列 */
+        private final List<Bucket> routes = new ArrayList<>();
+
+        /** 默认没有规则，不限制请求；超出速率时一直等待，受请求的总超时限制 */
+        public RateLimiter() {
+        }
+
+        /**
+         * 没有单独设置规则的主机使用的规则，每个主机分别计算
+         * @param permitsPerSecond  每秒请求数
+         * @param burst             允许连续发出的请求数
+         */
+        public synchronized RateLimiter setDefaultHostLimit(double permitsPerSecond, int burst) {
+            defaultLimit = new Bucket("*", permitsPerSecond, burst);
+            defaultHosts.clear();
+            return this;
+        }
+
+        /**
+         * @param host              主机，格式为 host:port
+         * @param permitsPerSecond  每秒请求数
+         * @param burst             允许连续发出的请求数
+         */
+        public synchronized RateLimiter setHostLimit(String host, double permitsPerSecond, int burst) {
+            hosts.put(host, new Bucket(host, permitsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * 以 urlPrefix 开头的请求地址（包含参数）使用的规则，多个前缀匹配时使用最长的
+         * @param urlPrefix         地址前缀，例如 "https://api.example.com/v1/search"
+         * @param permitsPerSecond  每秒请求数
+         * @param burst             允许连续发出的请求数
+         */
+        public synchronized RateLimiter setRouteLimit(String urlPrefix, double permitsPerSecond, int burst) {
+            routes.removeIf(route -> route.key.equals(urlPrefix));
+            routes.add(new Bucket(urlPrefix, permitsPerSecond, burst));
+            routes.sort((a, b) -> b.key.length() - a.key.length());
+            return this;
+        }
+
+        /**
+         * 超出速率的请求最长等待的时间，需要等待更久的请求直接失败，设置为 0 时不等待
+         * @param duration  最长等待时间
+         * @param unit      时间单位
+         */
+        public RateLimiter setMaxWait(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("maxWait must not be negative: " + duration);
+            }
+            this.maxWaitNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * 预约一次请求，返回需要等待的纳秒数
+         * @throws RateLimitedException 需要等待的时间超过最长等待时间或请求剩余的总超时，此时不占用配额
+         */
+        private long reserve(String url, Timeout timeout) throws RateLimitedException {
+            long maxWait = timeout.hasDeadline() ? Math.min(maxWaitNanos, Math.max(0, timeout.remaining(TimeUnit.NANOSECONDS))) : maxWaitNanos;
+            String host = Dispatcher.hostOf(url);
+            synchronized (this) {
+                long now = System.nanoTime();
+                Bucket hostLimit = hosts.get(host);
+                if (hostLimit == null && defaultLimit != null) {
+                    hostLimit = defaultHosts.computeIfAbsent(host, key -> new Bucket(key, defaultLimit));
+                }
+                Bucket routeLimit = null;
+                for (Bucket route : routes) {
+                    if (url.startsWith(route.key)) {
+                        routeLimit = route;
+                        break;
+                    }
+                }
+                // 所有规则都允许发出的最早时间
+                long at = now;
+                Bucket limiting = null;
+                if (hostLimit != null && hostLimit.earliest() - at > 0) {
+                    at = hostLimit.earliest();
+                    limiting = hostLimit;
+                }
+                if (routeLimit != null && routeLimit.earliest() - at > 0) {
+                    at = routeLimit.earliest();
+                    limiting = routeLimit;
+                }
+                if (limiting != null && at - now > maxWait) {
+                    throw new RateLimitedException(limiting.key);
+                }
+                if (hostLimit != null) {
+                    hostLimit.take(at);
+                }
+                if (routeLimit != null) {
+                    routeLimit.take(at);
+                }
+                return at - now;
+            }
+        }
+
+        /** 一条规则的状态，使用限流器加锁 */
+        private static final class Bucket {
+            private final String key;
+            /** 两个请求之间的纳秒数 */
+            private final long interval;
+            /** 可以提前发出的纳秒数，连续发出 burst 个请求 */
+            private final long tolerance;
+            /** 下一个请求的理论发出时间 */
+            private long tat = System.nanoTime();
+
+            Bucket(String key, double permitsPerSecond, int burst) {
+                if (!(permitsPerSecond > 0) || burst <= 0) {
+                    throw new IllegalArgumentException("invalid limit: " + permitsPerSecond + ", " + burst);
+                }
+                this.key = key;
+                this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+                this.tolerance = interval * (burst - 1);
+            }
+
+            Bucket(String key, Bucket limit) {
+                this.key = key;
+                this.interval = limit.interval;
+                this.tolerance = limit.tolerance;
+            }
+
+            long earliest() {
+                return tat - tolerance;
+            }
+
+            void take(long at) {
+                tat = (tat - at > 0 ? tat : at) + interval;
+            }
+        }
+    }
+
+    /** 等待限流器的时间超过最长等待时间或请求剩余的总超时时请求直接失败的异常，不会重试 */
+    public static class RateLimitedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final String limit;
+
+        public RateLimitedException(String limit) {
+            super("Rate limit exceeded for " + limit);
+            this.limit = limit;
+        }
+
+        /** 超出速率的规则，主机（host:port）或地址前缀 */
+        public String getLimit() {
+            return limit;
+        }
+
+        /** 快速失败，不记录调用栈 */
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * 域名解析和地址选择，通过 {@link #setDnsResolver(DnsResolver)} 启用。解析结果按设置的时间缓存，
+     * 一个域名解析出多个地址时，建立新连接按轮询或在途请求最少选择地址，连接失败时换用其他地址，最多再尝试两次；
+     * 连续连接失败的地址在一段时间内不再使用，之后恢复使用，再次连接失败时立即重新排除。所有地址都被排除时仍按轮询使用全部地址
+     */
+    public static final class DnsResolver {
+        /** 地址选择方式 */
+        public enum Balance {
+            /** 依次使用每个地址 */
+            ROUND_ROBIN,
+            /** 使用在途请求最少的地址，相同时轮询 */
+            LEAST_IN_FLIGHT
+        }
+
+        /** 查询域名的所有地址，可以替换为测试或服务发现使用的实现 */
+        public interface Lookup {
+            List<InetAddress> lookup(String host) throws UnknownHostException;
+        }
+
+        private Lookup lookup = host -> Arrays.asList(InetAddress.getAllByName(host));
+        private long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+        private Balance balance = Balance.ROUND_ROBIN;
+        private int ejectFailures = 3;
+        private long ejectNanos = TimeUnit.SECONDS.toNanos(30);
+        private final Map<String, HostAddresses> hosts = new ConcurrentHashMap<>();
+
+        /** 默认使用 JVM 的域名解析，结果缓存 60 秒，轮询选择地址，连续 3 次连接失败的地址排除 30 秒 */
+        public DnsResolver() {
+        }
+
+        /**
+         * @param lookup 域名查询
+         */
+        public DnsResolver setLookup(Lookup lookup) {
+            if (lookup == null) {
+                throw new NullPointerException("lookup");
+            }
+            this.lookup = lookup;
+            hosts.clear();
+            return this;
+        }
+
+        /**
+         * @param ttl   解析结果缓存的时间，过期后下一次建立连接时重新查询
+         * @param unit  时间单位
+         */
+        public DnsResolver setTtl(long ttl, TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * @param balance 地址选择方式
+         */
+        public DnsResolver setBalance(Balance balance) {
+            if (balance == null) {
+                throw new NullPointerException("balance");
+            }
+            this.balance = balance;
+            return this;
+        }
+
+        /**
+         * @param failures  连续连接失败多少次后排除地址
+         * @param duration  排除的时间
+         * @param unit      时间单位
+         */
+        public DnsResolver setEjection(int failures, long duration, TimeUnit unit) {
+            if (failures <= 0) {
+                throw new IllegalArgumentException("failures must be positive: " + failures);
+            }
+            this.ejectFailures = failures;
+            this.ejectNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * @param host 域名
+         * @return     缓存的地址，过期时重新查询
+         * @throws UnknownHostException 查询失败或没有地址
+         */
+        public List<InetAddress> resolve(String host) throws UnknownHostException {
+            Endpoint[] endpoints = addresses(host).endpoints;
+            List<InetAddress> addresses = new ArrayList<>(endpoints.length);
+            for (Endpoint endpoint : endpoints) {
+                addresses.add(endpoint.address);
+            }
+            return addresses;
+        }
+
+        /**
+         * @param address 地址
+         * @return        地址当前是否因为连续连接失败被排除
+         */
+        public boolean isEjected(InetAddress address) {
+            long now = System.nanoTime();
+            for (HostAddresses entry : hosts.values()) {
+                for (Endpoint endpoint : entry.endpoints) {
+                    if (endpoint.address.equals(address) && endpoint.isEjected(now)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /** 清除缓存的解析结果 */
+        public void clear() {
+            hosts.clear();
+        }
+
+        /** 选择建立新连接使用的地址 */
+        private Endpoint select(String host) throws UnknownHostException {
+            HostAddresses entry = addresses(host);
+            Endpoint endpoint = entry.select(balance, null, System.nanoTime());
+            return endpoint != null ? endpoint : entry.endpoints[Math.floorMod(entry.next.getAndIncrement(), entry.endpoints.length)];
+        }
+
+        /** 连接失败后换用的地址，只使用缓存的结果，没有其他未排除的地址时返回 null */
+        private Endpoint next(String host, Endpoint failed) {
+            HostAddresses entry = hosts.get(host);
+            return entry == null ? null : entry.select(balance, failed, System.nanoTime());
+        }
+
+        /** 缓存过期时重新查询，仍然存在的地址保留在途请求数和连接失败次数 */
+        private HostAddresses addresses(String host) throws UnknownHostException {
+            long now = System.nanoTime();
+            HostAddresses current = hosts.get(host);
+            if (current != null && now - current.expires < 0) {
+                return current;
+            }
+            List<InetAddress> addresses = lookup.lookup(host);
+            if (addresses == null || addresses.isEmpty()) {
+                throw new UnknownHostException(host);
+            }
+            Endpoint[] endpoints = new Endpoint[addresses.size()];
+            for (int i = 0; i < endpoints.length; i++) {
+                InetAddress address = addresses.get(i);
+                Endpoint endpoint = null;
+                if (current != null) {
+                    for (Endpoint previous : current.endpoints) {
+                        if (previous.address.equals(address)) {
+                            endpoint = previous;
+                            break;
+                        }
+                    }
+                }
+                endpoints[i] = endpoint != null ? endpoint : new Endpoint(address);
+            }
+            HostAddresses updated = new HostAddresses(endpoints, now + ttlNanos);
+            hosts.put(host, updated);
+            return updated;
+        }
+
+        /** 一个域名缓存的地址 */
+        private static final class HostAddresses {
+            private final Endpoint[] endpoints;
+            private final long expires;
+            private final AtomicInteger next = new AtomicInteger();
+
+            HostAddresses(Endpoint[] endpoints, long expires) {
+                this.endpoints = endpoints;
+                this.expires = expires;
+            }
+
+            /** 在 excluded 以外未被排除的地址中选择，没有时返回 null */
+            Endpoint select(Balance balance, Endpoint excluded, long now) {
+                Endpoint[] candidates = new Endpoint[endpoints.length];
+                int count = 0;
+                for (Endpoint endpoint : endpoints) {
+                    if (endpoint != excluded && !endpoint.isEjected(now)) {
+                        candidates[count++] = endpoint;
+                    }
+                }
+                if (count == 0) {
+                    return null;
+                }
+                int start = Math.floorMod(next.getAndIncrement(), count);
+                Endpoint selected = candidates[start];
+                if (balance == Balance.LEAST_IN_FLIGHT) {
+                    for (int i = 1; i < count; i++) {
+                        Endpoint endpoint = candidates[(start + i) % count];
+                        if (endpoint.inFlight.get() < selected.inFlight.get()) {
+                            selected = endpoint;
+                        }
+                    }
+                }
+                return selected;
+            }
+        }
+
+        /** 一个地址的在途请求数和连接状态 */
+        private final class Endpoint {
+            private final InetAddress address;
+            private final AtomicInteger inFlight = new AtomicInteger();
+            /** 以下字段使用 this 加锁 */
+            private int failures;
+            private long ejectedUntil;
+            private boolean ejected;
+
+            Endpoint(InetAddress address) {
+                this.address = address;
+            }
+
+            void acquire() {
+                inFlight.incrementAndGet();
+            }
+
+            void release() {
+                inFlight.decrementAndGet();
+            }
+
+            synchronized void connected() {
+                failures = 0;
+                ejected = false;
+            }
+
+            synchronized void connectFailed() {
+                if (++failures >= ejectFailures) {
+                    ejected = true;
+                    ejectedUntil = System.nanoTime() + ejectNanos;
+                }
+            }
+
+            synchronized boolean isEjected(long now) {
+                return ejected && now - ejectedUntil < 0;
+            }
+        }
+    }
+
+    /**
+     * GET 响应的内存缓存。按 Cache-Control、Expires 判断响应是否新鲜，新鲜时不发出请求；
+     * 过期后带上 If-None-Match、If-Modified-Since 验证，服务端返回 304 时使用缓存的响应体。
+     * 只缓存 200 响应，按最近最少使用淘汰，条目数和响应体总大小都有上限。
+     * 缓存由所有调用方共用，按共享缓存处理：不缓存 private 响应，带 Authorization 的请求只使用
+     * 带有 public、s-maxage 或 must-revalidate 的响应，s-maxage 优先于 max-age。
+     * 通过 {@link #setCache(ResponseCache)} 启用，流式请求和下载不使用缓存
+     */
+    public static final class ResponseCache {
+        /** 每个条目除响应体外估算的大小 */
+        private static final int ENTRY_OVERHEAD = 512;
+
+        private final int maxEntries;
+        private final long maxBytes;
+        /** 按访问顺序排列，使用 this 加锁 */
+        private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder validations = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        /**
+         * @param maxEntries    最多缓存的响应数
+         * @param maxBytes      缓存的响应体总字节数上限
+         */
+        public ResponseCache(int maxEntries, long maxBytes) {
+            if (maxEntries <= 0 || maxBytes <= 0) {
+                throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+            }
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        /** 缓存新鲜，没有发出请求的次数 */
+        public long getHitCount() {
+            return hits.sum();
+        }
+
+        /** 服务端返回 304，使用缓存响应体的次数 */
+        public long getValidatedCount() {
+            return validations.sum();
+        }
+
+        /** 可以使用缓存的请求中，从服务端读取了完整响应的次数 */
+        public long getMissCount() {
+            return misses.sum();
+        }
+
+        /** 缓存的响应数 */
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        /** 缓存占用的估算字节数 */
+        public synchronized long getSize() {
+            return size;
+        }
+
+        /** 移除某个地址的缓存，地址包含查询参数 */
+        public synchronized void remove(String url) {
+            CacheEntry entry = entries.remove(url);
+            if (entry != null) {
+                size -= entry.size;
+            }
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+
+        /** 与请求匹配的缓存条目，请求不能使用缓存或没有缓存时返回 null */
+        private CacheEntry lookup(String method, String url, Entry headers) {
+            if (!"GET".equalsIgnoreCase(method) || bypass(headers)) {
+                return null;
+            }
+            CacheEntry entry;
+            synchronized (this) {
+                entry = entries.get(url);
+            }
+            return entry != null && entry.matches(headers) && (entry.shared || !authorized(headers)) ? entry : null;
+        }
+
+        /** 缓存新鲜且请求没有要求验证时返回缓存的响应，否则返回 null */
+        private Response hit(CacheEntry entry, Entry headers, long start) {
+            if (!isFresh(entry, headers)) {
+                return null;
+            }
+            hits.increment();
+            long now = System.nanoTime();
+            return new Response(entry.code, entry.headers, entry.body, start, now, now);
+        }
+
+        /** 缓存新鲜且请求没有要求验证 */
+        private static boolean isFresh(CacheEntry entry, Entry headers) {
+            if (entry == null || !entry.isFresh(System.nanoTime())) {
+                return false;
+            }
+            String cacheControl = header(headers, Header.CACHE_CONTROL.getValue());
+            return cacheControl != null ? directive(cacheControl, "no-cache") == null && !"0".equals(directive(cacheControl, "max-age"))
+                    : !containsToken(header(headers, Header.PRAGMA.getValue()), "no-cache");
+        }
+
+        /** 有验证器时在请求头后加上条件请求头 */
+        private static Entry conditional(CacheEntry entry, Entry headers) {
+            if (entry == null || (entry.etag == null && entry.lastModified == null)) {
+                return headers;
+            }
+            Entry conditional = new Entry();
+            for (Entry header = headers; header != null; header = header.next) {
+                if (header.key != null && !header.key.isEmpty()) {
+                    conditional.setKeyValue(header.key, header.value);
+                }
+            }
+            if (entry.etag != null) {
+                conditional.setKeyValue(Header.IF_NONE_MATCH.getValue(), entry.etag);
+            }
+            if (entry.lastModified != null) {
+                conditional.setKeyValue(Header.IF_MODIFIED_SINCE.getValue(), entry.lastModified);
+            }
+            return conditional;
+        }
+
+        /**
+         * 按响应更新缓存。304 时更新缓存的响应头并返回缓存的响应；
+         * 其他请求方式成功时移除该地址的缓存
+         */
+        private Response update(String method, String url, Entry headers, CacheEntry stale, Response response) {
+            if (!"GET".equalsIgnoreCase(method)) {
+                if (response.getCode() < 400) {
+                    remove(url);
+                }
+                return response;
+            }
+            if (bypass(headers)) {
+                return response;
+            }
+            long now = System.nanoTime();
+            if (response.getCode() == 304 && stale != null) {
+                validations.increment();
+                CacheEntry refreshed = stale.refresh(response.getHeaders(), now);
+                if (refreshed.storable(headers)) {
+                    put(url, refreshed);
+                } else {
+                    remove(url);
+                }
+                return new Response(refreshed.code, refreshed.headers, refreshed.body, response.startNanos, response.headersNanos, response.endNanos);
+            }
+            misses.increment();
+            if (response.getCode() == 200) {
+                CacheEntry entry = CacheEntry.of(response.getCode(), response.getHeaders(), response.getBody(), headers, now);
+                if (entry != null) {
+                    put(url, entry);
+                } else if (!authorized(headers)) {
+                    // 带认证信息的响应只属于该用户，不影响其他调用方缓存的响应
+                    remove(url);
+                }
+            }
+            return response;
+        }
+
+        private synchronized void put(String url, CacheEntry entry) {
+            CacheEntry old = entries.remove(url);
+            if (old != null) {
+                size -= old.size;
+            }
+            if (entry.size > maxBytes) {
+                return;
+            }
+            entries.put(url, entry);
+            size += entry.size;
+            Iterator<CacheEntry> eldest = entries.values().iterator();
+            while ((size > maxBytes || entries.size() > maxEntries) && eldest.hasNext()) {
+                size -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+
+        /** 请求要求不使用缓存，或调用方自己发送了条件请求 */
+        private static boolean bypass(Entry headers) {
+            String cacheControl = header(headers, Header.CACHE_CONTROL.getValue());
+            return (cacheControl != null && directive(cacheControl, "no-store") != null)
+                    || header(headers, Header.IF_NONE_MATCH.getValue()) != null
+                    || header(headers, Header.IF_MODIFIED_SINCE.getValue()) != null;
+        }
+
+        /** 请求带有认证信息，响应可能只属于该用户 */
+        private static boolean authorized(Entry headers) {
+            return header(headers, Header.AUTHORIZATION.getValue()) != null;
+        }
+
+        /** 请求头的值，名称不区分大小写，不存在时返回 null */
+        private static String header(Entry headers, String name) {
+            for (Entry header = headers; header != null; header = header.next) {
+                if (name.equalsIgnoreCase(header.key)) {
+                    return header.value;
+                }
+            }
+            return null;
+        }
+
+        /** Cache-Control 中指令的值，没有值时返回空字符串，不存在时返回 null */
+        private static String directive(String cacheControl, String name) {
+            for (String part : cacheControl.split(",")) {
+                int index = part.indexOf('=');
+                String key = (index < 0 ? part : part.substring(0, index)).trim();
+                if (key.equalsIgnoreCase(name)) {
+                    String value = index < 0 ? "" : part.substring(index + 1).trim();
+                    return value.length() > 1 && value.startsWith("\"") && value.endsWith("\"") ? value.substring(1, value.length() - 1) : value;
+                }
+            }
+            return null;
+        }
+
+        private static boolean containsToken(String value, String token) {
+            if (value != null) {
+                for (String part : value.split(",")) {
+                    if (part.trim().equalsIgnoreCase(token)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
         }
-        public String getValue() {
-            return this.value;
+
+        /** HTTP 日期的毫秒数，无效时返回 -1 */
+        private static long parseDate(String value) {
+            if (value == null) {
+                return -1;
+            }
+            try {
+                return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return -1;
+            }
         }
-        public String toString() {
-            return this.getValue();
+
+        /** 一个缓存的响应，创建后不再修改 */
+        private static final class CacheEntry {
+            private final int code;
+            private final Map<String, List<String>> headers;
+            private final byte[] body;
+            /** 响应头 Vary 列出的请求头在缓存时的值 */
+            private final Map<String, String> vary;
+            private final String etag;
+            private final String lastModified;
+            /** 不再新鲜的时间，基于 {@link System#nanoTime()} */
+            private final long expiresAt;
+            /** 响应允许共享缓存使用，可以返回给带 Authorization 的请求 */
+            private final boolean shared;
+            private final long size;
+
+            private CacheEntry(int code, Map<String, List<String>> headers, byte[] body, Map<String, String> vary, long expiresAt) {
+                this.code = code;
+                this.headers = headers;
+                this.body = body;
+                this.vary = vary;
+                String cacheControl = first(headers, Header.CACHE_CONTROL.getValue());
+                this.shared = cacheControl != null && (directive(cacheControl, "public") != null
+                        || directive(cacheControl, "s-maxage") != null || directive(cacheControl, "must-revalidate") != null);
+                this.etag = first(headers, Header.ETAG.getValue());
+                this.lastModified = first(headers, Header.LAST_MODIFIED.getValue());
+                this.expiresAt = expiresAt;
+                this.size = body.length + ENTRY_OVERHEAD;
+            }
+
+            /** 按响应头创建缓存条目，响应不能缓存时返回 null */
+            static CacheEntry of(int code, Map<String, List<String>> headers, byte[] body, Entry requestHeaders, long now) {
+                String cacheControl = first(headers, Header.CACHE_CONTROL.getValue());
+                if (cacheControl != null && directive(cacheControl, "no-store") != null) {
+                    return null;
+                }
+                Map<String, String> vary = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                List<String> varyHeaders = headers.get(Header.VARY.getValue());
+                if (varyHeaders != null) {
+                    for (String value : varyHeaders) {
+                        for (String name : value.split(",")) {
+                            name = name.trim();
+                            if ("*".equals(name)) {
+                                return null;
+                            }
+                            if (!name.isEmpty()) {
+                                vary.put(name, header(requestHeaders, name));
+                            }
+                        }
+                    }
+                }
+                long freshness = freshness(headers, cacheControl);
+                if (freshness <= 0 && first(headers, Header.ETAG.getValue()) == null && first(headers, Header.LAST_MODIFIED.getValue()) == null) {
+                    return null;
+                }
+                CacheEntry entry = new CacheEntry(code, headers, body, vary, now + TimeUnit.MILLISECONDS.toNanos(Math.max(freshness, 0)));
+                return entry.storable(requestHeaders) ? entry : null;
+            }
+
+            /** 按 304 响应的响应头更新，响应体不变 */
+            CacheEntry refresh(Map<String, List<String>> update, long now) {
+                Map<String, List<String>> merged = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                merged.putAll(headers);
+                for (Map.Entry<String, List<String>> header : update.entrySet()) {
+                    String name = header.getKey();
+                    if (name != null && !name.equalsIgnoreCase(Header.CONTENT_LENGTH.getValue())
+                            && !name.equalsIgnoreCase(Header.CONTENT_ENCODING.getValue())
+                            && !name.equalsIgnoreCase(Header.TRANSFER_ENCODING.getValue())
+                            && !name.equalsIgnoreCase(Header.CONNECTION.getValue())) {
+                        merged.put(name, header.getValue());
+                    }
+                }
+                long freshness = freshness(merged, first(merged, Header.CACHE_CONTROL.getValue()));
+                return new CacheEntry(code, Collections.unmodifiableMap(merged), body, vary, now + TimeUnit.MILLISECONDS.toNanos(Math.max(freshness, 0)));
+            }
+
+            boolean isFresh(long now) {
+                return now - expiresAt < 0;
+            }
+
+            /** 共享缓存可以保存该响应：不是 private，请求带 Authorization 时响应明确允许共享 */
+            boolean storable(Entry requestHeaders) {
+                String cacheControl = first(headers, Header.CACHE_CONTROL.getValue());
+                if (cacheControl != null && (directive(cacheControl, "no-store") != null || directive(cacheControl, "private") != null)) {
+                    return false;
+                }
+                return shared || !authorized(requestHeaders);
+            }
+
+            boolean matches(Entry requestHeaders) {
+                for (Map.Entry<String, String> header : vary.entrySet()) {
+                    String value = header(requestHeaders, header.getKey());
+                    if (value == null ? header.getValue() != null : !value.equals(header.getValue())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            /** 剩余的新鲜时间毫秒数：s-maxage 优先，其次是 max-age、Expires 减去 Date，再减去 Age */
+            private static long freshness(Map<String, List<String>> headers, String cacheControl) {
+                long lifetime;
+                if (cacheControl != null && directive(cacheControl, "no-cache") != null) {
+                    return 0;
+                } else if (cacheControl == null && containsToken(first(headers, Header.PRAGMA.getValue()), "no-cache")) {
+                    return 0;
+                }
+                String maxAge = cacheControl == null ? null : directive(cacheControl, "s-maxage");
+                if (maxAge == null && cacheControl != null) {
+                    maxAge = directive(cacheControl, "max-age");
+                }
+                if (maxAge != null) {
+                    try {
+                        lifetime = TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge));
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                } else if (first(headers, Header.EXPIRES.getValue()) != null) {
+                    long expires = parseDate(first(headers, Header.EXPIRES.getValue()));
+                    long date = parseDate(first(headers, Header.DATE.getValue()));
+                    lifetime = expires < 0 ? 0 : expires - (date < 0 ? System.currentTimeMillis() : date);
+                } else {
+                    return 0;
+                }
+                String age = first(headers, Header.AGE.getValue());
+                if (age != null) {
+                    try {
+                        lifetime -= TimeUnit.SECONDS.toMillis(Long.parseLong(age.trim()));
+                    } catch (NumberFormatException ignored) {
+                        // 忽略无效的 Age
+                    }
+                }
+                return lifetime;
+            }
+
+            private static String first(Map<String, List<String>> headers, String name) {
+                List<String> values = headers.get(name);
+                return values == null || values.isEmpty() ? null : values.get(0);
+            }
+        }
+    }
+
+    /**
+     * 请求事件监听器，通过 {@link #addEventListener(EventListener)} 注册，用于统计耗时或链路追踪。
+     * 回调在发出请求的线程、线程池线程或传输层的 IO 线程中执行，不要进行耗时操作；
+     * 回调抛出的异常会被打印并忽略。同一个请求的回调按发生顺序执行，可以读取 {@link CallMetrics} 中已记录的数据
+     */
+    public interface EventListener {
+        /** 开始执行请求，异步请求在离开队列时回调 */
+        default void callStart(CallMetrics call) {
+        }
+
+        /** 开始解析域名，只有 {@link NioTransport} 单独记录 */
+        default void dnsStart(CallMetrics call) {
+        }
+
+        default void dnsEnd(CallMetrics call) {
+        }
+
+        /** 开始建立连接，复用连接时不回调 */
+        default void connectStart(CallMetrics call) {
+        }
+
+        default void connectEnd(CallMetrics call) {
+        }
+
+        /** 请求头和请求体已全部写出 */
+        default void requestEnd(CallMetrics call) {
         }
 
+        /** 收到响应的第一个字节，{@link UrlConnectionTransport} 为收到响应头 */
+        default void responseStart(CallMetrics call) {
+        }
+
+        /** 响应体读取完成 */
+        default void callEnd(CallMetrics call) {
+        }
+
+        /** 请求失败，包括在队列中超时或被拒绝 */
+        default void callFailed(CallMetrics call, Throwable e) {
+        }
     }
 
-    /** 请求回调 */
-    public interface OnHttpResult {
-        void onSuccess(String result);
-        void onError(String message);
+    /**
+     * 一次请求各阶段的时间点、收发字节数和状态码。未经过的阶段耗时返回 -1，
+     * 例如复用连接时没有连接耗时，同步请求没有排队耗时
+     */
+    public static final class CallMetrics {
+        private static final long UNSET = Long.MIN_VALUE;
+        /** 没有监听器且未开启直方图时使用，不记录任何数据 */
+        private static final CallMetrics NONE = new CallMetrics(null, null, new EventListener[0], false);
+
+        private final String method;
+        private final String url;
+        private final EventListener[] listeners;
+        private final boolean enabled;
+        private long queued = UNSET;
+        private long start = UNSET;
+        private long dnsStart = UNSET;
+        private long dnsEnd = UNSET;
+        private long connectStart = UNSET;
+        private long connectEnd = UNSET;
+        private long requestEnd = UNSET;
+        private long responseStart = UNSET;
+        private long end = UNSET;
+        private boolean reused;
+        private int code = -1;
+        private long bytesSent;
+        private long bytesReceived;
+
+        private CallMetrics(String method, String url, EventListener[] listeners, boolean enabled) {
+            this.method = method;
+            this.url = url;
+            this.listeners = listeners;
+            this.enabled = enabled;
+        }
+
+        /** 需要记录时创建，否则返回不记录的实例 */
+        private static CallMetrics create(String method, String url) {
+            EventListener[] listeners = HttpBase.listeners;
+            if (listeners.length == 0 && !HttpBase.latencyHistogram) {
+                return NONE;
+            }
+            return new CallMetrics(method.toUpperCase(), url, listeners, true);
+        }
+
+        private void queued() {
+            if (enabled) {
+                queued = System.nanoTime();
+            }
+        }
+
+        private void callStart() {
+            if (enabled) {
+                start = System.nanoTime();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.callStart(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void dnsStart() {
+            if (enabled) {
+                dnsStart = System.nanoTime();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.dnsStart(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void dnsEnd() {
+            if (enabled) {
+                dnsEnd = System.nanoTime();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.dnsEnd(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void connectStart() {
+            if (enabled) {
+                connectStart = System.nanoTime();
+                connectEnd = UNSET;
+                reused = false;
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.connectStart(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void connectEnd() {
+            if (enabled) {
+                connectEnd = System.nanoTime();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.connectEnd(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /** 复用空闲连接，没有连接阶段 */
+        private void connectionReused() {
+            if (enabled) {
+                reused = true;
+                connectStart = UNSET;
+                connectEnd = UNSET;
+            }
+        }
+
+        private void requestEnd(long bytes) {
+            if (enabled) {
+                requestEnd = System.nanoTime();
+                bytesSent = bytes;
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.requestEnd(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void responseStart() {
+            if (enabled && responseStart == UNSET) {
+                responseStart = System.nanoTime();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.responseStart(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void received(long bytes) {
+            if (enabled) {
+                bytesReceived += bytes;
+            }
+        }
+
+        private void callEnd(int code) {
+            if (enabled) {
+                end = System.nanoTime();
+                this.code = code;
+                record();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.callEnd(this);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        private void callFailed(Throwable e) {
+            if (enabled) {
+                end = System.nanoTime();
+                record();
+                for (EventListener listener : listeners) {
+                    try {
+                        listener.callFailed(this, e);
+                    } catch (RuntimeException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            }
+        }
+
+        /** 按请求方式和主机记录总耗时，失败的请求同样记录 */
+        private void record() {
+            if (HttpBase.latencyHistogram && start != UNSET) {
+                HttpBase.LATENCY.computeIfAbsent(method + " " + getHost(), key -> new LatencyHistogram()).record(end - start);
+            }
+        }
+
+        private static long between(long from, long to, TimeUnit unit) {
+            return from == UNSET || to == UNSET ? -1 : unit.convert(to - from, TimeUnit.NANOSECONDS);
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /** 地址中的 host[:port] */
+        public String getHost() {
+            int from = url.indexOf("://");
+            from = from < 0 ? 0 : from + 3;
+            int to = from;
+            while (to < url.length() && "/?#".indexOf(url.charAt(to)) < 0) {
+                to++;
+            }
+            int at = url.lastIndexOf('@', to - 1);
+            return url.substring(Math.max(from, at + 1), to);
+        }
+
+        /** 响应状态码，请求失败时为 -1 */
+        public int getCode() {
+            return code;
+        }
+
+        /** 写出的字节数，{@link NioTransport} 包括请求头，{@link UrlConnectionTransport} 只有请求体 */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /** 读取的响应体字节数，压缩的响应为解压前的字节数 */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /** 是否复用了空闲连接，{@link UrlConnectionTransport} 无法区分，总是返回 false */
+        public boolean isConnectionReused() {
+            return reused;
+        }
+
+        /** 异步请求在线程池队列中等待的时间 */
+        public long getQueueTime(TimeUnit unit) {
+            return between(queued, start, unit);
+        }
+
+        public long getDnsTime(TimeUnit unit) {
+            return between(dnsStart, dnsEnd, unit);
+        }
+
+        /** 建立连接的时间，{@link UrlConnectionTransport} 包括解析域名的时间 */
+        public long getConnectTime(TimeUnit unit) {
+            return between(connectStart, connectEnd, unit);
+        }
+
+        /** 从开始执行到收到第一个字节的时间 */
+        public long getTimeToFirstByte(TimeUnit unit) {
+            return between(start, responseStart, unit);
+        }
+
+        /** 从收到第一个字节到读完响应体的时间 */
+        public long getBodyTime(TimeUnit unit) {
+            return between(responseStart, end, unit);
+        }
+
+        /** 从开始执行到读完响应体或失败的时间，不包括排队时间 */
+        public long getTotalTime(TimeUnit unit) {
+            return between(start, end, unit);
+        }
+
+        @Override
+        public String toString() {
+            return "CallMetrics{" +
+                    method + " " + url +
+                    ", code=" + code +
+                    ", queue=" + getQueueTime(TimeUnit.MICROSECONDS) + "us" +
+                    ", dns=" + getDnsTime(TimeUnit.MICROSECONDS) + "us" +
+                    ", connect=" + getConnectTime(TimeUnit.MICROSECONDS) + "us" +
+                    ", ttfb=" + getTimeToFirstByte(TimeUnit.MICROSECONDS) + "us" +
+                    ", body=" + getBodyTime(TimeUnit.MICROSECONDS) + "us" +
+                    ", total=" + getTotalTime(TimeUnit.MICROSECONDS) + "us" +
+                    ", sent=" + bytesSent +
+                    ", received=" + bytesReceived +
+                    ", reused=" + reused +
+                    '}';
+        }
     }
 
-    /** 为了方便使用 http 接口，通过 Entry 实体类进行参数传入 */
-    public static class Entry {
-        private String value;
-        private String key;
-        private Entry next;
-        public boolean hasNext () {
-            return next != null;
+    /**
+     * 无锁的延迟直方图，按 2 的幂分段，每段 16 个桶，相对误差约 6%，记录 1 微秒到约 12 天的耗时。
+     * 多个线程同时记录时不加锁，快照是各个桶计数的近似一致的副本
+     */
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKETS = 16;
+        private static final int MAX_SHIFT = 36;
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_SHIFT + 2) * SUB_BUCKETS);
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            counts.incrementAndGet(index(micros));
+            sum.add(micros);
+            long current;
+            while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+                // 重试
+            }
         }
-        public Entry last() {
-            Entry tmp = this;
-            while (tmp.hasNext()) {
-                tmp = tmp.next;
+
+        private static int index(long micros) {
+            if (micros < SUB_BUCKETS) {
+                return (int) micros;
             }
-            return tmp;
+            int shift = Math.min(63 - Long.numberOfLeadingZeros(micros) - 4, MAX_SHIFT);
+            int sub = (int) Math.min(micros >>> shift, 2 * SUB_BUCKETS - 1);
+            return shift * SUB_BUCKETS + sub;
         }
-        public Entry setKeyValue(String key, String value) {
-            if (this.key== null || this.key.length() == 0) {
-                this.key = key;
-                this.value = value;
-            } else {
-                this.last().next = new Entry().setKeyValue(key, value);
+
+        /** 桶内最大的值 */
+        private static long upperBound(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
             }
-            return this;
+            int shift = index / SUB_BUCKETS - 1;
+            long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        LatencySnapshot snapshot() {
+            long[] values = new long[counts.length()];
+            long count = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counts.get(i);
+                count += values[i];
+            }
+            return new LatencySnapshot(values, count, sum.sum(), max.get());
+        }
+    }
+
+    /** 某个请求方式和主机的延迟分布快照，通过 {@link #getLatencySnapshots()} 获取 */
+    public static final class LatencySnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sumMicros;
+        private final long maxMicros;
+
+        private LatencySnapshot(long[] counts, long count, long sumMicros, long maxMicros) {
+            this.counts = counts;
+            this.count = count;
+            this.sumMicros = sumMicros;
+            this.maxMicros = maxMicros;
+        }
+
+        /** 记录的请求数 */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMean(TimeUnit unit) {
+            return count == 0 ? 0 : unit.convert(sumMicros / count, TimeUnit.MICROSECONDS);
+        }
+
+        public long getMax(TimeUnit unit) {
+            return unit.convert(maxMicros, TimeUnit.MICROSECONDS);
+        }
+
+        /**
+         * 百分位数，返回所在桶的上界，不超过最大值
+         * @param percentile 百分位，例如 99 或 99.9
+         * @param unit       时间单位
+         */
+        public long getPercentile(double percentile, TimeUnit unit) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return unit.convert(Math.min(LatencyHistogram.upperBound(i), maxMicros), TimeUnit.MICROSECONDS);
+                }
+            }
+            return getMax(unit);
         }
+
         @Override
         public String toString() {
-            return "Entry{" +
-                    "value='" + value + '\'' +
-                    ", key='" + key + '\'' +
-                    ", next=" + next +
+            return "LatencySnapshot{" +
+                    "count=" + count +
+                    ", mean=" + getMean(TimeUnit.MICROSECONDS) + "us" +
+                    ", p50=" + getPercentile(50, TimeUnit.MICROSECONDS) + "us" +
+                    ", p99=" + getPercentile(99, TimeUnit.MICROSECONDS) + "us" +
+                    ", p999=" + getPercentile(99.9, TimeUnit.MICROSECONDS) + "us" +
+                    ", max=" + maxMicros + "us" +
                     '}';
         }
     }
 
     /** 这些方法不对外提供，请求参数，请求头传入，使用 map 进行传入 */
+    private static Entry mapToEntry(Map<String, String> map) {
+        if (map == null) {
+            return null;
+        }
+        Entry entry = new Entry();
+        for (Map.Entry<String, String> item : map.entrySet()) {
+            entry.setKeyValue(item.getKey(), item.getValue());
+        }
+        return entry;
+    }
     private static String delete(String url, Map<String, String> params) {
-        return HttpBase.delete(url, params);
+        return HttpBase.delete(url, mapToEntry(params));
     }
     private static String delete(String url, Map<String, String> params, Map<String, String> headers) {
-        return HttpBase.delete(url, params, headers);
+        return HttpBase.delete(url, mapToEntry(params), mapToEntry(headers));
     }
     private static void delete(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-        HttpBase.deleteAsyn(url, params, onHttpResult);
+        HttpBase.deleteAsyn(url, mapToEntry(params), onHttpResult);
     }
     private static void delete(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-        HttpBase.deleteAsyn(url, params, headers, onHttpResult);
+        HttpBase.deleteAsyn(url, mapToEntry(params), mapToEntry(headers), onHttpResult);
     }
     private static String get(String url, Map<String, String> params) {
-        return HttpBase.get(url, params);
+        return HttpBase.get(url, mapToEntry(params));
     }
     private static String get(String url, Map<String, String> params, Map<String, String> headers) {
-        return HttpBase.get(url, params, headers);
+        return HttpBase.get(url, mapToEntry(params), mapToEntry(headers));
     }
     private static void get(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-        HttpBase.getAsyn(url, params, onHttpResult);
+        HttpBase.getAsyn(url, mapToEntry(params), onHttpResult);
     }
     private static void get(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-        HttpBase.getAsyn(url, params, headers, onHttpResult);
+        HttpBase.getAsyn(url, mapToEntry(params), mapToEntry(headers), onHttpResult);
     }
     private static String post(String url, Map<String, String> params) {
-        return HttpBase.post(url, params);
+        return HttpBase.post(url, mapToEntry(params));
     }
     private static String post(String url, Map<String, String> params, Map<String, String> headers) {
-        return HttpBase.post(url, params, headers);
+        return HttpBase.post(url, mapToEntry(params), mapToEntry(headers));
     }
     private static void post(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-        HttpBase.postAsyn(url, params, onHttpResult);
+        HttpBase.postAsyn(url, mapToEntry(params), onHttpResult);
     }
     private static void post(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-        HttpBase.postAsyn(url, params, headers, onHttpResult);
+        HttpBase.postAsyn(url, mapToEntry(params), mapToEntry(headers), onHttpResult);
     }
     private static String put(String url, Map<String, String> params) {
-        return HttpBase.put(url, params);
+        return HttpBase.put(url, mapToEntry(params));
     }
     private static String put(String url, Map<String, String> params, Map<String, String> headers) {
-        return HttpBase.put(url, params, headers);
+        return HttpBase.put(url, mapToEntry(params), mapToEntry(headers));
     }
     private static void put(String url, Map<String, String> params, OnHttpResult onHttpResult) {
-        HttpBase.putAsyn(url, params, onHttpResult);
+        HttpBase.putAsyn(url, mapToEntry(params), onHttpResult);
     }
     private static void put(String url, Map<String, String> params, Map<String, String> headers, OnHttpResult onHttpResult) {
-        HttpBase.putAsyn(url, params, headers, onHttpResult);
+        HttpBase.putAsyn(url, mapToEntry(params), mapToEntry(headers), onHttpResult);
     }
 }
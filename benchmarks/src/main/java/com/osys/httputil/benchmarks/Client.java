@@ -0,0 +1,120 @@
+package com.osys.httputil.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+
+/**
+ * HttpClient 在默认包中，带包名的类不能直接引用，JMH 又不支持默认包中的基准测试，
+ * 因此通过 static final 的 MethodHandle 调用，JIT 编译后与直接调用的开销相同。
+ */
+final class Client {
+    private static final MethodHandle NEW_ENTRY;
+    private static final MethodHandle SET_KEY_VALUE;
+    private static final MethodHandle QUERY;
+    private static final MethodHandle FORM;
+    private static final MethodHandle GET;
+    private static final MethodHandle POST;
+    private static final MethodHandle GET_ASYNC;
+    private static final MethodHandle POST_ASYNC;
+    private static final MethodHandle SET_TRANSPORT;
+    private static final MethodHandle NEW_URL_CONNECTION_TRANSPORT;
+    private static final MethodHandle NEW_NIO_TRANSPORT;
+    private static final MethodHandle SET_EXECUTOR;
+    private static final MethodHandle SET_EXECUTOR_SERVICE;
+    private static final MethodHandle USE_VIRTUAL_THREADS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> client = Class.forName("HttpClient");
+            Class<?> entry = Class.forName("HttpClient$Entry");
+            Class<?> transport = Class.forName("HttpClient$Transport");
+            Class<?> base = Class.forName("HttpClient$HttpBase");
+            NEW_ENTRY = generic(lookup.findConstructor(entry, MethodType.methodType(void.class)));
+            SET_KEY_VALUE = generic(lookup.findVirtual(entry, "setKeyValue", MethodType.methodType(entry, String.class, String.class)));
+            // 参数编码是私有方法，直接测量编码本身
+            Method query = base.getDeclaredMethod("query", String.class, entry);
+            query.setAccessible(true);
+            QUERY = generic(lookup.unreflect(query));
+            Method form = base.getDeclaredMethod("form", entry);
+            form.setAccessible(true);
+            FORM = generic(lookup.unreflect(form));
+            GET = generic(lookup.findStatic(client, "get", MethodType.methodType(String.class, String.class, entry)));
+            POST = generic(lookup.findStatic(client, "post", MethodType.methodType(String.class, String.class, entry)));
+            GET_ASYNC = generic(lookup.findStatic(client, "getAsync", MethodType.methodType(CompletableFuture.class, String.class, entry)));
+            POST_ASYNC = generic(lookup.findStatic(client, "postAsync", MethodType.methodType(CompletableFuture.class, String.class, entry)));
+            SET_TRANSPORT = generic(lookup.findStatic(client, "setTransport", MethodType.methodType(void.class, transport)));
+            NEW_URL_CONNECTION_TRANSPORT = generic(lookup.findConstructor(Class.forName("HttpClient$UrlConnectionTransport"), MethodType.methodType(void.class)));
+            NEW_NIO_TRANSPORT = generic(lookup.findConstructor(Class.forName("HttpClient$NioTransport"), MethodType.methodType(void.class)));
+            SET_EXECUTOR = generic(lookup.findStatic(client, "setExecutor", MethodType.methodType(void.class, int.class, int.class, RejectedExecutionHandler.class)));
+            SET_EXECUTOR_SERVICE = generic(lookup.findStatic(client, "setExecutor", MethodType.methodType(void.class, ExecutorService.class)));
+            USE_VIRTUAL_THREADS = generic(lookup.findStatic(client, "useVirtualThreads", MethodType.methodType(boolean.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Client() {
+    }
+
+    private static MethodHandle generic(MethodHandle handle) {
+        return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+    }
+
+    static Object newEntry() throws Throwable {
+        return (Object) NEW_ENTRY.invokeExact();
+    }
+
+    static Object setKeyValue(Object entry, String key, String value) throws Throwable {
+        return (Object) SET_KEY_VALUE.invokeExact(entry, (Object) key, (Object) value);
+    }
+
+    static String query(String url, Object params) throws Throwable {
+        return (String) (Object) QUERY.invokeExact((Object) url, params);
+    }
+
+    static Object form(Object params) throws Throwable {
+        return (Object) FORM.invokeExact(params);
+    }
+
+    static String get(String url, Object params) throws Throwable {
+        return (String) (Object) GET.invokeExact((Object) url, params);
+    }
+
+    static String post(String url, Object params) throws Throwable {
+        return (String) (Object) POST.invokeExact((Object) url, params);
+    }
+
+    /** 返回 HttpClient.Response 的 CompletableFuture */
+    static CompletableFuture<?> getAsync(String url, Object params) throws Throwable {
+        return (CompletableFuture<?>) (Object) GET_ASYNC.invokeExact((Object) url, params);
+    }
+
+    /** 返回 HttpClient.Response 的 CompletableFuture */
+    static CompletableFuture<?> postAsync(String url, Object params) throws Throwable {
+        return (CompletableFuture<?>) (Object) POST_ASYNC.invokeExact((Object) url, params);
+    }
+
+    /** 切换传输层，nio 使用 NioTransport，其他使用默认的 UrlConnectionTransport */
+    static void setTransport(String name) throws Throwable {
+        Object transport = "nio".equals(name) ? (Object) NEW_NIO_TRANSPORT.invokeExact() : (Object) NEW_URL_CONNECTION_TRANSPORT.invokeExact();
+        Object ignored = (Object) SET_TRANSPORT.invokeExact(transport);
+    }
+
+    static void setExecutor(int maxThreads, int queueCapacity) throws Throwable {
+        Object ignored = (Object) SET_EXECUTOR.invokeExact((Object) maxThreads, (Object) queueCapacity, (Object) null);
+    }
+
+    static void setExecutor(ExecutorService executorService) throws Throwable {
+        Object ignored = (Object) SET_EXECUTOR_SERVICE.invokeExact((Object) executorService);
+    }
+
+    static boolean useVirtualThreads() throws Throwable {
+        return (Boolean) (Object) USE_VIRTUAL_THREADS.invokeExact();
+    }
+}
@@ -0,0 +1,70 @@
+package com.osys.httputil.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/** 请求参数的构建和编码，不涉及网络 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParamsBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    /** ascii 为不需要编码的参数，utf8 为需要百分号编码的中文参数 */
+    @Param({"ascii", "utf8"})
+    public String charset;
+
+    private String[] keys;
+    private String[] values;
+    private Object params;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        keys = new String[size];
+        values = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "key" + i;
+            values[i] = "ascii".equals(charset) ? "value" + i : "参数 值" + i;
+        }
+        params = build();
+    }
+
+    /** Entry.setKeyValue 追加 size 个参数 */
+    @Benchmark
+    public Object build() throws Throwable {
+        Object entry = Client.newEntry();
+        for (int i = 0; i < size; i++) {
+            Client.setKeyValue(entry, keys[i], values[i]);
+        }
+        return entry;
+    }
+
+    /** 参数拼接到地址后 */
+    @Benchmark
+    public String query() throws Throwable {
+        return Client.query("http://127.0.0.1/api", params);
+    }
+
+    /** 参数编码为表单请求体 */
+    @Benchmark
+    public Object form() throws Throwable {
+        return Client.form(params);
+    }
+}
@@ -0,0 +1,102 @@
+package com.osys.httputil.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对回环地址上的桩服务发送请求，测量同步和异步请求的吞吐量和延迟分布。
+ * 使用 {@code -prof gc} 查看每次请求的分配量。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBenchmark {
+    private static final int BATCH = 64;
+
+    @Param({"urlconnection", "nio"})
+    public String transport;
+
+    private StubServer server;
+    private String url;
+    private Object params;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        server = new StubServer(8);
+        url = server.url();
+        params = Client.newEntry();
+        Client.setKeyValue(params, "id", "12345");
+        Client.setKeyValue(params, "name", "httputil");
+        Client.setKeyValue(params, "page", "1");
+        Client.setTransport(transport);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        Client.setTransport("urlconnection");
+        server.close();
+    }
+
+    @Benchmark
+    public String getSync() throws Throwable {
+        return Client.get(url, params);
+    }
+
+    @Benchmark
+    public String postSync() throws Throwable {
+        return Client.post(url, params);
+    }
+
+    /** 多个线程同时发送同步请求 */
+    @Benchmark
+    @Threads(8)
+    public String getSyncConcurrent() throws Throwable {
+        return Client.get(url, params);
+    }
+
+    /** 单个异步请求，包括线程池调度的开销 */
+    @Benchmark
+    public Object getAsync() throws Throwable {
+        return Client.getAsync(url, params).join();
+    }
+
+    /** 同时发出一批异步请求后等待全部完成，结果按每个请求计算 */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object getAsyncBatch() throws Throwable {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = Client.getAsync(url, params);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public Object postAsyncBatch() throws Throwable {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            futures[i] = Client.postAsync(url, params);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,52 @@
+package com.osys.httputil.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** 回环地址上的桩服务，GET 和 POST 都返回固定的小 JSON，POST 先读完请求体 */
+final class StubServer implements AutoCloseable {
+    static final byte[] JSON = ("{\"code\":0,\"message\":\"ok\",\"data\":{\"id\":12345,\"name\":\"httputil\","
+            + "\"tags\":[\"a\",\"b\",\"c\"],\"enabled\":true}}").getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    StubServer(int threads) throws IOException {
+        // 响应头和响应体分两次写出，关闭 Nagle 算法避免与延迟确认叠加产生 40ms 的等待
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] buffer = new byte[1024];
+                while (body.read(buffer) != -1) {
+                    // 丢弃请求体
+                }
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, JSON.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(JSON);
+            }
+        });
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,134 @@
+package com.osys.httputil.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量并发的异步请求分别由有界线程池、无界的缓存线程池（{@link Executors#newCachedThreadPool()}）和虚拟线程执行，
+ * 比较完成一批请求的时间，同时记录平台线程数峰值和进程常驻内存峰值（见 {@link Footprint}）。
+ * virtual 需要在 JDK 21+ 上运行，更早的 JDK 上该组合会失败。
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+    private static final int REQUESTS = 10000;
+
+    @Param({"pool", "cached", "virtual"})
+    public String executor;
+
+    private StubServer server;
+    private String url;
+    private ExecutorService cached;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        server = new StubServer(64);
+        url = server.url();
+        if ("virtual".equals(executor)) {
+            if (!Client.useVirtualThreads()) {
+                throw new IllegalStateException("Virtual threads require JDK 21+");
+            }
+        } else if ("cached".equals(executor)) {
+            // 每个等待的请求一个平台线程，线程数随并发增长
+            cached = Executors.newCachedThreadPool();
+            Client.setExecutor(cached);
+        } else {
+            // 队列足够放下一批请求，线程数与默认线程池相同
+            Client.setExecutor(64, REQUESTS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        if (cached != null) {
+            cached.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public Object getAsync(Footprint footprint) throws Throwable {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            futures[i] = Client.getAsync(url, null);
+        }
+        Object result = CompletableFuture.allOf(futures).join();
+        footprint.record();
+        return result;
+    }
+
+    /**
+     * 每次迭代的资源占用：peakThreads 为平台线程数峰值（包含桩服务的 64 个线程，虚拟线程不计入），
+     * peakRssMb 为进程常驻内存峰值（Linux 的 VmHWM，每个组合单独 fork，其他系统上为 0）。
+     * JMH 汇总时累加各次迭代的计数，这里只在最后一次测量迭代记录，汇总结果即为该次迭代的峰值。
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        public long peakThreads;
+        public long peakRssMb;
+        private int measured;
+        private boolean last;
+
+        @Setup(Level.Iteration)
+        public void reset(IterationParams params) {
+            THREADS.resetPeakThreadCount();
+            peakThreads = 0;
+            peakRssMb = 0;
+            last = params.getType() == IterationType.MEASUREMENT && ++measured == params.getCount();
+        }
+
+        void record() {
+            if (last) {
+                peakThreads = THREADS.getPeakThreadCount();
+                peakRssMb = peakRssKb() / 1024;
+            }
+        }
+
+        private static long peakRssKb() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                    if (line.startsWith("VmHWM:")) {
+                        return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // 非 Linux 系统没有该文件
+            }
+            return 0;
+        }
+    }
+}
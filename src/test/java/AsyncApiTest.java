@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncApiTest {
+
+    @Test
+    void futuresCompleteWithResponses() throws Exception {
+        try (TestServer server = TestServer.echo()) {
+            HttpClient.Entry params = new HttpClient.Entry().setKeyValue("a", "1");
+            assertEquals("GET /get?a=1 ", HttpClient.getAsync(server.url("/get"), params).get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals("POST /post a=1", HttpClient.postAsync(server.url("/post"), params).get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals("PUT /put a=1", HttpClient.putAsync(server.url("/put"), params, null).get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals("DELETE /delete?a=1 ", HttpClient.deleteAsync(server.url("/delete"), params).get(5, TimeUnit.SECONDS).getBodyAsString());
+        }
+    }
+
+    @Test
+    void errorStatusCompletesNormally() throws Exception {
+        try (TestServer server = TestServer.start(exchange -> TestServer.respond(exchange, 503, "busy"))) {
+            HttpClient.Response response = HttpClient.getAsync(server.url("/"), null).get(5, TimeUnit.SECONDS);
+            assertEquals(503, response.getCode());
+            assertEquals("busy", response.getBodyAsString());
+        }
+    }
+
+    @Test
+    void connectionFailureCompletesExceptionally() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        CompletableFuture<HttpClient.Response> future = HttpClient.getAsync("http://127.0.0.1:" + port + "/", null);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+        ExecutionException empty = assertThrows(ExecutionException.class, () -> HttpClient.postAsync("", null).get(5, TimeUnit.SECONDS));
+        assertTrue(empty.getCause() instanceof MalformedURLException);
+    }
+
+    @Test
+    void allOfKeepsOrderAndFailsWithFirstError() throws Exception {
+        try (TestServer server = TestServer.echo()) {
+            List<HttpClient.Response> responses = HttpClient.allOf(HttpClient.getAsync(server.url("/1"), null), HttpClient.getAsync(server.url("/2"), null))
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("GET /1 ", "GET /2 "), Arrays.asList(responses.get(0).getBodyAsString(), responses.get(1).getBodyAsString()));
+            CompletableFuture<HttpClient.Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("boom"));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> HttpClient.allOf(HttpClient.getAsync(server.url("/3"), null), failed).get(5, TimeUnit.SECONDS));
+            assertEquals("boom", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchTest {
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+    }
+
+    private static List<HttpClient.Request> requests(String base, int count) {
+        List<HttpClient.Request> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new HttpClient.Request("GET", base + "/" + i));
+        }
+        return requests;
+    }
+
+    private static List<HttpClient.Request> posts(String base, int count) {
+        List<HttpClient.Request> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new HttpClient.Request("POST", base + "/" + i).setBody(HttpClient.Body.of(("item " + i).getBytes(StandardCharsets.UTF_8))));
+        }
+        return requests;
+    }
+
+    /** 响应体为请求路径 */
+    private static String ok(String requestLine) {
+        String path = requestLine.split(" ")[1];
+        return "HTTP/1.1 200 OK\r\nContent-Length: " + path.length() + "\r\n\r\n" + path;
+    }
+
+    private static void assertInOrder(List<CompletableFuture<HttpClient.Response>> futures) throws Exception {
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("/" + i, futures.get(i).get(5, TimeUnit.SECONDS).getBodyAsString());
+        }
+    }
+
+    @Test
+    void resultsKeepRequestOrderAndConnectionsLimitConcurrency() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        try (TestServer server = TestServer.start(exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            // 前面的请求更慢，完成顺序与请求顺序相反
+            int index = Integer.parseInt(exchange.getRequestURI().getPath().substring(1));
+            try {
+                Thread.sleep(60 - index * 5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            TestServer.respond(exchange, 200, exchange.getRequestURI().getPath());
+        })) {
+            List<CompletableFuture<HttpClient.Response>> futures = HttpClient.executeBatch(requests(server.url(""), 10),
+                    new HttpClient.BatchOptions().setConnections(3));
+            assertInOrder(futures);
+            assertEquals(3, maxActive.get());
+        }
+    }
+
+    @Test
+    void nioBatchPipelinesOnFixedConnections() throws Exception {
+        try (RawServer server = new RawServer(BatchTest::ok)) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            List<CompletableFuture<HttpClient.Response>> futures = HttpClient.executeBatch(requests(server.url(""), 20),
+                    new HttpClient.BatchOptions().setConnections(2).setMaxInFlight(8));
+            assertInOrder(futures);
+            assertEquals(2, server.connections());
+            assertEquals(20, server.requests.size());
+            assertTrue(server.pipelined.get() > 0, "pipelined " + server.pipelined.get());
+            // 同一连接上的请求按发送顺序处理
+            for (int connection = 1; connection <= 2; connection++) {
+                int last = -1;
+                for (String request : server.requests) {
+                    if (request.startsWith(connection + " ")) {
+                        int index = Integer.parseInt(request.split(" ")[2].substring(1));
+                        assertTrue(index > last, server.requests.toString());
+                        last = index;
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void nioBatchWithoutPipeliningWaitsForEachResponse() throws Exception {
+        try (RawServer server = new RawServer(BatchTest::ok)) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertInOrder(HttpClient.executeBatch(requests(server.url(""), 10),
+                    new HttpClient.BatchOptions().setConnections(1).setPipelining(false)));
+            assertEquals(1, server.connections());
+            assertEquals(0, server.pipelined.get());
+        }
+    }
+
+    @Test
+    void requestsOnClosedConnectionAreResent() throws Exception {
+        try (RawServer server = new RawServer(requestLine -> requestLine.contains(" /3 ")
+                ? "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\n/3" : ok(requestLine))) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertInOrder(HttpClient.executeBatch(requests(server.url(""), 12),
+                    new HttpClient.BatchOptions().setConnections(1).setMaxInFlight(8)));
+            assertTrue(server.connections() >= 2, "connections " + server.connections());
+            Set<String> paths = new HashSet<>();
+            for (String request : server.requests) {
+                paths.add(request.split(" ")[2]);
+            }
+            assertEquals(12, paths.size());
+        }
+    }
+
+    @Test
+    void postsAreNotPipelinedByDefault() throws Exception {
+        try (RawServer server = new RawServer(BatchTest::ok)) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertInOrder(HttpClient.executeBatch(posts(server.url(""), 20), new HttpClient.BatchOptions().setConnections(2).setMaxInFlight(8)));
+            assertEquals(20, server.requests.size());
+            assertEquals(0, server.pipelined.get());
+        }
+    }
+
+    @Test
+    void postsArePipelinedWhenEnabled() throws Exception {
+        try (RawServer server = new RawServer(BatchTest::ok)) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertInOrder(HttpClient.executeBatch(posts(server.url(""), 20),
+                    new HttpClient.BatchOptions().setConnections(1).setMaxInFlight(8).setPipelineNonIdempotent(true)));
+            assertTrue(server.pipelined.get() > 0, "pipelined " + server.pipelined.get());
+        }
+    }
+
+    @Test
+    void sentPostsAreNotResentAfterConnectionClose() throws Exception {
+        try (RawServer server = new RawServer(requestLine -> requestLine.contains(" /3 ")
+                ? "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\n/3" : ok(requestLine))) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            List<CompletableFuture<HttpClient.Response>> futures = HttpClient.executeBatch(posts(server.url(""), 12),
+                    new HttpClient.BatchOptions().setConnections(1).setMaxInFlight(8).setPipelineNonIdempotent(true));
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    assertEquals("/" + i, futures.get(i).get(5, TimeUnit.SECONDS).getBodyAsString());
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+                    assertTrue(i > 3, "request " + i + " failed");
+                    failed++;
+                }
+            }
+            // 每个 POST 最多发送一次，连接关闭时已发送的请求失败
+            Set<String> paths = new HashSet<>();
+            for (String request : server.requests) {
+                assertTrue(paths.add(request.split(" ")[2]), server.requests.toString());
+            }
+            assertTrue(failed > 0, server.requests.toString());
+        }
+    }
+}
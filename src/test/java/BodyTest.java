@@ -0,0 +1,137 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BodyTest {
+    /** 2 MB 的随机内容，大于传输层的缓冲区和 HTTP/2 的流量控制窗口 */
+    private static final byte[] CONTENT = new byte[2 * 1024 * 1024 + 5];
+
+    static {
+        new Random(7).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path dir;
+
+    private HttpClient.NioTransport nio;
+    private HttpClient.Http2Transport h2;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+        if (h2 != null) {
+            h2.close();
+        }
+    }
+
+    /** 请求方式、Content-Type、Content-Length、请求体长度和摘要 */
+    private static String describe(String method, Function<String, String> header, byte[] body) {
+        return method + " " + header.apply("Content-Type") + " " + header.apply("Content-Length") + " " + body.length + " " + digest(body);
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static TestServer server() throws IOException {
+        return TestServer.start(exchange -> TestServer.respond(exchange, 200, describe(exchange.getRequestMethod(),
+                exchange.getRequestHeaders()::getFirst, readAll(exchange.getRequestBody()))));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String expected(String method, String length, byte[] content) {
+        return method + " application/octet-stream " + length + " " + content.length + " " + digest(content);
+    }
+
+    private void assertBodiesSent(String url) throws IOException {
+        byte[] small = "small body".getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected("POST", "10", small), HttpClient.postBody(url, HttpClient.Body.of(small), null));
+        assertEquals(expected("PUT", String.valueOf(CONTENT.length), CONTENT), HttpClient.putBody(url, HttpClient.Body.of(CONTENT), null));
+
+        // ByteBuffer 只发送 position 到 limit 之间的数据，不改变 position
+        ByteBuffer heap = ByteBuffer.wrap(CONTENT);
+        heap.position(100).limit(100 + 1000);
+        byte[] slice = new byte[1000];
+        System.arraycopy(CONTENT, 100, slice, 0, slice.length);
+        assertEquals(expected("POST", "1000", slice), HttpClient.postBody(url, HttpClient.Body.of(heap), null));
+        assertEquals(100, heap.position());
+        ByteBuffer direct = ByteBuffer.allocateDirect(CONTENT.length);
+        direct.put(CONTENT).flip();
+        assertEquals(expected("POST", String.valueOf(CONTENT.length), CONTENT), HttpClient.postBody(url, HttpClient.Body.of(direct), null));
+        assertEquals(0, direct.position());
+
+        Path file = dir.resolve("upload.bin");
+        Files.write(file, CONTENT);
+        assertEquals(expected("PUT", String.valueOf(CONTENT.length), CONTENT), HttpClient.putBody(url, HttpClient.Body.of(file), null));
+
+        // 长度未知的流分块发送，没有 Content-Length
+        assertEquals(expected("PUT", "null", CONTENT), HttpClient.putBody(url, HttpClient.Body.of(new ByteArrayInputStream(CONTENT)), null));
+
+        // 请求头覆盖默认的 Content-Type
+        HttpClient.Entry json = new HttpClient.Entry().setKeyValue("Content-Type", "application/json");
+        byte[] text = "{}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("POST application/json 2 2 " + digest(text), HttpClient.postBody(url, HttpClient.Body.of(text), json));
+    }
+
+    @Test
+    void bodiesOnUrlConnection() throws Exception {
+        try (TestServer server = server()) {
+            assertBodiesSent(server.url("/upload"));
+        }
+    }
+
+    @Test
+    void bodiesOnNio() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertBodiesSent(server.url("/upload"));
+        }
+    }
+
+    @Test
+    void bodiesOnHttp2() throws Exception {
+        try (H2Server server = new H2Server(stream -> stream.respond(200, describe(stream.headers.get(":method"),
+                name -> stream.headers.get(name.toLowerCase()), stream.body())))) {
+            h2 = new HttpClient.Http2Transport();
+            HttpClient.setTransport(h2);
+            // HTTP/2 没有分块编码，长度未知的流同样不带 content-length
+            assertBodiesSent(server.url("/upload"));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BufferPoolTest {
+    /** 长度未知（分块）的响应体读入池中的数组，按需换用更大的数组 */
+    private static TestServer server() throws IOException {
+        return TestServer.start(exchange -> {
+            int size = Integer.parseInt(exchange.getRequestURI().getPath().substring(1));
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content(size));
+            }
+        });
+    }
+
+    /** 不同长度的内容各不相同，数组被其他请求复用时能发现 */
+    private static byte[] content(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + size);
+        }
+        return bytes;
+    }
+
+    private static byte[] get(TestServer server, int size) throws IOException {
+        return HttpClient.execute(new HttpClient.Request("GET", server.url("/" + size))).getBody();
+    }
+
+    @Test
+    void concurrentRequestsDoNotShareBuffers() throws Exception {
+        int[] sizes = {0, 1, 8 * 1024 - 1, 8 * 1024 + 1, 64 * 1024, 100 * 1024, 600 * 1024};
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try (TestServer server = TestServer.start(exchange -> {
+            byte[] body = readAll(exchange.getRequestBody());
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                // 分块返回请求体，请求和响应两个方向都使用池中的数组
+                out.write(body);
+            }
+        })) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int size = sizes[i % sizes.length];
+                futures.add(CompletableFuture.runAsync(() -> {
+                    byte[] expected = content(size);
+                    try {
+                        HttpClient.Response response = HttpClient.execute(new HttpClient.Request("PUT", server.url("/"))
+                                .setBody(HttpClient.Body.of(new ByteArrayInputStream(expected))));
+                        assertArrayEquals(expected, response.getBody(), "size " + size);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }, executor));
+            }
+            for (CompletableFuture<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void sequentialRequestsReuseBuffers() throws Exception {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        int size = 100 * 1024;
+        try (TestServer server = server()) {
+            for (int i = 0; i < 20; i++) {
+                assertArrayEquals(content(size), get(server, size));
+            }
+            long thread = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(thread);
+            int requests = 50;
+            for (int i = 0; i < requests; i++) {
+                get(server, size);
+            }
+            long perRequest = (threads.getThreadAllocatedBytes(thread) - before) / requests;
+            // 读取 100KB 的分块响应体依次用到 8KB、64KB 和 512KB 的数组，不复用时每个请求至少分配 584KB，
+            // 复用时只分配返回的 100KB 响应体和请求本身的对象
+            assertTrue(perRequest < 400 * 1024, "allocated " + perRequest + " bytes per request");
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
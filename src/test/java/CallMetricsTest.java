@@ -0,0 +1,160 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallMetricsTest {
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final List<HttpClient.CallMetrics> finished = new CopyOnWriteArrayList<>();
+    private final HttpClient.EventListener listener = new HttpClient.EventListener() {
+        @Override
+        public void callStart(HttpClient.CallMetrics call) {
+            events.add("callStart");
+        }
+
+        @Override
+        public void dnsStart(HttpClient.CallMetrics call) {
+            events.add("dnsStart");
+        }
+
+        @Override
+        public void dnsEnd(HttpClient.CallMetrics call) {
+            events.add("dnsEnd");
+        }
+
+        @Override
+        public void connectStart(HttpClient.CallMetrics call) {
+            events.add("connectStart");
+        }
+
+        @Override
+        public void connectEnd(HttpClient.CallMetrics call) {
+            events.add("connectEnd");
+        }
+
+        @Override
+        public void requestEnd(HttpClient.CallMetrics call) {
+            events.add("requestEnd");
+        }
+
+        @Override
+        public void responseStart(HttpClient.CallMetrics call) {
+            events.add("responseStart");
+        }
+
+        @Override
+        public void callEnd(HttpClient.CallMetrics call) {
+            events.add("callEnd");
+            finished.add(call);
+        }
+
+        @Override
+        public void callFailed(HttpClient.CallMetrics call, Throwable e) {
+            events.add("callFailed");
+            finished.add(call);
+        }
+    };
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        HttpClient.removeEventListener(listener);
+        HttpClient.setLatencyHistogram(false);
+        HttpClient.resetLatencyHistograms();
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+    }
+
+    @Test
+    void listenerSeesPhasesInOrderAndConnectionReuse() throws Exception {
+        // 由测试控制连接的服务端，连接只在客户端关闭时断开
+        try (RawServer server = new RawServer(requestLine -> "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello")) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.addEventListener(listener);
+            assertEquals("hello", HttpClient.execute(new HttpClient.Request("GET", server.url("/a"))).getBodyAsString());
+            assertEquals(Arrays.asList("callStart", "dnsStart", "dnsEnd", "connectStart", "connectEnd", "requestEnd", "responseStart", "callEnd"), events);
+            HttpClient.CallMetrics first = finished.get(0);
+            assertEquals("GET", first.getMethod());
+            assertEquals(200, first.getCode());
+            assertEquals(5, first.getBytesReceived());
+            assertTrue(first.getBytesSent() > 0);
+            assertFalse(first.isConnectionReused());
+            assertTrue(first.getTotalTime(TimeUnit.NANOSECONDS) >= first.getTimeToFirstByte(TimeUnit.NANOSECONDS));
+
+            events.clear();
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/b")));
+            assertEquals(Arrays.asList("callStart", "requestEnd", "responseStart", "callEnd"), events);
+            assertTrue(finished.get(1).isConnectionReused());
+            assertEquals(-1, finished.get(1).getConnectTime(TimeUnit.NANOSECONDS));
+            assertEquals(1, server.connections());
+        }
+    }
+
+    @Test
+    void failedCallIsReported() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        HttpClient.addEventListener(listener);
+        assertThrows(IOException.class, () -> HttpClient.execute(new HttpClient.Request("GET", "http://127.0.0.1:" + port + "/")));
+        assertEquals("callFailed", events.get(events.size() - 1));
+        assertEquals(-1, finished.get(0).getCode());
+    }
+
+    @Test
+    void histogramRecordsPerMethodAndHost() throws Exception {
+        try (TestServer server = TestServer.start(exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/slow")) {
+                try {
+                    Thread.sleep(60);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            HttpClient.setLatencyHistogram(true);
+            for (int i = 0; i < 9; i++) {
+                HttpClient.execute(new HttpClient.Request("GET", server.url("/fast")));
+            }
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/slow")));
+            HttpClient.execute(new HttpClient.Request("POST", server.url("/fast")));
+
+            Map<String, HttpClient.LatencySnapshot> snapshots = HttpClient.getLatencySnapshots();
+            assertEquals(new ArrayList<>(Arrays.asList("GET 127.0.0.1:" + server.port(), "POST 127.0.0.1:" + server.port())),
+                    new ArrayList<>(snapshots.keySet()));
+            HttpClient.LatencySnapshot get = snapshots.get("GET 127.0.0.1:" + server.port());
+            assertNotNull(get);
+            assertEquals(10, get.getCount());
+            assertEquals(1, snapshots.get("POST 127.0.0.1:" + server.port()).getCount());
+            long max = get.getMax(TimeUnit.MICROSECONDS);
+            assertTrue(max >= TimeUnit.MILLISECONDS.toMicros(60), "max " + max);
+            // 9 个快速请求，p50 远小于慢请求，p100 落在最慢请求所在的桶且不超过最大值
+            assertTrue(get.getPercentile(50, TimeUnit.MICROSECONDS) < TimeUnit.MILLISECONDS.toMicros(60));
+            assertEquals(max, get.getPercentile(100, TimeUnit.MICROSECONDS));
+            assertTrue(get.getPercentile(99, TimeUnit.MICROSECONDS) <= max);
+            assertTrue(get.getMean(TimeUnit.MICROSECONDS) >= max / 10);
+
+            HttpClient.resetLatencyHistograms();
+            assertEquals(Collections.emptyMap(), HttpClient.getLatencySnapshots());
+        }
+    }
+}
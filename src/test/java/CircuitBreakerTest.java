@@ -0,0 +1,184 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+
+    @AfterEach
+    void reset() {
+        HttpClient.setCircuitBreaker(null);
+        HttpClient.setAdaptiveLimiter(null);
+    }
+
+    /** /fail 返回 500，其他路径返回 200 */
+    private static TestServer server() throws IOException {
+        return TestServer.start(exchange -> TestServer.respond(exchange, exchange.getRequestURI().getPath().equals("/fail") ? 500 : 200, "x"));
+    }
+
+    private static int get(TestServer server, String path) throws IOException {
+        return HttpClient.execute(new HttpClient.Request("GET", server.url(path))).getCode();
+    }
+
+    @Test
+    void opensHalfOpensAndCloses() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.CircuitBreaker breaker = new HttpClient.CircuitBreaker()
+                    .setWindow(4, 4).setFailureRateThreshold(50).setOpenDuration(300, TimeUnit.MILLISECONDS).setHalfOpenCalls(2);
+            HttpClient.setCircuitBreaker(breaker);
+            String host = "127.0.0.1:" + server.port();
+            get(server, "/ok");
+            get(server, "/ok");
+            get(server, "/fail");
+            assertEquals(HttpClient.CircuitBreaker.State.CLOSED, breaker.getState(host));
+            get(server, "/fail");
+            assertEquals(HttpClient.CircuitBreaker.State.OPEN, breaker.getState(host));
+
+            // 打开期间不发出请求，同步和异步都直接失败
+            int requests = server.requests.get();
+            HttpClient.CircuitOpenException open = assertThrows(HttpClient.CircuitOpenException.class, () -> get(server, "/ok"));
+            assertEquals(host, open.getHost());
+            ExecutionException async = assertThrows(ExecutionException.class,
+                    () -> HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/ok"))).get(5, TimeUnit.SECONDS));
+            assertTrue(async.getCause() instanceof HttpClient.CircuitOpenException, async.getCause().toString());
+            assertEquals(requests, server.requests.get());
+
+            // 半开时试探请求失败，重新打开
+            Thread.sleep(350);
+            assertEquals(500, get(server, "/fail"));
+            assertEquals(HttpClient.CircuitBreaker.State.OPEN, breaker.getState(host));
+            assertThrows(HttpClient.CircuitOpenException.class, () -> get(server, "/ok"));
+
+            // 试探请求全部成功后关闭
+            Thread.sleep(350);
+            assertEquals(200, get(server, "/ok"));
+            assertEquals(HttpClient.CircuitBreaker.State.HALF_OPEN, breaker.getState(host));
+            assertEquals(200, get(server, "/ok"));
+            assertEquals(HttpClient.CircuitBreaker.State.CLOSED, breaker.getState(host));
+            assertEquals(500, get(server, "/fail"));
+            assertEquals(HttpClient.CircuitBreaker.State.CLOSED, breaker.getState(host));
+        }
+    }
+
+    @Test
+    void callerErrorsDoNotUseUpHalfOpenTrials() throws Exception {
+        List<String> failures = new CopyOnWriteArrayList<>();
+        HttpClient.EventListener listener = new HttpClient.EventListener() {
+            @Override
+            public void callFailed(HttpClient.CallMetrics call, Throwable e) {
+                failures.add(e.getClass().getSimpleName());
+            }
+        };
+        HttpClient.addEventListener(listener);
+        try (TestServer server = server()) {
+            HttpClient.CircuitBreaker breaker = new HttpClient.CircuitBreaker()
+                    .setWindow(2, 2).setFailureRateThreshold(50).setOpenDuration(200, TimeUnit.MILLISECONDS).setHalfOpenCalls(1);
+            HttpClient.setCircuitBreaker(breaker);
+            String host = "127.0.0.1:" + server.port();
+            get(server, "/fail");
+            get(server, "/fail");
+            assertEquals(HttpClient.CircuitBreaker.State.OPEN, breaker.getState(host));
+            Thread.sleep(250);
+
+            // 非法的请求头在发出前失败，不占用唯一的试探名额，也通知监听器
+            HttpClient.Request bad = new HttpClient.Request("GET", server.url("/ok"))
+                    .setHeaders(new HttpClient.Entry().setKeyValue("X-Bad", "a\r\nInjected: 1"));
+            assertThrows(IllegalArgumentException.class, () -> HttpClient.execute(bad));
+            ExecutionException async = assertThrows(ExecutionException.class, () -> HttpClient.executeAsync(bad).get(5, TimeUnit.SECONDS));
+            assertTrue(async.getCause() instanceof IllegalArgumentException, async.getCause().toString());
+            assertEquals(Arrays.asList("IllegalArgumentException", "IllegalArgumentException"), failures);
+            assertEquals(HttpClient.CircuitBreaker.State.HALF_OPEN, breaker.getState(host));
+
+            assertEquals(200, get(server, "/ok"));
+            assertEquals(HttpClient.CircuitBreaker.State.CLOSED, breaker.getState(host));
+        } finally {
+            HttpClient.removeEventListener(listener);
+        }
+    }
+
+    @Test
+    void slowCallsOpenTheCircuit() throws Exception {
+        try (TestServer server = TestServer.start(exchange -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, "slow");
+        })) {
+            HttpClient.CircuitBreaker breaker = new HttpClient.CircuitBreaker()
+                    .setWindow(2, 2).setSlowCallThreshold(20, TimeUnit.MILLISECONDS, 100);
+            HttpClient.setCircuitBreaker(breaker);
+            get(server, "/");
+            get(server, "/");
+            assertEquals(HttpClient.CircuitBreaker.State.OPEN, breaker.getState("127.0.0.1:" + server.port()));
+        }
+    }
+
+    @Test
+    void adaptiveLimiterBacksOffAndLimitsConcurrency() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestServer server = TestServer.start(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/busy")) {
+                TestServer.respond(exchange, 503, "busy");
+                return;
+            }
+            active.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            HttpClient.AdaptiveLimiter limiter = new HttpClient.AdaptiveLimiter().setLimits(4, 1, 10).setBackoffRatio(0.5);
+            HttpClient.setAdaptiveLimiter(limiter);
+            String host = "127.0.0.1:" + server.port();
+            assertEquals(4, limiter.getLimit(host));
+            for (int expected : new int[]{2, 1, 1}) {
+                assertEquals(503, HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/busy"))).get(5, TimeUnit.SECONDS).getCode());
+                // 请求完成后才释放名额并调整上限
+                awaitLimit(limiter, host, expected);
+            }
+
+            // 上限为 1 时其余请求在队列中等待
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/slow"))));
+            }
+            Thread.sleep(200);
+            assertEquals(1, active.get());
+            assertEquals(4, server.requests.get());
+            release.countDown();
+            for (CompletableFuture<HttpClient.Response> future : futures) {
+                assertEquals(200, future.get(5, TimeUnit.SECONDS).getCode());
+            }
+            // 成功且并发数达到上限的一半时上限加 1：1 -> 2 -> 3，第三个请求时并发数不到一半
+            awaitLimit(limiter, host, 3);
+        }
+    }
+
+    private static void awaitLimit(HttpClient.AdaptiveLimiter limiter, String host, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (limiter.getLimit(host) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, limiter.getLimit(host));
+    }
+}
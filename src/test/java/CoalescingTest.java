@@ -0,0 +1,155 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescingTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void reset() {
+        release.countDown();
+        HttpClient.setRequestCoalescing(false);
+    }
+
+    /** 等待 release 后返回请求头 X-Name 的服务端 */
+    private TestServer server() throws IOException {
+        return TestServer.start(exchange -> {
+            await();
+            TestServer.respond(exchange, 200, String.valueOf(exchange.getRequestHeaders().getFirst("X-Name")));
+        });
+    }
+
+    private void await() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static HttpClient.Request get(String url, String authorization, String name) {
+        return new HttpClient.Request("GET", url).setHeaders(new HttpClient.Entry()
+                .setKeyValue("Authorization", authorization).setKeyValue("X-Name", name));
+    }
+
+    /** 等待服务端收到 count 个请求，再给其他调用方留出加入合并的时间 */
+    private static void awaitRequests(TestServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.requests.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, server.requests.get());
+        Thread.sleep(200);
+    }
+
+    @Test
+    void concurrentIdenticalRequestsReachServerOnce() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setRequestCoalescing(true, "Authorization");
+            String url = server.url("/resource?id=1");
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(HttpClient.executeAsync(get(url, "token", "first")));
+            }
+            // 同步调用方也合并到同一个请求
+            for (int i = 0; i < 5; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return HttpClient.execute(get(url, "token", "sync"));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            awaitRequests(server, 1);
+            release.countDown();
+            for (CompletableFuture<HttpClient.Response> future : futures) {
+                // 未列出的请求头不同的请求也被合并，都得到第一个请求的响应
+                assertEquals("first", future.get(5, TimeUnit.SECONDS).getBodyAsString());
+            }
+            assertEquals(1, server.requests.get());
+            // 请求结束后再次请求重新发出
+            assertEquals("again", HttpClient.execute(get(url, "token", "again")).getBodyAsString());
+            assertEquals(2, server.requests.get());
+        }
+    }
+
+    @Test
+    void differentKeyHeaderIsNotMerged() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setRequestCoalescing(true, "Authorization");
+            String url = server.url("/resource");
+            CompletableFuture<HttpClient.Response> alice = HttpClient.executeAsync(get(url, "alice", "alice"));
+            CompletableFuture<HttpClient.Response> bob = HttpClient.executeAsync(get(url, "bob", "bob"));
+            CompletableFuture<HttpClient.Response> other = HttpClient.executeAsync(get(server.url("/other"), "alice", "other"));
+            awaitRequests(server, 3);
+            release.countDown();
+            assertEquals("alice", alice.get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals("bob", bob.get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals("other", other.get(5, TimeUnit.SECONDS).getBodyAsString());
+        }
+    }
+
+    @Test
+    void leaderFailureReachesEveryWaiter() throws Exception {
+        // 服务端不返回响应直接关闭连接
+        try (RawServer server = new RawServer(requestLine -> {
+            await();
+            return null;
+        })) {
+            HttpClient.setRequestCoalescing(true);
+            String url = server.url("/broken");
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(HttpClient.executeAsync(new HttpClient.Request("GET", url)));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.requests.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (CompletableFuture<HttpClient.Response> future : futures) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IOException, e.getCause().toString());
+            }
+            // JDK 对连接被关闭的 GET 请求会重新发送一次，合并的调用方不会各自发送
+            assertTrue(server.requests.size() <= 2, server.requests.toString());
+        }
+    }
+
+    @Test
+    void followerTimesOutWhileLeaderContinues() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setRequestCoalescing(true);
+            String url = server.url("/slow");
+            CompletableFuture<HttpClient.Response> leader = HttpClient.executeAsync(get(url, null, "leader"));
+            awaitRequests(server, 1);
+            long start = System.nanoTime();
+            CompletableFuture<HttpClient.Response> follower = HttpClient.executeAsync(get(url, null, "follower")
+                    .setTimeout(100, TimeUnit.MILLISECONDS));
+            ExecutionException e = assertThrows(ExecutionException.class, () -> follower.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof SocketTimeoutException, e.getCause().toString());
+            assertThrows(SocketTimeoutException.class, () -> HttpClient.execute(get(url, null, "sync")
+                    .setTimeout(100, TimeUnit.MILLISECONDS)));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertFalse(leader.isDone());
+            release.countDown();
+            assertEquals("leader", leader.get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertEquals(1, server.requests.get());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CompressionTest {
+    /** 约 1 MB 的文本，压缩后仍大于解压的缓冲区 */
+    private static final String TEXT;
+
+    static {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 1024 * 1024; i++) {
+            text.append("line ").append(i).append(" 压缩的响应体\n");
+        }
+        TEXT = text.toString();
+    }
+
+    private HttpClient.NioTransport nio;
+    private HttpClient.Http2Transport h2;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setCompression(false);
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+        if (h2 != null) {
+            h2.close();
+        }
+    }
+
+    /** 按编码名称压缩，raw-deflate 为不带 zlib 头的 deflate */
+    private static byte[] encode(String encoding, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                try (OutputStream gzip = new GZIPOutputStream(out)) {
+                    gzip.write(bytes);
+                }
+                break;
+            case "deflate":
+                try (OutputStream deflate = new DeflaterOutputStream(out)) {
+                    deflate.write(bytes);
+                }
+                break;
+            case "raw-deflate":
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try (OutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+                    deflate.write(bytes);
+                }
+                deflater.end();
+                break;
+            default:
+                out.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static TestServer server() throws IOException {
+        return TestServer.start(CompressionTest::respond);
+    }
+
+    /** 按路径选择编码，请求没有 Accept-Encoding 时不压缩 */
+    private static void respond(HttpExchange exchange) throws IOException {
+        String encoding = exchange.getRequestURI().getPath().substring(1);
+        String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) {
+            TestServer.respond(exchange, 200, "identity");
+            return;
+        }
+        byte[] body = encode(encoding, TEXT.getBytes(StandardCharsets.UTF_8));
+        exchange.getResponseHeaders().set("Content-Encoding", encoding.equals("raw-deflate") ? "deflate" : encoding);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String get(String url) throws IOException {
+        return HttpClient.execute(new HttpClient.Request("GET", url)).getBodyAsString();
+    }
+
+    private static void assertDecoded(String base) throws Exception {
+        assertEquals("identity", get(base + "/gzip"));
+        HttpClient.setCompression(true);
+        for (String encoding : new String[]{"gzip", "x-gzip", "deflate", "raw-deflate"}) {
+            assertEquals(TEXT, get(base + "/" + encoding), encoding);
+            assertEquals(TEXT, HttpClient.executeAsync(new HttpClient.Request("GET", base + "/" + encoding))
+                    .get().getBodyAsString(), encoding);
+        }
+        // 流式读取同样解压
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpClient.getStream(base + "/gzip", null, null, body -> {
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        });
+        assertEquals(TEXT, new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodesOnUrlConnection() throws Exception {
+        try (TestServer server = server()) {
+            assertDecoded(server.url(""));
+        }
+    }
+
+    @Test
+    void decodesOnNio() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertDecoded(server.url(""));
+        }
+    }
+
+    @Test
+    void decodesOnHttp2() throws Exception {
+        try (H2Server server = new H2Server(stream -> {
+            String encoding = stream.path().substring(1);
+            if (stream.headers.get("accept-encoding") == null) {
+                stream.respond(200, "identity");
+                return;
+            }
+            byte[] headers = new H2Server.Headers().literal("content-encoding", encoding.equals("raw-deflate") ? "deflate" : encoding).toByteArray();
+            stream.respond(200, headers, encode(encoding, TEXT.getBytes(StandardCharsets.UTF_8)));
+        })) {
+            h2 = new HttpClient.Http2Transport();
+            HttpClient.setTransport(h2);
+            assertDecoded(server.url(""));
+        }
+    }
+
+    @Test
+    void unsupportedEncodingIsReturnedAsIs() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setCompression(true);
+            HttpClient.Response response = HttpClient.execute(new HttpClient.Request("GET", server.url("/br")));
+            assertArrayEquals(TEXT.getBytes(StandardCharsets.UTF_8), response.getBody());
+            assertEquals("br", response.getHeader("Content-Encoding"));
+        }
+    }
+
+    @Test
+    void emptyBodyWithEncodingIsEmpty() throws Exception {
+        try (TestServer server = TestServer.start(exchange -> {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/no-content") ? 204 : 200, -1);
+        })) {
+            HttpClient.setCompression(true);
+            for (String path : new String[]{"/no-content", "/empty"}) {
+                HttpClient.Response response = HttpClient.execute(new HttpClient.Request("GET", server.url(path)));
+                assertEquals(0, response.getBody().length, path);
+            }
+            HttpClient.Response head = HttpClient.execute(new HttpClient.Request("HEAD", server.url("/empty")));
+            assertEquals(0, head.getBody().length);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DispatcherTest {
+
+    @AfterEach
+    void reset() {
+        HttpClient.setMaxRequestsPerHost(0);
+        HttpClient.setExecutor(64, 1024, null);
+    }
+
+    @Test
+    void rejectsDiscardPolicies() {
+        assertThrows(IllegalArgumentException.class, () -> HttpClient.setExecutor(1, 1, new ThreadPoolExecutor.DiscardPolicy()));
+        assertThrows(IllegalArgumentException.class, () -> HttpClient.setExecutor(1, 1, new ThreadPoolExecutor.DiscardOldestPolicy()));
+    }
+
+    @Test
+    void discardedRequestIsRejectedAndReleasesHostSlot() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestServer server = TestServer.start(exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            // 一个线程、队列长度 1，第三个请求被自定义策略丢弃
+            HttpClient.setExecutor(1, 1, (runnable, executor) -> { });
+            HttpClient.setMaxRequestsPerHost(3);
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/" + i))));
+            }
+            ExecutionException e = assertThrows(ExecutionException.class, () -> futures.get(2).get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+            release.countDown();
+            assertEquals(200, futures.get(0).get(5, TimeUnit.SECONDS).getCode());
+            assertEquals(200, futures.get(1).get(5, TimeUnit.SECONDS).getCode());
+            // 丢弃的请求释放了名额，之后的请求仍然可以执行
+            for (int round = 0; round < 3; round++) {
+                assertEquals(200, HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/after"))).get(5, TimeUnit.SECONDS).getCode());
+            }
+        }
+    }
+
+    @Test
+    void shutdownDrainsLongHostQueueWithoutRecursion() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestServer server = TestServer.start(exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            HttpClient.setExecutor(1, 16, null);
+            HttpClient.setMaxRequestsPerHost(1);
+            CompletableFuture<HttpClient.Response> first = HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/first")));
+            List<CompletableFuture<HttpClient.Response>> waiting = new ArrayList<>();
+            for (int i = 0; i < 50000; i++) {
+                waiting.add(HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/" + i))));
+            }
+            HttpClient.shutdown();
+            release.countDown();
+            assertEquals(200, first.get(5, TimeUnit.SECONDS).getCode());
+            // 排队的请求在关闭时提交到线程池，放不进队列的被拒绝
+            int completed = 0;
+            for (CompletableFuture<HttpClient.Response> future : waiting) {
+                try {
+                    assertEquals(200, future.get(5, TimeUnit.SECONDS).getCode());
+                    completed++;
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof RejectedExecutionException, e.getCause().toString());
+                }
+            }
+            assertEquals(16, completed);
+        }
+    }
+
+    @Test
+    void shutdownRunsRequestsQueuedForHost() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestServer server = TestServer.start(exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, exchange.getRequestURI().getPath());
+        })) {
+            HttpClient.setExecutor(4, 16, null);
+            HttpClient.setMaxRequestsPerHost(1);
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/" + i))));
+            }
+            // 第一个请求在执行，其余 4 个在主机队列中等待
+            HttpClient.shutdown();
+            ExecutionException rejected = assertThrows(ExecutionException.class,
+                    () -> HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/late"))).get(5, TimeUnit.SECONDS));
+            assertTrue(rejected.getCause() instanceof RejectedExecutionException, rejected.getCause().toString());
+            release.countDown();
+            for (int i = 0; i < 5; i++) {
+                assertEquals("/" + i, futures.get(i).get(5, TimeUnit.SECONDS).getBodyAsString());
+            }
+            assertTrue(HttpClient.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(5, server.requests.get());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DnsResolverTest {
+    private static final String HOST = "service.test";
+
+    private final List<TestServer> servers = new ArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        release.countDown();
+        HttpClient.setDnsResolver(null);
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+        for (TestServer server : servers) {
+            server.close();
+        }
+    }
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) last});
+    }
+
+    /** 在 127.0.0.1 到 127.0.0.count 的同一端口上启动服务端，响应体为服务端序号 */
+    private int startServers(int count) throws Exception {
+        int port = 0;
+        for (int i = 1; i <= count; i++) {
+            String name = String.valueOf(i);
+            TestServer server = TestServer.start(address(i), port, exchange -> TestServer.respond(exchange, 200, name));
+            port = server.port();
+            servers.add(server);
+        }
+        return port;
+    }
+
+    /** 不保留空闲连接，每个请求都建立新连接并选择地址 */
+    private void useNio() {
+        nio = new HttpClient.NioTransport(1, 0, 0);
+        HttpClient.setTransport(nio);
+    }
+
+    private static String get(int port) throws Exception {
+        return HttpClient.execute(new HttpClient.Request("GET", "http://" + HOST + ":" + port + "/")).getBodyAsString();
+    }
+
+    @Test
+    void roundRobinSpreadsConnectionsOverCachedAddresses() throws Exception {
+        int port = startServers(3);
+        AtomicInteger lookups = new AtomicInteger();
+        HttpClient.setDnsResolver(new HttpClient.DnsResolver().setLookup(host -> {
+            lookups.incrementAndGet();
+            assertEquals(HOST, host);
+            return Arrays.asList(address(1), address(2), address(3));
+        }));
+        useNio();
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            bodies.add(get(port));
+        }
+        for (TestServer server : servers) {
+            assertEquals(2, server.requests.get(), bodies.toString());
+        }
+        // 连续的请求使用不同的地址
+        for (int i = 1; i < bodies.size(); i++) {
+            assertFalse(bodies.get(i).equals(bodies.get(i - 1)), bodies.toString());
+        }
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    void failedAddressIsSkippedEjectedAndReadmitted() throws Exception {
+        int port = startServers(1);
+        // 127.0.0.4 上没有服务端，连接被拒绝
+        InetAddress dead = address(4);
+        HttpClient.DnsResolver resolver = new HttpClient.DnsResolver()
+                .setLookup(host -> Arrays.asList(dead, address(1)))
+                .setEjection(2, 300, TimeUnit.MILLISECONDS);
+        HttpClient.setDnsResolver(resolver);
+        useNio();
+        int sent = 0;
+        while (!resolver.isEjected(dead)) {
+            // 连接失败的请求换用另一个地址完成
+            assertEquals("1", get(port));
+            assertTrue(++sent <= 4, "not ejected after " + sent + " requests");
+        }
+        assertFalse(resolver.isEjected(address(1)));
+
+        Thread.sleep(350);
+        assertFalse(resolver.isEjected(dead));
+        // 恢复使用后一次连接失败就重新排除，两个地址轮询时最多两个请求就会用到它
+        sent = 0;
+        while (!resolver.isEjected(dead)) {
+            assertEquals("1", get(port));
+            assertTrue(++sent <= 2, "not ejected again after " + sent + " requests");
+        }
+        assertEquals("1", get(port));
+    }
+
+    @Test
+    void allAddressesEjectedStillTried() throws Exception {
+        HttpClient.DnsResolver resolver = new HttpClient.DnsResolver()
+                .setLookup(host -> Collections.singletonList(address(4)))
+                .setEjection(1, 30, TimeUnit.SECONDS);
+        HttpClient.setDnsResolver(resolver);
+        useNio();
+        assertThrows(ConnectException.class, () -> get(1));
+        assertTrue(resolver.isEjected(address(4)));
+        // 没有其他地址时仍然尝试被排除的地址
+        assertThrows(ConnectException.class, () -> get(1));
+    }
+
+    @Test
+    void expiredResultIsLookedUpAgain() throws Exception {
+        int port = startServers(2);
+        AtomicInteger lookups = new AtomicInteger();
+        HttpClient.setDnsResolver(new HttpClient.DnsResolver()
+                .setTtl(100, TimeUnit.MILLISECONDS)
+                .setLookup(host -> Collections.singletonList(address(lookups.incrementAndGet()))));
+        useNio();
+        assertEquals("1", get(port));
+        assertEquals("1", get(port));
+        assertEquals(1, lookups.get());
+        Thread.sleep(150);
+        assertEquals("2", get(port));
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    void emptyLookupFailsWithUnknownHost() {
+        HttpClient.setDnsResolver(new HttpClient.DnsResolver().setLookup(host -> Collections.emptyList()));
+        useNio();
+        assertThrows(UnknownHostException.class, () -> get(80));
+    }
+
+    @Test
+    void leastInFlightAvoidsBusyAddress() throws Exception {
+        // 127.0.0.1 上的请求等待 release，127.0.0.2 立即返回
+        TestServer busy = TestServer.start(address(1), 0, exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, "1");
+        });
+        servers.add(busy);
+        int port = busy.port();
+        servers.add(TestServer.start(address(2), port, exchange -> TestServer.respond(exchange, 200, "2")));
+        HttpClient.setDnsResolver(new HttpClient.DnsResolver()
+                .setBalance(HttpClient.DnsResolver.Balance.LEAST_IN_FLIGHT)
+                .setLookup(host -> Arrays.asList(address(1), address(2))));
+        useNio();
+        CompletableFuture<HttpClient.Response> pending = null;
+        for (int i = 0; i < 6; i++) {
+            CompletableFuture<HttpClient.Response> future = HttpClient.executeAsync(new HttpClient.Request("GET", "http://" + HOST + ":" + port + "/"));
+            if (pending == null) {
+                // 轮询到忙的地址前请求都很快完成
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (!future.isDone() && busy.requests.get() == 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                if (!future.isDone()) {
+                    pending = future;
+                    continue;
+                }
+            }
+            assertEquals("2", future.get(5, TimeUnit.SECONDS).getBodyAsString());
+        }
+        assertEquals(1, busy.requests.get());
+        release.countDown();
+        assertEquals("1", pending.get(5, TimeUnit.SECONDS).getBodyAsString());
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class EncodingTest {
+    /** 非 ASCII、代理对、空格、保留字符、控制字符和不成对的代理字符 */
+    private static final String[] VALUES = {
+            "plain", "", "a b  c", "中文参数", "café", "😀 and 𝄞", "!\"#$%&'()*+,/:;<=>?@[\\]^`{|}~",
+            "-_.*", "line\r\nbreak\ttab", "\uD800", "x\uDC00y", "􏿿", "ÿ\u0080߿ࠀ￿",
+    };
+
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+    }
+
+    /** 返回原始查询串、请求体长度和请求体的服务端 */
+    private static TestServer server() throws Exception {
+        return TestServer.start(exchange -> TestServer.respond(exchange, 200, exchange.getRequestURI().getRawQuery()
+                + "\n" + exchange.getRequestHeaders().getFirst("Content-Length") + "\n" + TestServer.readBody(exchange)));
+    }
+
+    private static HttpClient.Entry params() {
+        HttpClient.Entry params = new HttpClient.Entry();
+        for (int i = 0; i < VALUES.length; i++) {
+            params.setKeyValue("key " + i + VALUES[(i + 1) % VALUES.length], VALUES[i]);
+        }
+        return params.setKeyValue("nullValue", null);
+    }
+
+    private static String expected() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < VALUES.length; i++) {
+            expected.append(URLEncoder.encode("key " + i + VALUES[(i + 1) % VALUES.length], "UTF-8"))
+                    .append('=').append(URLEncoder.encode(VALUES[i], "UTF-8")).append('&');
+        }
+        return expected.append("nullValue=null").toString();
+    }
+
+    private static void assertEncodedLikeUrlEncoder(TestServer server) throws Exception {
+        String expected = expected();
+        String[] get = HttpClient.execute(new HttpClient.Request("GET", server.url("/search")).setParams(params()))
+                .getBodyAsString().split("\n", 3);
+        assertEquals(expected, get[0]);
+        get = HttpClient.execute(new HttpClient.Request("GET", server.url("/search?fixed=1")).setParams(params()))
+                .getBodyAsString().split("\n", 3);
+        assertEquals("fixed=1&" + expected, get[0]);
+
+        String[] post = HttpClient.execute(new HttpClient.Request("POST", server.url("/form")).setParams(params()))
+                .getBodyAsString().split("\n", 3);
+        assertEquals(expected, post[2]);
+        // 请求体长度按 UTF-8 字节计算
+        assertEquals(String.valueOf(expected.getBytes(StandardCharsets.UTF_8).length), post[1]);
+    }
+
+    @Test
+    void paramsMatchUrlEncoderOnUrlConnection() throws Exception {
+        try (TestServer server = server()) {
+            assertEncodedLikeUrlEncoder(server);
+        }
+    }
+
+    @Test
+    void paramsMatchUrlEncoderOnNio() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertEncodedLikeUrlEncoder(server);
+        }
+    }
+
+    @Test
+    void eachValueMatchesUrlEncoder() throws Exception {
+        try (TestServer server = server()) {
+            for (String value : VALUES) {
+                String encoded = URLEncoder.encode(value, "UTF-8");
+                HttpClient.Entry params = new HttpClient.Entry().setKeyValue("v", value);
+                assertEquals("v=" + encoded, HttpClient.execute(new HttpClient.Request("GET", server.url("/"))
+                        .setParams(params)).getBodyAsString().split("\n", 3)[0], value);
+                assertEquals("v=" + encoded, HttpClient.execute(new HttpClient.Request("POST", server.url("/"))
+                        .setParams(params)).getBodyAsString().split("\n", 3)[2], value);
+            }
+        }
+    }
+}
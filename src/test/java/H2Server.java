@@ -0,0 +1,489 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的 h2c（prior knowledge）服务端。每个连接一个读取线程，请求结束后在新线程中调用处理器，
+ * 处理器可以阻塞，以观察同一连接上的多个流。请求头的 HPACK 解码只支持客户端使用的不加入索引的字面量，
+ * 响应头由处理器给出编码后的字节，用于构造动态表和 Huffman 编码的首部
+ */
+final class H2Server implements AutoCloseable {
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+    private static final int END_STREAM = 0x1;
+    private static final int END_HEADERS = 0x4;
+    static final int REFUSED_STREAM = 0x7;
+    private static final int DEFAULT_WINDOW = 65535;
+
+    /** 静态表的名称，索引从 1 开始 */
+    private static final String[] STATIC_NAMES = {
+            ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme", ":status", ":status", ":status",
+            ":status", ":status", ":status", ":status", "accept-charset", "accept-encoding", "accept-language", "accept-ranges",
+            "accept", "access-control-allow-origin", "age", "allow", "authorization", "cache-control", "content-disposition",
+            "content-encoding", "content-language", "content-length", "content-location", "content-range", "content-type",
+            "cookie", "date", "etag", "expect", "expires", "from", "host", "if-match", "if-modified-since", "if-none-match",
+            "if-range", "if-unmodified-since", "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+            "proxy-authorization", "range", "referer", "refresh", "retry-after", "server", "set-cookie",
+            "strict-transport-security", "transfer-encoding", "user-agent", "vary", "via", "www-authenticate"
+    };
+
+    interface Handler {
+        void handle(Stream stream) throws Exception;
+    }
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final int initialWindow;
+    /** 为 0 时接收 DATA 后不更新窗口，直到 {@link #openWindow()} */
+    private final CountDownLatch windowOpen;
+    final List<Connection> connections = new CopyOnWriteArrayList<>();
+    /** 同时在处理器中的流的最大数 */
+    final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+
+    H2Server(Handler handler) throws IOException {
+        this(handler, DEFAULT_WINDOW, true);
+    }
+
+    /**
+     * @param initialWindow 通知客户端的每个流的初始窗口
+     * @param updateWindow  是否在接收 DATA 后立即更新窗口，为 false 时等待 {@link #openWindow()}
+     */
+    H2Server(Handler handler, int initialWindow, boolean updateWindow) throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.handler = handler;
+        this.initialWindow = initialWindow;
+        this.windowOpen = new CountDownLatch(updateWindow ? 0 : 1);
+        Thread acceptor = new Thread(this::accept, "h2-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /** 开始更新窗口，并补发之前接收的数据对应的窗口 */
+    void openWindow() {
+        windowOpen.countDown();
+        for (Connection connection : connections) {
+            connection.flushWindow();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Connection connection = new Connection(socket, connections.size() + 1);
+                connections.add(connection);
+                Thread thread = new Thread(connection, "h2-server-" + connection.index);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.socket.close();
+        }
+    }
+
+    /** 响应头的 HPACK 编码 */
+    static final class Headers {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /** 静态表或动态表中的条目 */
+        Headers indexed(int index) {
+            writeInt(0x80, 7, index);
+            return this;
+        }
+
+        /** 加入动态表的字面量 */
+        Headers incremental(String name, String value) {
+            out.write(0x40);
+            string(name);
+            string(value);
+            return this;
+        }
+
+        /** 加入动态表的字面量，名称和值为 Huffman 编码后的字节，名称为静态表索引时 name 为 null */
+        Headers incrementalHuffman(int nameIndex, byte[] name, byte[] value) {
+            writeInt(0x40, 6, nameIndex);
+            if (nameIndex == 0) {
+                huffman(name);
+            }
+            huffman(value);
+            return this;
+        }
+
+        /** 不加入动态表的字面量 */
+        Headers literal(String name, String value) {
+            out.write(0);
+            string(name);
+            string(value);
+            return this;
+        }
+
+        Headers tableSizeUpdate(int size) {
+            writeInt(0x20, 5, size);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            writeInt(0, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void huffman(byte[] bytes) {
+            writeInt(0x80, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        private void writeInt(int flags, int prefixBits, int value) {
+            int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                out.write(flags | value);
+                return;
+            }
+            out.write(flags | max);
+            value -= max;
+            while (value >= 0x80) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+
+    /** 一个请求 */
+    final class Stream {
+        final Connection connection;
+        final int id;
+        final Map<String, String> headers = new HashMap<>();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        Stream(Connection connection, int id) {
+            this.connection = connection;
+            this.id = id;
+        }
+
+        String path() {
+            return headers.get(":path");
+        }
+
+        byte[] body() {
+            synchronized (body) {
+                return body.toByteArray();
+            }
+        }
+
+        /** 响应状态码和响应体，status 之后加上 extraHeaders 中已编码的首部 */
+        void respond(int status, byte[] extraHeaders, byte[] data) throws IOException {
+            Headers block = new Headers();
+            if (status == 200) {
+                block.indexed(8);
+            } else {
+                block.literal(":status", String.valueOf(status));
+            }
+            byte[] head = block.toByteArray();
+            byte[] all = new byte[head.length + extraHeaders.length];
+            System.arraycopy(head, 0, all, 0, head.length);
+            System.arraycopy(extraHeaders, 0, all, head.length, extraHeaders.length);
+            synchronized (connection) {
+                connection.writeFrame(HEADERS, END_HEADERS | (data.length == 0 ? END_STREAM : 0), id, all, 0, all.length);
+                for (int offset = 0; offset < data.length; offset += 16384) {
+                    int length = Math.min(16384, data.length - offset);
+                    connection.writeFrame(DATA, offset + length == data.length ? END_STREAM : 0, id, data, offset, length);
+                }
+                connection.out.flush();
+            }
+        }
+
+        void respond(int status, String text) throws IOException {
+            respond(status, new byte[0], text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void reset(int errorCode) throws IOException {
+            byte[] payload = new byte[4];
+            writeInt(payload, 0, errorCode);
+            synchronized (connection) {
+                connection.writeFrame(RST_STREAM, 0, id, payload, 0, payload.length);
+                connection.out.flush();
+            }
+        }
+    }
+
+    /** 一个连接，写入使用连接对象加锁 */
+    final class Connection implements Runnable {
+        private final Socket socket;
+        /** 连接序号，从 1 开始 */
+        final int index;
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final Map<Integer, Stream> streams = new HashMap<>();
+        /** 等待补发的窗口，使用连接对象加锁 */
+        private final Map<Integer, Integer> pendingWindow = new HashMap<>();
+        /** 收到的请求体字节数 */
+        final AtomicInteger received = new AtomicInteger();
+
+        Connection(Socket socket, int index) throws IOException {
+            this.socket = socket;
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.out = socket.getOutputStream();
+        }
+
+        /** 发送 GOAWAY，lastStreamId 之后的流没有处理 */
+        void goAway(int lastStreamId, int errorCode) throws IOException {
+            byte[] payload = new byte[8];
+            writeInt(payload, 0, lastStreamId);
+            writeInt(payload, 4, errorCode);
+            synchronized (this) {
+                writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+                out.flush();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] preface = new byte[24];
+                in.readFully(preface);
+                byte[] settings = new byte[6];
+                settings[1] = 0x4;
+                writeInt(settings, 2, initialWindow);
+                synchronized (this) {
+                    writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+                    out.flush();
+                }
+                ByteArrayOutputStream headerBlock = null;
+                int headerStream = 0;
+                boolean headerEndStream = false;
+                while (true) {
+                    int length = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                    int type = in.readUnsignedByte();
+                    int flags = in.readUnsignedByte();
+                    int streamId = in.readInt() & 0x7fffffff;
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    switch (type) {
+                        case SETTINGS:
+                            if ((flags & 0x1) == 0) {
+                                synchronized (this) {
+                                    writeFrame(SETTINGS, 0x1, 0, new byte[0], 0, 0);
+                                    out.flush();
+                                }
+                            }
+                            break;
+                        case PING:
+                            if ((flags & 0x1) == 0) {
+                                synchronized (this) {
+                                    writeFrame(PING, 0x1, 0, payload, 0, payload.length);
+                                    out.flush();
+                                }
+                            }
+                            break;
+                        case HEADERS:
+                            headerBlock = new ByteArrayOutputStream();
+                            headerBlock.write(payload, 0, payload.length);
+                            headerStream = streamId;
+                            headerEndStream = (flags & END_STREAM) != 0;
+                            // fall through
+                        case CONTINUATION:
+                            if (type == CONTINUATION) {
+                                headerBlock.write(payload, 0, payload.length);
+                            }
+                            if ((flags & END_HEADERS) != 0) {
+                                Stream stream = new Stream(this, headerStream);
+                                decode(headerBlock.toByteArray(), stream.headers);
+                                synchronized (this) {
+                                    streams.put(headerStream, stream);
+                                }
+                                if (headerEndStream) {
+                                    dispatch(stream);
+                                }
+                            }
+                            break;
+                        case DATA:
+                            Stream stream;
+                            synchronized (this) {
+                                stream = streams.get(streamId);
+                            }
+                            if (stream != null) {
+                                synchronized (stream.body) {
+                                    stream.body.write(payload, 0, payload.length);
+                                }
+                            }
+                            received.addAndGet(length);
+                            updateWindow(streamId, length);
+                            if (stream != null && (flags & END_STREAM) != 0) {
+                                dispatch(stream);
+                            }
+                            break;
+                        case RST_STREAM:
+                            synchronized (this) {
+                                streams.remove(streamId);
+                            }
+                            break;
+                        case GOAWAY:
+                            return;
+                        default:
+                            // WINDOW_UPDATE 等，响应很小，不处理发送窗口
+                            break;
+                    }
+                }
+            } catch (EOFException e) {
+                // 客户端关闭连接
+            } catch (IOException e) {
+                // 连接关闭
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // ignore
+                }
+            }
+        }
+
+        private void updateWindow(int streamId, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            synchronized (this) {
+                if (windowOpen.getCount() > 0) {
+                    pendingWindow.merge(0, length, Integer::sum);
+                    pendingWindow.merge(streamId, length, Integer::sum);
+                    return;
+                }
+                writeWindowUpdate(0, length);
+                writeWindowUpdate(streamId, length);
+                out.flush();
+            }
+        }
+
+        synchronized void flushWindow() {
+            try {
+                for (Map.Entry<Integer, Integer> window : pendingWindow.entrySet()) {
+                    writeWindowUpdate(window.getKey(), window.getValue());
+                }
+                pendingWindow.clear();
+                out.flush();
+            } catch (IOException ignored) {
+                // 连接关闭
+            }
+        }
+
+        private void writeWindowUpdate(int streamId, int increment) throws IOException {
+            byte[] payload = new byte[4];
+            writeInt(payload, 0, increment);
+            writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+        }
+
+        private void dispatch(Stream stream) {
+            Thread thread = new Thread(() -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    handler.handle(stream);
+                } catch (Exception e) {
+                    // 连接关闭或处理器失败，客户端按连接关闭处理
+                } finally {
+                    active.decrementAndGet();
+                    synchronized (this) {
+                        streams.remove(stream.id);
+                    }
+                }
+            }, "h2-server-stream-" + stream.id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) throws IOException {
+            byte[] header = new byte[9];
+            header[0] = (byte) (length >>> 16);
+            header[1] = (byte) (length >>> 8);
+            header[2] = (byte) length;
+            header[3] = (byte) type;
+            header[4] = (byte) flags;
+            writeInt(header, 5, streamId);
+            out.write(header);
+            out.write(payload, offset, length);
+        }
+    }
+
+    /** 解码客户端的请求头：不加入索引的字面量，名称可以是静态表索引，不使用 Huffman 编码 */
+    private static void decode(byte[] block, Map<String, String> headers) throws IOException {
+        int[] position = {0};
+        while (position[0] < block.length) {
+            int b = block[position[0]] & 0xff;
+            if ((b & 0xe0) != 0) {
+                throw new IOException("Unexpected HPACK representation: " + Integer.toHexString(b));
+            }
+            int index = readInt(block, position, 4);
+            String name = index == 0 ? readString(block, position) : STATIC_NAMES[index - 1];
+            headers.put(name, readString(block, position));
+        }
+    }
+
+    private static String readString(byte[] block, int[] position) throws IOException {
+        if ((block[position[0]] & 0x80) != 0) {
+            throw new IOException("Unexpected Huffman string");
+        }
+        int length = readInt(block, position, 7);
+        String value = new String(block, position[0], length, StandardCharsets.ISO_8859_1);
+        position[0] += length;
+        return value;
+    }
+
+    private static int readInt(byte[] block, int[] position, int prefixBits) {
+        int max = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        int shift = 0;
+        int b;
+        do {
+            b = block[position[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HedgePolicyTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private HttpClient.EventListener listener;
+
+    @AfterEach
+    void reset() {
+        release.countDown();
+        HttpClient.setHedgePolicy(null);
+        if (listener != null) {
+            HttpClient.removeEventListener(listener);
+        }
+    }
+
+    /** 第一个请求等待 release，之后的请求立即返回请求序号 */
+    private TestServer slowFirst() throws IOException {
+        AtomicInteger count = new AtomicInteger();
+        return TestServer.start(exchange -> {
+            int n = count.incrementAndGet();
+            if (n == 1) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            TestServer.respond(exchange, 200, String.valueOf(n));
+        });
+    }
+
+    private static HttpClient.HedgePolicy policy() {
+        return new HttpClient.HedgePolicy().setDelay(50, TimeUnit.MILLISECONDS).setPercentile(0);
+    }
+
+    @Test
+    void hedgeAfterDelayWinsAndLoserIsCancelled() throws Exception {
+        List<String> failures = new CopyOnWriteArrayList<>();
+        listener = new HttpClient.EventListener() {
+            @Override
+            public void callFailed(HttpClient.CallMetrics call, Throwable e) {
+                failures.add(e.getClass().getSimpleName());
+            }
+        };
+        HttpClient.addEventListener(listener);
+        try (TestServer server = slowFirst()) {
+            HttpClient.setHedgePolicy(policy());
+            long start = System.nanoTime();
+            HttpClient.Response response = HttpClient.execute(new HttpClient.Request("GET", server.url("/")));
+            long elapsed = System.nanoTime() - start;
+            assertEquals("2", response.getBodyAsString());
+            assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(50), "elapsed " + elapsed);
+            assertTrue(elapsed < TimeUnit.SECONDS.toNanos(2), "elapsed " + elapsed);
+            assertEquals(2, server.requests.get());
+            // 先发出的请求被取消，不等服务端返回就结束
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (failures.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, failures.size(), failures.toString());
+        }
+    }
+
+    @Test
+    void fastResponseIsNotHedged() throws Exception {
+        try (TestServer server = TestServer.start(exchange -> TestServer.respond(exchange, 200, "fast"))) {
+            HttpClient.setHedgePolicy(policy().setDelay(500, TimeUnit.MILLISECONDS));
+            assertEquals("fast", HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/"))).get(5, TimeUnit.SECONDS).getBodyAsString());
+            Thread.sleep(600);
+            assertEquals(1, server.requests.get());
+        }
+    }
+
+    @Test
+    void onlyGetIsHedged() throws Exception {
+        try (TestServer server = slowFirst()) {
+            HttpClient.setHedgePolicy(policy());
+            Thread releaser = new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {
+                    // 结束
+                }
+                release.countDown();
+            });
+            releaser.start();
+            assertEquals("1", HttpClient.execute(new HttpClient.Request("POST", server.url("/"))).getBodyAsString());
+            assertEquals(1, server.requests.get());
+        }
+    }
+
+    @Test
+    void hedgeBudgetLimitsExtraRequests() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        try (TestServer server = TestServer.start(exchange -> {
+            // 奇数序号的请求慢，对冲请求为偶数序号
+            if (count.incrementAndGet() % 2 == 1) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            HttpClient.setHedgePolicy(policy().setHedgeBudget(1, 0));
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/a")));
+            assertEquals(2, server.requests.get());
+            long start = System.nanoTime();
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/b")));
+            // 令牌用完，只能等待慢的请求
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+            Thread.sleep(100);
+            assertEquals(3, server.requests.get());
+        }
+    }
+
+    @Test
+    void fastFailureHedgesImmediatelyToAlternateHost() throws Exception {
+        int dead;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            dead = socket.getLocalPort();
+        }
+        try (TestServer alternate = TestServer.start(exchange -> TestServer.respond(exchange, 200, "alternate"))) {
+            // 主机的连接被拒绝，不等 2 秒的延迟就向备用主机发出对冲请求
+            HttpClient.setHedgePolicy(policy().setDelay(2, TimeUnit.SECONDS)
+                    .setAlternateHosts("127.0.0.1:" + dead, "127.0.0.1:" + alternate.port()));
+            long start = System.nanoTime();
+            assertEquals("alternate", HttpClient.execute(new HttpClient.Request("GET", "http://127.0.0.1:" + dead + "/")).getBodyAsString());
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "waited for the hedge delay");
+            assertEquals(1, alternate.requests.get());
+        }
+    }
+
+    @Test
+    void failsWhenNoHedgeIsLeft() throws Exception {
+        int dead;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            dead = socket.getLocalPort();
+        }
+        HttpClient.setHedgePolicy(policy().setDelay(2, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        assertThrows(ConnectException.class, () -> HttpClient.execute(new HttpClient.Request("GET", "http://127.0.0.1:" + dead + "/")));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "waited for the hedge delay");
+    }
+
+    @Test
+    void hedgeGoesToAlternateHost() throws Exception {
+        try (TestServer primary = slowFirst();
+             TestServer alternate = TestServer.start(exchange -> TestServer.respond(exchange, 200, "alternate " + exchange.getRequestURI()))) {
+            HttpClient.setHedgePolicy(policy().setAlternateHosts("127.0.0.1:" + primary.port(), "127.0.0.1:" + alternate.port()));
+            assertEquals("alternate /path?q=1", HttpClient.execute(new HttpClient.Request("GET", primary.url("/path?q=1"))).getBodyAsString());
+            assertEquals(1, primary.requests.get());
+            assertEquals(1, alternate.requests.get());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Http2TransportTest {
+    private final HttpClient.Http2Transport h2 = new HttpClient.Http2Transport();
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        HttpClient.setRetryPolicy(null);
+        h2.close();
+    }
+
+    private static byte[] hex(String text) {
+        byte[] bytes = new byte[text.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(text.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    void multiplexesConcurrentRequestsOnOneConnection() throws Exception {
+        CountDownLatch all = new CountDownLatch(5);
+        try (H2Server server = new H2Server(stream -> {
+            // 5 个请求都到达后才响应，只有同时打开多个流时才能完成
+            all.countDown();
+            all.await(5, TimeUnit.SECONDS);
+            stream.respond(200, stream.path());
+        })) {
+            HttpClient.setTransport(h2);
+            List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/" + i))));
+            }
+            for (int i = 0; i < 5; i++) {
+                assertEquals("/" + i, futures.get(i).get(5, TimeUnit.SECONDS).getBodyAsString());
+            }
+            assertEquals(1, server.connections.size());
+            assertEquals(5, server.maxActive.get());
+        }
+    }
+
+    @Test
+    void asyncRequestDoesNotBlockCallerOnFlowControl() throws Exception {
+        byte[] body = new byte[200 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) (i * 31);
+        }
+        try (H2Server server = new H2Server(stream -> {
+            byte[] received = stream.body();
+            stream.respond(200, received.length + " " + Arrays.equals(body, received));
+        }, 16384, false)) {
+            long start = System.nanoTime();
+            CompletableFuture<HttpClient.Exchange> future = h2.executeAsync("POST", server.url("/upload"),
+                    Collections.singletonMap("content-type", "application/octet-stream"), HttpClient.Body.of(body));
+            // 窗口没有更新前请求体发送不完，调用线程不等待
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500), "executeAsync blocked");
+            Thread.sleep(200);
+            assertFalse(future.isDone());
+            int received = server.connections.get(0).received.get();
+            assertTrue(received > 0 && received <= 65535, "received " + received);
+
+            server.openWindow();
+            try (HttpClient.Exchange exchange = future.get(5, TimeUnit.SECONDS)) {
+                assertEquals(200, exchange.getCode());
+                assertEquals(body.length + " true", new String(readAll(exchange.getBody()), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    void largeBodyIsSentAsWindowUpdatesArrive() throws Exception {
+        byte[] body = new byte[300 * 1024];
+        Arrays.fill(body, (byte) 'x');
+        try (H2Server server = new H2Server(stream -> stream.respond(200, new byte[0], stream.body()), 8192, true)) {
+            HttpClient.setTransport(h2);
+            HttpClient.Response response = HttpClient.execute(new HttpClient.Request("POST", server.url("/echo")).setBody(HttpClient.Body.of(body)));
+            assertArrayEquals(body, response.getBody());
+        }
+    }
+
+    @Test
+    void streamsAfterGoAwayAreRetriedOnNewConnection() throws Exception {
+        try (H2Server server = new H2Server(stream -> {
+            if (stream.connection.index == 1 && stream.path().equals("/second")) {
+                // 只处理了第一个流
+                stream.connection.goAway(stream.id - 2, 0);
+                return;
+            }
+            stream.respond(200, stream.path() + " on " + stream.connection.index);
+        })) {
+            HttpClient.setTransport(h2);
+            assertEquals("/first on 1", HttpClient.execute(new HttpClient.Request("GET", server.url("/first"))).getBodyAsString());
+            HttpClient.setRetryPolicy(new HttpClient.RetryPolicy().setBackoff(1, 10, TimeUnit.MILLISECONDS));
+            assertEquals("/second on 2", HttpClient.execute(new HttpClient.Request("GET", server.url("/second"))).getBodyAsString());
+            assertEquals("/third on 2", HttpClient.execute(new HttpClient.Request("GET", server.url("/third"))).getBodyAsString());
+            assertEquals(2, server.connections.size());
+        }
+    }
+
+    @Test
+    void refusedStreamIsRetriedEvenForPost() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        Set<String> refused = ConcurrentHashMap.newKeySet();
+        try (H2Server server = new H2Server(stream -> {
+            attempts.incrementAndGet();
+            // 每个地址的第一个请求被拒绝
+            if (refused.add(stream.path())) {
+                stream.reset(H2Server.REFUSED_STREAM);
+            } else {
+                stream.respond(200, new String(stream.body(), StandardCharsets.UTF_8));
+            }
+        })) {
+            HttpClient.setTransport(h2);
+            HttpClient.Request request = new HttpClient.Request("POST", server.url("/a")).setBody(HttpClient.Body.of("data".getBytes(StandardCharsets.UTF_8)));
+            assertThrows(ConnectException.class, () -> HttpClient.execute(request));
+            HttpClient.setRetryPolicy(new HttpClient.RetryPolicy().setBackoff(1, 10, TimeUnit.MILLISECONDS));
+            assertEquals("data", HttpClient.execute(new HttpClient.Request("POST", server.url("/b"))
+                    .setBody(HttpClient.Body.of("data".getBytes(StandardCharsets.UTF_8)))).getBodyAsString());
+            assertEquals(3, attempts.get());
+            // 被拒绝的流不影响连接
+            assertEquals(1, server.connections.size());
+        }
+    }
+
+    @Test
+    void decodesDynamicTableAndHuffmanResponseHeaders() throws Exception {
+        try (H2Server server = new H2Server(stream -> {
+            H2Server.Headers headers = new H2Server.Headers();
+            switch (stream.path()) {
+                case "/1":
+                    // RFC 7541 C.4 的 Huffman 编码："custom-key: custom-value"，"cache-control: private"
+                    headers.incrementalHuffman(0, hex("25a849e95ba97d7f"), hex("25a849e95bb8e8b4bf"))
+                            .incrementalHuffman(24, null, hex("aec3771a4b"));
+                    break;
+                case "/2":
+                    // 动态表中最新的条目索引为 62
+                    headers.indexed(62).indexed(63);
+                    break;
+                default:
+                    // 清空动态表后重新加入条目，"cache-control: no-cache"
+                    headers.tableSizeUpdate(0).tableSizeUpdate(4096)
+                            .incremental("x-new", "1")
+                            .incrementalHuffman(24, null, hex("a8eb10649cbf"))
+                            .indexed(63);
+                    break;
+            }
+            stream.respond(200, headers.toByteArray(), stream.path().getBytes(StandardCharsets.UTF_8));
+        })) {
+            HttpClient.setTransport(h2);
+            HttpClient.Response first = HttpClient.execute(new HttpClient.Request("GET", server.url("/1")));
+            assertEquals("custom-value", first.getHeader("custom-key"));
+            assertEquals("private", first.getHeader("cache-control"));
+
+            HttpClient.Response second = HttpClient.execute(new HttpClient.Request("GET", server.url("/2")));
+            assertEquals("custom-value", second.getHeader("custom-key"));
+            assertEquals("private", second.getHeader("cache-control"));
+            assertEquals("/2", second.getBodyAsString());
+
+            HttpClient.Response third = HttpClient.execute(new HttpClient.Request("GET", server.url("/3")));
+            assertNull(third.getHeader("custom-key"));
+            assertEquals("no-cache", third.getHeader("cache-control"));
+            assertEquals(Arrays.asList("1", "1"), third.getHeaders().get("x-new"));
+            assertEquals(1, server.connections.size());
+        }
+    }
+}
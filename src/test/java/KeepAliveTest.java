@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KeepAliveTest {
+    private static final String OK = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello";
+    private static final String NOT_FOUND = "HTTP/1.1 404 Not Found\r\nContent-Length: 9\r\n\r\nnot found";
+    private static final String ERROR = "HTTP/1.1 500 Internal Server Error\r\nContent-Length: 5\r\n\r\nerror";
+
+    @AfterEach
+    void reset() {
+        HttpClient.setKeepAlive(true);
+    }
+
+    private static String respond(String requestLine) {
+        if (requestLine.contains("/missing")) {
+            return NOT_FOUND;
+        }
+        return requestLine.contains("/error") ? ERROR : OK;
+    }
+
+    private static HttpClient.Response get(RawServer server, String path) throws Exception {
+        return HttpClient.execute(new HttpClient.Request("GET", server.url(path)));
+    }
+
+    @Test
+    void successfulResponsesReuseConnection() throws Exception {
+        try (RawServer server = new RawServer(KeepAliveTest::respond)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals("hello", get(server, "/").getBodyAsString());
+            }
+            assertEquals(1, server.connections());
+        }
+    }
+
+    @Test
+    void errorResponsesAreDrainedAndConnectionReused() throws Exception {
+        try (RawServer server = new RawServer(KeepAliveTest::respond)) {
+            // 错误响应体读尽后连接归还，下一个请求仍在同一连接上发送
+            for (int i = 0; i < 5; i++) {
+                assertEquals(404, get(server, "/missing").getCode());
+                assertEquals(500, get(server, "/error").getCode());
+                assertEquals("hello", get(server, "/").getBodyAsString());
+            }
+            assertEquals(1, server.connections());
+            assertEquals(15, server.requests.size());
+        }
+    }
+
+    @Test
+    void unreadStreamingBodyIsDrainedOnClose() throws Exception {
+        try (RawServer server = new RawServer(KeepAliveTest::respond)) {
+            // 回调只读一个字节，其余响应体在关闭时读尽
+            HttpClient.getStream(server.url("/"), null, null, body -> assertEquals('h', body.read()));
+            assertEquals("hello", get(server, "/").getBodyAsString());
+            assertEquals(1, server.connections());
+        }
+    }
+
+    @Test
+    void disabledKeepAliveOpensConnectionPerRequest() throws Exception {
+        try (RawServer server = new RawServer(KeepAliveTest::respond)) {
+            HttpClient.setKeepAlive(false);
+            for (int i = 0; i < 3; i++) {
+                assertEquals("hello", get(server, "/").getBodyAsString());
+                assertEquals(404, get(server, "/missing").getCode());
+            }
+            assertEquals(6, server.connections(), server.requests.toString());
+        }
+    }
+}
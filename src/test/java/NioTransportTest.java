@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioTransportTest {
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+    }
+
+    @Test
+    void rejectsHeaderInjection() throws Exception {
+        AtomicInteger injected = new AtomicInteger();
+        try (TestServer server = TestServer.start(exchange -> {
+            if (exchange.getRequestHeaders().containsKey("Injected")) {
+                injected.incrementAndGet();
+            }
+            TestServer.respond(exchange, 200, "ok");
+        })) {
+            nio = new HttpClient.NioTransport();
+            for (HttpClient.Transport transport : new HttpClient.Transport[]{new HttpClient.UrlConnectionTransport(), nio}) {
+                HttpClient.setTransport(transport);
+                HttpClient.Entry value = new HttpClient.Entry().setKeyValue("X-Test", "a\r\nInjected: yes");
+                assertThrows(IllegalArgumentException.class, () -> HttpClient.execute("GET", server.url("/"), null, value));
+                HttpClient.Entry name = new HttpClient.Entry().setKeyValue("X-Test\r\nInjected", "yes");
+                assertThrows(IllegalArgumentException.class, () -> HttpClient.execute("GET", server.url("/"), null, name));
+                HttpClient.Entry nul = new HttpClient.Entry().setKeyValue("X-Test", "a\0b");
+                ExecutionException e = assertThrows(ExecutionException.class,
+                        () -> HttpClient.executeAsync("GET", server.url("/"), null, nul).get(5, TimeUnit.SECONDS));
+                assertTrue(e.getCause() instanceof IllegalArgumentException, e.getCause().toString());
+            }
+            assertThrows(IllegalArgumentException.class, () -> nio.execute("GET", server.url("/a\r\nInjected:%20yes"), Collections.emptyMap(), null));
+            assertEquals(0, injected.get());
+            assertEquals(0, server.requests.get());
+        }
+    }
+
+    @Test
+    void nextRequestReusesConnectionAfterFixedLengthBody() throws Exception {
+        try (RawServer server = new RawServer(requestLine -> "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhello")) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            // 读完 Content-Length 长度的响应体时连接已归还，紧接着的请求不会建立新连接
+            for (int i = 0; i < 200; i++) {
+                assertEquals("hello", HttpClient.execute(new HttpClient.Request("GET", server.url("/" + i))).getBodyAsString());
+            }
+            assertEquals(1, server.connections());
+        }
+    }
+
+    @Test
+    void negativeLengthsFailTheRequestAndKeepTheEventLoopAlive() throws Exception {
+        try (RawServer server = new RawServer(requestLine -> {
+            if (requestLine.contains("/negative-length")) {
+                return "HTTP/1.1 200 OK\r\nContent-Length: -1\r\n\r\nabc";
+            }
+            if (requestLine.contains("/negative-chunk")) {
+                return "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-5\r\nabc\r\n0\r\n\r\n";
+            }
+            return "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok";
+        })) {
+            // 只有一个事件循环，出错后同一个线程必须还能处理后面的请求
+            nio = new HttpClient.NioTransport(1, 4, 30000);
+            HttpClient.setTransport(nio);
+            for (String path : new String[]{"/negative-length", "/negative-chunk"}) {
+                long start = System.nanoTime();
+                IOException e = assertThrows(IOException.class,
+                        () -> HttpClient.execute(new HttpClient.Request("GET", server.url(path)).setTimeout(2, TimeUnit.SECONDS)));
+                assertTrue(e.getMessage().startsWith("Invalid"), e.toString());
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2), "failed fast");
+                ExecutionException async = assertThrows(ExecutionException.class,
+                        () -> HttpClient.executeAsync(new HttpClient.Request("GET", server.url(path))).get(2, TimeUnit.SECONDS));
+                assertTrue(async.getCause() instanceof IOException, async.getCause().toString());
+            }
+            assertEquals("ok", HttpClient.execute(new HttpClient.Request("GET", server.url("/ok")).setTimeout(2, TimeUnit.SECONDS)).getBodyAsString());
+        }
+    }
+
+    @Test
+    void http2RejectsHeaderInjectionBeforeConnecting() {
+        HttpClient.Http2Transport h2 = new HttpClient.Http2Transport();
+        try {
+            Map<String, String> headers = Collections.singletonMap("x-test", "a\r\ninjected: yes");
+            // 端口 1 没有服务，编码首部块失败时不会尝试连接
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> h2.executeAsync("GET", "http://127.0.0.1:1/", headers, null).get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalArgumentException, e.getCause().toString());
+        } finally {
+            h2.close();
+        }
+    }
+}
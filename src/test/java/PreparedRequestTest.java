@@ -0,0 +1,243 @@
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreparedRequestTest {
+    /** 服务端返回的请求头 */
+    private static final String[] NAMES = {"Host", "Content-Type", "Accept-Encoding", "Connection", "Content-Encoding", "X-Token"};
+
+    private HttpClient.NioTransport nio;
+    private HttpClient.Http2Transport h2;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setCompression(false);
+        HttpClient.setKeepAlive(true);
+        HttpClient.setGzipRequestThreshold(-1);
+        HttpClient.setHedgePolicy(null);
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+        if (h2 != null) {
+            h2.close();
+        }
+    }
+
+    /** 请求方式、地址、指定的请求头和请求体，一行一项 */
+    private static String describe(String method, String uri, Function<String, String> header, byte[] body) {
+        StringBuilder text = new StringBuilder(method).append(' ').append(uri).append('\n');
+        for (String name : NAMES) {
+            text.append(name).append(": ").append(header.apply(name)).append('\n');
+        }
+        return text.append(new String(body, StandardCharsets.UTF_8)).toString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** 返回请求内容的服务端，压缩的请求体解压后返回 */
+    private static TestServer server() throws IOException {
+        return TestServer.start(exchange -> TestServer.respond(exchange, 200, describe(exchange)));
+    }
+
+    private static String describe(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        return describe(exchange.getRequestMethod(), exchange.getRequestURI().toString(), exchange.getRequestHeaders()::getFirst, readAll(in));
+    }
+
+    private static HttpClient.Entry headers() {
+        return new HttpClient.Entry().setKeyValue("X-Token", "secret").setKeyValue("Accept", "text/plain");
+    }
+
+    private static HttpClient.Body body(String text) {
+        return HttpClient.Body.of(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** 模板和普通请求发出的请求相同 */
+    private static void assertSameAsPlainRequest(String url) throws Exception {
+        HttpClient.PreparedRequest search = new HttpClient.PreparedRequest("get", url, headers());
+        for (String q : new String[]{"java", "a b", "中文"}) {
+            HttpClient.Entry params = new HttpClient.Entry().setKeyValue("q", q);
+            HttpClient.Response expected = HttpClient.execute(new HttpClient.Request("GET", url).setHeaders(headers()).setParams(params));
+            assertEquals(expected.getBodyAsString(), search.execute(params).getBodyAsString());
+        }
+        HttpClient.PreparedRequest upload = new HttpClient.PreparedRequest("POST", url, headers());
+        HttpClient.Entry form = new HttpClient.Entry().setKeyValue("name", "value");
+        assertEquals(HttpClient.execute(new HttpClient.Request("POST", url).setHeaders(headers()).setParams(form)).getBodyAsString(),
+                upload.execute(form).getBodyAsString());
+        for (String text : new String[]{"first", "second body"}) {
+            String expected = HttpClient.execute(new HttpClient.Request("POST", url).setHeaders(headers()).setBody(body(text))).getBodyAsString();
+            assertEquals(expected, upload.execute(body(text)).getBodyAsString());
+            assertEquals(expected, upload.executeAsync(body(text)).get(5, TimeUnit.SECONDS).getBodyAsString());
+        }
+    }
+
+    @Test
+    void sameRequestAsPlainRequestOnUrlConnection() throws Exception {
+        try (TestServer server = server()) {
+            assertSameAsPlainRequest(server.url("/search"));
+        }
+    }
+
+    @Test
+    void sameRequestAsPlainRequestOnNio() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertSameAsPlainRequest(server.url("/search"));
+        }
+    }
+
+    @Test
+    void sameRequestAsPlainRequestOnHttp2() throws Exception {
+        try (H2Server server = new H2Server(stream -> stream.respond(200, describe(stream.headers.get(":method"), stream.path(),
+                name -> stream.headers.get(name.toLowerCase()), stream.body())))) {
+            h2 = new HttpClient.Http2Transport();
+            HttpClient.setTransport(h2);
+            assertSameAsPlainRequest(server.url("/search"));
+        }
+    }
+
+    @Test
+    void headersAreCopiedAndUrlIsChecked() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.Entry headers = headers();
+            HttpClient.PreparedRequest prepared = new HttpClient.PreparedRequest("GET", server.url("/"), headers);
+            // 创建后修改请求头不影响模板
+            headers.setKeyValue("X-Token", "changed");
+            String text = prepared.execute((HttpClient.Entry) null).getBodyAsString();
+            assertTrue(text.contains("X-Token: secret\n"), text);
+            assertTrue(text.startsWith("GET /\n"), text);
+            assertEquals(HttpClient.execute(new HttpClient.Request("GET", server.url("/")).setHeaders(headers())).getBodyAsString(), text);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new HttpClient.PreparedRequest("GET", "not a url", null));
+        assertThrows(IllegalArgumentException.class, () -> new HttpClient.PreparedRequest("GET", " ", null));
+        assertThrows(IllegalArgumentException.class, () -> new HttpClient.PreparedRequest(null, "http://127.0.0.1/", null));
+    }
+
+    @Test
+    void templateHeaderOverridesDefaultMediaType() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.PreparedRequest json = new HttpClient.PreparedRequest("POST", server.url("/json"),
+                    headers().setKeyValue("content-type", "application/json"));
+            assertTrue(json.execute(body("{}")).getBodyAsString().contains("Content-Type: application/json\n"));
+            HttpClient.PreparedRequest plain = new HttpClient.PreparedRequest("POST", server.url("/plain"), headers());
+            assertTrue(plain.execute(body("x")).getBodyAsString().contains("Content-Type: application/octet-stream\n"));
+            assertTrue(plain.execute(new HttpClient.Entry().setKeyValue("a", "1")).getBodyAsString()
+                    .contains("Content-Type: application/x-www-form-urlencoded\n"));
+        }
+    }
+
+    @Test
+    void globalSettingChangesRebuildHeaders() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.PreparedRequest prepared = new HttpClient.PreparedRequest("GET", server.url("/"), headers());
+            String text = prepared.execute((HttpClient.Entry) null).getBodyAsString();
+            assertTrue(text.contains("Accept-Encoding: null\n") && text.contains("Connection: null\n"), text);
+
+            HttpClient.setCompression(true);
+            text = prepared.execute((HttpClient.Entry) null).getBodyAsString();
+            assertTrue(text.contains("Accept-Encoding: gzip, deflate\n"), text);
+
+            HttpClient.setKeepAlive(false);
+            text = prepared.execute((HttpClient.Entry) null).getBodyAsString();
+            assertTrue(text.contains("Connection: close\n"), text);
+
+            HttpClient.setCompression(false);
+            HttpClient.setKeepAlive(true);
+            text = prepared.execute((HttpClient.Entry) null).getBodyAsString();
+            assertTrue(text.contains("Accept-Encoding: null\n") && text.contains("Connection: null\n"), text);
+        }
+    }
+
+    @Test
+    void gzipRequestBodyFallsBackToMergedHeaders() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.PreparedRequest prepared = new HttpClient.PreparedRequest("POST", server.url("/upload"), headers());
+            HttpClient.setGzipRequestThreshold(0);
+            String text = prepared.execute(body("compressed body")).getBodyAsString();
+            assertTrue(text.contains("Content-Encoding: gzip\n") && text.contains("X-Token: secret\n"), text);
+            assertTrue(text.endsWith("\ncompressed body"), text);
+
+            HttpClient.setGzipRequestThreshold(-1);
+            text = prepared.execute(body("plain body")).getBodyAsString();
+            assertTrue(text.contains("Content-Encoding: null\n") && text.endsWith("\nplain body"), text);
+        }
+    }
+
+    @Test
+    void thresholdEnabledAfterTemplateIsUsed() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.PreparedRequest prepared = new HttpClient.PreparedRequest("POST", server.url("/upload"), headers());
+            // 先使用模板合并并缓存请求头，之后开启压缩，同步和异步请求都不修改模板的请求头
+            assertTrue(prepared.execute(body("plain")).getBodyAsString().endsWith("\nplain"));
+            assertTrue(prepared.executeAsync(body("plain")).get(5, TimeUnit.SECONDS).getBodyAsString().endsWith("\nplain"));
+            HttpClient.setGzipRequestThreshold(0);
+            for (String text : new String[]{
+                    prepared.execute(body("sync")).getBodyAsString(),
+                    prepared.executeAsync(body("async")).get(5, TimeUnit.SECONDS).getBodyAsString()}) {
+                assertTrue(text.contains("Content-Encoding: gzip\n") && text.contains("X-Token: secret\n"), text);
+            }
+            HttpClient.setGzipRequestThreshold(-1);
+            String text = prepared.execute(body("plain again")).getBodyAsString();
+            assertTrue(text.contains("Content-Encoding: null\n") && text.endsWith("\nplain again"), text);
+        }
+    }
+
+    @Test
+    void hedgeToAlternateHostSendsItsOwnHostHeader() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (TestServer primary = TestServer.start(exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TestServer.respond(exchange, 200, "primary");
+        }); TestServer alternate = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            HttpClient.setHedgePolicy(new HttpClient.HedgePolicy().setDelay(50, TimeUnit.MILLISECONDS).setPercentile(0)
+                    .setAlternateHosts("127.0.0.1:" + primary.port(), "127.0.0.1:" + alternate.port()));
+            // 发往主机的请求先编码并缓存了请求头，对冲请求按另一主机重新编码
+            HttpClient.PreparedRequest prepared = new HttpClient.PreparedRequest("GET", primary.url("/path"), headers());
+            String text = prepared.execute(new HttpClient.Entry().setKeyValue("q", "1")).getBodyAsString();
+            release.countDown();
+            assertTrue(text.startsWith("GET /path?q=1\n"), text);
+            assertTrue(text.contains("Host: 127.0.0.1:" + alternate.port() + "\n"), text);
+            assertTrue(text.contains("X-Token: secret\n"), text);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+
+    @AfterEach
+    void reset() {
+        HttpClient.setRateLimiter(null);
+        HttpClient.setExecutor(64, 1024, null);
+    }
+
+    private static TestServer server(List<Long> arrivals) throws Exception {
+        return TestServer.start(exchange -> {
+            arrivals.add(System.nanoTime());
+            TestServer.respond(exchange, 200, exchange.getRequestURI().getPath());
+        });
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Test
+    void requestsAreSpacedByInterval() throws Exception {
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        try (TestServer server = server(arrivals)) {
+            // 先建立连接，避免第一个请求建立连接的时间计入间隔
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/warmup")));
+            arrivals.clear();
+            HttpClient.setRateLimiter(new HttpClient.RateLimiter().setHostLimit("127.0.0.1:" + server.port(), 20, 1));
+            for (int i = 0; i < 5; i++) {
+                HttpClient.execute(new HttpClient.Request("GET", server.url("/" + i)));
+            }
+            // 每秒 20 个请求，按第一个请求计算的发送时间间隔 50 毫秒。
+            // 前一个请求到达晚了不会推迟后面的请求，所以只比较与第一个请求的间隔，允许少量计时误差
+            for (int i = 1; i < arrivals.size(); i++) {
+                long elapsed = millis(arrivals.get(i) - arrivals.get(0));
+                assertTrue(elapsed >= i * 50 - 10, "request " + i + " after " + elapsed);
+            }
+            assertTrue(millis(arrivals.get(4) - arrivals.get(0)) >= 190);
+        }
+    }
+
+    @Test
+    void burstIsSentImmediately() throws Exception {
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        try (TestServer server = server(arrivals)) {
+            HttpClient.setRateLimiter(new HttpClient.RateLimiter().setDefaultHostLimit(5, 3));
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                HttpClient.execute(new HttpClient.Request("GET", server.url("/" + i)));
+            }
+            assertTrue(millis(System.nanoTime() - start) < 150, "burst delayed");
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/3")));
+            // 连续的请求用完后按每秒 5 个的速率发出
+            assertTrue(millis(System.nanoTime() - start) >= 150);
+        }
+    }
+
+    @Test
+    void exceedingMaxWaitFailsFastWithoutSending() throws Exception {
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        try (TestServer server = server(arrivals)) {
+            String host = "127.0.0.1:" + server.port();
+            HttpClient.setRateLimiter(new HttpClient.RateLimiter().setHostLimit(host, 1, 1).setMaxWait(100, TimeUnit.MILLISECONDS));
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/first")));
+            long start = System.nanoTime();
+            HttpClient.RateLimitedException e = assertThrows(HttpClient.RateLimitedException.class,
+                    () -> HttpClient.execute(new HttpClient.Request("GET", server.url("/second"))));
+            assertEquals(host, e.getLimit());
+            assertTrue(millis(System.nanoTime() - start) < 100, "waited before failing");
+            ExecutionException async = assertThrows(ExecutionException.class,
+                    () -> HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/third"))).get(5, TimeUnit.SECONDS));
+            assertTrue(async.getCause() instanceof HttpClient.RateLimitedException, async.getCause().toString());
+            // 失败的请求不占用配额
+            assertEquals(1, arrivals.size());
+        }
+    }
+
+    @Test
+    void longestRoutePrefixApplies() throws Exception {
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        try (TestServer server = server(arrivals)) {
+            HttpClient.setRateLimiter(new HttpClient.RateLimiter()
+                    .setRouteLimit(server.url("/search"), 1, 1)
+                    .setRouteLimit(server.url("/search/open"), 1000, 100)
+                    .setMaxWait(0, TimeUnit.MILLISECONDS));
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/search?q=1")));
+            HttpClient.RateLimitedException e = assertThrows(HttpClient.RateLimitedException.class,
+                    () -> HttpClient.execute(new HttpClient.Request("GET", server.url("/search?q=2"))));
+            assertEquals(server.url("/search"), e.getLimit());
+            for (int i = 0; i < 5; i++) {
+                HttpClient.execute(new HttpClient.Request("GET", server.url("/search/open?q=" + i)));
+                HttpClient.execute(new HttpClient.Request("GET", server.url("/other")));
+            }
+            assertEquals(11, arrivals.size());
+        }
+    }
+
+    @Test
+    void waitingAsyncRequestsDoNotHoldThreads() throws Exception {
+        List<Long> arrivals = new CopyOnWriteArrayList<>();
+        try (TestServer limited = server(arrivals); TestServer other = server(new CopyOnWriteArrayList<>())) {
+            HttpClient.setExecutor(1, 16, null);
+            HttpClient.setRateLimiter(new HttpClient.RateLimiter().setHostLimit("127.0.0.1:" + limited.port(), 5, 1));
+            List<CompletableFuture<HttpClient.Response>> waiting = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                waiting.add(HttpClient.executeAsync(new HttpClient.Request("GET", limited.url("/" + i))));
+            }
+            // 限流的请求在定时器中等待，唯一的线程仍可执行其他主机的请求，不用等排在前面的请求发出
+            assertEquals("/x", HttpClient.executeAsync(new HttpClient.Request("GET", other.url("/x"))).get(5, TimeUnit.SECONDS).getBodyAsString());
+            assertFalse(waiting.get(1).isDone(), "blocked by rate limited requests");
+            assertFalse(waiting.get(2).isDone());
+            for (int i = 0; i < 3; i++) {
+                assertEquals("/" + i, waiting.get(i).get(5, TimeUnit.SECONDS).getBodyAsString());
+            }
+            assertTrue(millis(arrivals.get(2) - arrivals.get(0)) >= 350);
+        }
+    }
+}
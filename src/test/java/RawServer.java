@@ -0,0 +1,128 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** 测试用的 HTTP/1.1 服务端，按请求行返回原样的响应字节，用于构造不合规的响应和观察连接上的请求顺序 */
+final class RawServer implements AutoCloseable {
+    private final ServerSocket serverSocket;
+    private final Function<String, String> responder;
+    /** 按收到的顺序记录的请求行，每个元素为连接序号和请求行 */
+    final List<String> requests = new CopyOnWriteArrayList<>();
+    /** 读完一个请求时连接上已经收到下一个请求的次数，即客户端流水线发送的请求数 */
+    final AtomicInteger pipelined = new AtomicInteger();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param responder 按请求行返回完整的响应，返回 null 时关闭连接，请求或响应带有 Connection: close 时发送后关闭连接
+     */
+    RawServer(Function<String, String> responder) throws IOException {
+        this.serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        this.responder = responder;
+        Thread acceptor = new Thread(this::accept, "raw-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    /** 已接受的连接数 */
+    int connections() {
+        return sockets.size();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                int index = sockets.size();
+                Thread thread = new Thread(() -> serve(socket, index), "raw-server-" + index);
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket, int index) {
+        try (Socket s = socket) {
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null) {
+                    return;
+                }
+                long length = 0;
+                boolean close = false;
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    String lower = line.toLowerCase();
+                    if (lower.startsWith("content-length:")) {
+                        length = Long.parseLong(line.substring(15).trim());
+                    } else if (lower.startsWith("connection:") && lower.contains("close")) {
+                        close = true;
+                    }
+                }
+                for (long i = 0; i < length; i++) {
+                    in.read();
+                }
+                if (in.available() > 0) {
+                    pipelined.incrementAndGet();
+                }
+                requests.add(index + " " + requestLine);
+                String response = responder.apply(requestLine);
+                if (response == null) {
+                    return;
+                }
+                out.write(response.getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                if (close || response.contains("\r\nConnection: close\r\n")) {
+                    // 像通常的服务端一样先关闭输出并丢弃未读的请求，避免连接被重置时客户端丢失已发送的响应
+                    s.shutdownOutput();
+                    s.setSoTimeout(1000);
+                    while (in.read() != -1) {
+                        // 丢弃
+                    }
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+            // 客户端断开
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                String text = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseCacheTest {
+    private final HttpClient.ResponseCache cache = new HttpClient.ResponseCache(16, 1 << 20);
+
+    @AfterEach
+    void reset() {
+        HttpClient.setCache(null);
+    }
+
+    /** 路径为响应的 Cache-Control，下划线代替逗号；响应体为请求序号和请求的 Authorization */
+    private static TestServer server() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        return TestServer.start(exchange -> {
+            exchange.getResponseHeaders().set("Cache-Control", exchange.getRequestURI().getPath().substring(1).replace('_', ','));
+            TestServer.respond(exchange, 200, count.incrementAndGet() + " " + exchange.getRequestHeaders().getFirst("Authorization"));
+        });
+    }
+
+    private static String get(TestServer server, String path, String authorization) throws Exception {
+        HttpClient.Entry headers = authorization == null ? null : new HttpClient.Entry().setKeyValue("Authorization", authorization);
+        return HttpClient.execute("GET", server.url(path), null, headers).getBodyAsString();
+    }
+
+    @Test
+    void freshResponseIsServedFromCache() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setCache(cache);
+            assertEquals("1 null", get(server, "/max-age=60", null));
+            assertEquals("1 null", get(server, "/max-age=60", null));
+            assertEquals(1, server.requests.get());
+            assertEquals(1, cache.getHitCount());
+        }
+    }
+
+    @Test
+    void privateResponseIsNotStored() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setCache(cache);
+            assertEquals("1 null", get(server, "/private_max-age=60", null));
+            assertEquals("2 null", get(server, "/private_max-age=60", null));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void authorizedResponseIsNotSharedWithoutPublic() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setCache(cache);
+            assertEquals("1 alice", get(server, "/max-age=60", "alice"));
+            assertEquals("2 bob", get(server, "/max-age=60", "bob"));
+            assertEquals("3 null", get(server, "/max-age=60", null));
+            assertEquals(1, cache.size());
+            // 匿名请求缓存的响应也不返回给带认证信息的请求
+            assertEquals("4 alice", get(server, "/max-age=60", "alice"));
+            assertEquals("3 null", get(server, "/max-age=60", null));
+            assertEquals(1, cache.getHitCount());
+        }
+    }
+
+    @Test
+    void authorizedResponseIsSharedWhenExplicitlyAllowed() throws Exception {
+        try (TestServer server = server()) {
+            HttpClient.setCache(cache);
+            assertEquals("1 alice", get(server, "/public_max-age=60", "alice"));
+            assertEquals("1 alice", get(server, "/public_max-age=60", "bob"));
+            assertEquals("2 alice", get(server, "/s-maxage=60", "alice"));
+            assertEquals("2 alice", get(server, "/s-maxage=60", "bob"));
+            // s-maxage 优先于 max-age
+            assertEquals("3 null", get(server, "/max-age=60_s-maxage=0_must-revalidate", null));
+            assertEquals("4 null", get(server, "/max-age=60_s-maxage=0_must-revalidate", null));
+            assertEquals(4, server.requests.get());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RetryPolicyTest {
+
+    @AfterEach
+    void reset() {
+        HttpClient.setRetryPolicy(null);
+    }
+
+    /** 前 failures 个请求返回 code，之后返回 200 */
+    private static TestServer failing(int failures, int code) throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        return TestServer.start(exchange -> {
+            int n = count.incrementAndGet();
+            TestServer.respond(exchange, n <= failures ? code : 200, String.valueOf(n));
+        });
+    }
+
+    private static HttpClient.RetryPolicy policy() {
+        return new HttpClient.RetryPolicy().setBackoff(1, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void retriesIdempotentRequestUntilSuccess() throws Exception {
+        try (TestServer server = failing(2, 503)) {
+            HttpClient.setRetryPolicy(policy());
+            HttpClient.Response response = HttpClient.execute(new HttpClient.Request("GET", server.url("/")));
+            assertEquals(200, response.getCode());
+            assertEquals("3", response.getBodyAsString());
+            assertEquals(3, server.requests.get());
+        }
+    }
+
+    @Test
+    void returnsLastResponseAfterMaxAttempts() throws Exception {
+        try (TestServer server = failing(Integer.MAX_VALUE, 504)) {
+            HttpClient.setRetryPolicy(policy().setMaxAttempts(4));
+            HttpClient.Response response = HttpClient.execute(new HttpClient.Request("GET", server.url("/")));
+            assertEquals(504, response.getCode());
+            assertEquals("4", response.getBodyAsString());
+            assertEquals(4, server.requests.get());
+        }
+    }
+
+    @Test
+    void asyncRequestIsRetried() throws Exception {
+        try (TestServer server = failing(1, 502)) {
+            HttpClient.setRetryPolicy(policy());
+            HttpClient.Response response = HttpClient.executeAsync(new HttpClient.Request("GET", server.url("/"))).get(5, TimeUnit.SECONDS);
+            assertEquals(200, response.getCode());
+            assertEquals(2, server.requests.get());
+        }
+    }
+
+    @Test
+    void postIsRetriedOnlyWhenServerDidNotProcessIt() throws Exception {
+        try (TestServer server = failing(1, 502)) {
+            HttpClient.setRetryPolicy(policy());
+            assertEquals(502, HttpClient.execute(new HttpClient.Request("POST", server.url("/"))).getCode());
+            assertEquals(1, server.requests.get());
+        }
+        try (TestServer server = failing(1, 503)) {
+            HttpClient.setRetryPolicy(policy());
+            assertEquals(200, HttpClient.execute(new HttpClient.Request("POST", server.url("/"))).getCode());
+            assertEquals(2, server.requests.get());
+        }
+    }
+
+    @Test
+    void connectionDropIsRetriedForGet() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        try (RawServer server = new RawServer(requestLine -> count.incrementAndGet() == 1 ? null
+                : "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok")) {
+            HttpClient.setRetryPolicy(policy());
+            assertEquals("ok", HttpClient.execute(new HttpClient.Request("GET", server.url("/"))).getBodyAsString());
+            assertEquals(2, count.get());
+        }
+    }
+
+    @Test
+    void waitsForRetryAfter() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        try (TestServer server = TestServer.start(exchange -> {
+            if (count.incrementAndGet() == 1) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                TestServer.respond(exchange, 429, "slow down");
+            } else {
+                TestServer.respond(exchange, 200, "ok");
+            }
+        })) {
+            HttpClient.setRetryPolicy(new HttpClient.RetryPolicy().setBackoff(1, 2000, TimeUnit.MILLISECONDS));
+            long start = System.nanoTime();
+            assertEquals(200, HttpClient.execute(new HttpClient.Request("GET", server.url("/"))).getCode());
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1000));
+            // Retry-After 超过最长退避时间时不重试
+            count.set(0);
+            HttpClient.setRetryPolicy(new HttpClient.RetryPolicy().setBackoff(1, 500, TimeUnit.MILLISECONDS));
+            assertEquals(429, HttpClient.execute(new HttpClient.Request("GET", server.url("/"))).getCode());
+            assertEquals(1, count.get());
+        }
+    }
+
+    @Test
+    void retryBudgetLimitsRetriesPerHost() throws Exception {
+        try (TestServer server = failing(Integer.MAX_VALUE, 503)) {
+            // 令牌桶只够重试 2 次，请求不存入令牌
+            HttpClient.setRetryPolicy(policy().setRetryBudget(2, 0));
+            assertEquals(503, HttpClient.execute(new HttpClient.Request("GET", server.url("/a"))).getCode());
+            assertEquals(3, server.requests.get());
+            assertEquals(503, HttpClient.execute(new HttpClient.Request("GET", server.url("/b"))).getCode());
+            assertEquals(4, server.requests.get());
+        }
+        try (TestServer server = failing(Integer.MAX_VALUE, 503)) {
+            // 每个请求存入半个令牌，两个请求恢复一次重试
+            HttpClient.setRetryPolicy(policy().setRetryBudget(1, 0.5));
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/a")));
+            assertEquals(2, server.requests.get());
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/b")));
+            assertEquals(3, server.requests.get());
+            HttpClient.execute(new HttpClient.Request("GET", server.url("/c")));
+            assertEquals(5, server.requests.get());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StreamingTest {
+    /** 3 MB 的随机内容，大于传输层和写文件的缓冲区 */
+    private static final byte[] CONTENT = new byte[3 * 1024 * 1024 + 17];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    Path dir;
+
+    private HttpClient.NioTransport nio;
+
+    @AfterEach
+    void reset() {
+        HttpClient.setTransport(new HttpClient.UrlConnectionTransport());
+        if (nio != null) {
+            nio.close();
+        }
+    }
+
+    /** /fixed 按固定长度返回内容，/chunked 分块返回，/missing 返回 404 */
+    private static TestServer server() throws IOException {
+        return TestServer.start(exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/missing")) {
+                TestServer.respond(exchange, 404, "not found");
+                return;
+            }
+            send(exchange, path.equals("/chunked") ? 0 : CONTENT.length);
+        });
+    }
+
+    private static void send(HttpExchange exchange, long length) throws IOException {
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int offset = 0; offset < CONTENT.length; offset += 64 * 1024) {
+                out.write(CONTENT, offset, Math.min(64 * 1024, CONTENT.length - offset));
+            }
+        }
+    }
+
+    private static byte[] readStream(String url) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpClient.getStream(url, null, null, body -> {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = body.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        });
+        return out.toByteArray();
+    }
+
+    private void assertDownloads(TestServer server) throws IOException {
+        for (String path : new String[]{"/fixed", "/chunked"}) {
+            assertArrayEquals(CONTENT, readStream(server.url(path)), path);
+            Path target = dir.resolve(path.substring(1) + ".bin");
+            // 已存在的更长的文件被截断后覆盖
+            Files.write(target, new byte[CONTENT.length + 1024]);
+            assertEquals(CONTENT.length, HttpClient.download(server.url(path), null, null, target));
+            assertArrayEquals(CONTENT, Files.readAllBytes(target), path);
+        }
+    }
+
+    @Test
+    void streamsAndDownloadsOnUrlConnection() throws Exception {
+        try (TestServer server = server()) {
+            assertDownloads(server);
+        }
+    }
+
+    @Test
+    void streamsAndDownloadsOnNio() throws Exception {
+        try (TestServer server = server()) {
+            nio = new HttpClient.NioTransport();
+            HttpClient.setTransport(nio);
+            assertDownloads(server);
+        }
+    }
+
+    @Test
+    void bodyIsHandedOverBeforeResponseEnds() throws Exception {
+        CountDownLatch firstRead = new CountDownLatch(1);
+        try (TestServer server = TestServer.start(exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("first".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                // 客户端读到前面的内容后才发送剩余部分，整体读入内存后再回调时这里会超时
+                if (!firstRead.await(5, TimeUnit.SECONDS)) {
+                    return;
+                }
+                out.write(" rest".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        })) {
+            StringBuilder text = new StringBuilder();
+            HttpClient.getStream(server.url("/"), null, null, body -> {
+                byte[] buffer = new byte[5];
+                int n = 0;
+                while (n < 5) {
+                    n += body.read(buffer, n, 5 - n);
+                }
+                text.append(new String(buffer, StandardCharsets.UTF_8));
+                firstRead.countDown();
+                int b;
+                while ((b = body.read()) != -1) {
+                    text.append((char) b);
+                }
+            });
+            assertEquals("first rest", text.toString());
+        }
+    }
+
+    @Test
+    void errorStatusFailsWithoutTouchingFile() throws Exception {
+        try (TestServer server = server()) {
+            Path target = dir.resolve("existing.txt");
+            Files.write(target, "keep".getBytes(StandardCharsets.UTF_8));
+            HttpClient.HttpStatusException e = assertThrows(HttpClient.HttpStatusException.class,
+                    () -> HttpClient.download(server.url("/missing"), null, null, target));
+            assertEquals(404, e.getCode());
+            assertEquals("keep", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+            assertThrows(HttpClient.HttpStatusException.class, () -> readStream(server.url("/missing")));
+        }
+    }
+
+    @Test
+    void postStreamSendsFormParams() throws Exception {
+        try (TestServer server = TestServer.echo()) {
+            HttpClient.Entry params = new HttpClient.Entry().setKeyValue("name", "value");
+            StringBuilder text = new StringBuilder();
+            HttpClient.postStream(server.url("/form"), params, null, body -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int b;
+                while ((b = body.read()) != -1) {
+                    out.write(b);
+                }
+                text.append(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            });
+            assertEquals("POST /form name=value", text.toString());
+            assertEquals(1, server.requests.get());
+        }
+    }
+}
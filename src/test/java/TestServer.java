@@ -0,0 +1,87 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 测试用的本地 HTTP/1.1 服务端，绑定回环地址的随机端口 */
+final class TestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    /** 收到的请求数 */
+    final AtomicInteger requests = new AtomicInteger();
+
+    private TestServer(HttpHandler handler) throws IOException {
+        this(InetAddress.getLoopbackAddress(), 0, handler);
+    }
+
+    private TestServer(InetAddress address, int port, HttpHandler handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(address, port), 128);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                handler.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    static TestServer start(HttpHandler handler) throws IOException {
+        return new TestServer(handler);
+    }
+
+    static TestServer start(InetAddress address, int port, HttpHandler handler) throws IOException {
+        return new TestServer(address, port, handler);
+    }
+
+    /** 返回请求方式、地址和请求体的服务端 */
+    static TestServer echo() throws IOException {
+        return start(exchange -> respond(exchange, 200, exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " + readBody(exchange)));
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    String url(String path) {
+        return "http://127.0.0.1:" + port() + path;
+    }
+
+    static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = exchange.getRequestBody();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            body.write(buffer, 0, n);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}